@@ -1,32 +1,43 @@
 package ai.miko.store;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
-import ai.miko.store.domain.FetchAppsRequest;
-import ai.miko.store.domain.UpdateAppStateRequest;
-import ai.miko.store.domain.UpdateApps;
+import ai.miko.store.codec.DomainCodecs;
+import ai.miko.store.config.KafkaConfig;
+import ai.miko.store.config.MongoConfig;
+import ai.miko.store.dao.IndexManager;
+import ai.miko.store.verticle.AnalyticsVerticle;
 import ai.miko.store.verticle.AppManagementVerticle;
+import ai.miko.store.verticle.ArtifactVerticle;
+import ai.miko.store.verticle.CatalogVerticle;
+import ai.miko.store.verticle.HttpServerVerticle;
 import ai.miko.store.verticle.LogVerticle;
 import ai.miko.store.verticle.NotificationVerticle;
+import ai.miko.store.verticle.PatchVerticle;
+import ai.miko.store.verticle.StateIngestVerticle;
 import ai.miko.store.verticle.StateManagementVerticle;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
 import io.vertx.core.ThreadingModel;
-import io.vertx.core.json.Json;
-import io.vertx.core.json.JsonObject;
+import io.vertx.core.Verticle;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.jackson.DatabindCodec;
 import io.vertx.ext.mongo.MongoClient;
-import io.vertx.ext.web.Router;
-import io.vertx.ext.web.handler.BodyHandler;
-import io.vertx.ext.web.handler.LoggerHandler;
 
 public class MainVerticle extends AbstractVerticle {
 
+	static final List<String> ROLES = List.of("http", "app", "state", "log",
+			"notification");
+
 	private MongoClient mongoClient;
+	private IndexManager indexManager;
 
 	static {
 		// Intermediate solution for LocalDateTime/Instant Json
@@ -45,15 +56,19 @@ public class MainVerticle extends AbstractVerticle {
 
 	@Override
 	public void start(Promise<Void> startPromise) {
-		String connectionString = "mongodb+srv://<username>:<password>@store.dsvyk.mongodb.net/?retryWrites=true&w=majority&appName=store";
-		JsonObject config = new JsonObject()
-				.put("connection_string", connectionString)
-				.put("db_name", "app_store");
+		mongoClient = MongoConfig.shared(vertx, config());
+
+		DomainCodecs.register(vertx.eventBus());
 
-		mongoClient = MongoClient.create(vertx, config);
+		// Runs next to the deployment, readiness reports its outcome
+		indexManager = new IndexManager(vertx, mongoClient, config());
+		indexManager.start().onFailure(err -> System.err
+				.println("Index check failed: " + err.getMessage()));
+		vertx.eventBus().localConsumer(IndexManager.STATUS,
+				message -> message.reply(indexManager.status()));
 
 		// Deploy the verticles sequentially and then start the HTTP server
-		deployVerticles().compose(v -> createHttpServer()).onComplete(ar -> {
+		deployVerticles().onComplete(ar -> {
 			if (ar.succeeded()) {
 				startPromise.complete();
 				System.out.println(
@@ -64,112 +79,99 @@ public class MainVerticle extends AbstractVerticle {
 		});
 	}
 
+	// The request path verticles run once per core by default, the owners
+	// of per node state (catalog, artifact store) and the background writers
+	// once. instances.<name> overrides the count.
+	//
+	// Nodes sharing a clustered event bus (-cluster on the launcher) can
+	// split the work through the roles config, every role by default:
+	// "http" takes the robots' requests and serves artifacts from its own
+	// disk and patches from GridFS, "app" answers app fetches and builds the
+	// patches, "state" and "log" write to Mongo (and consume the ingest topic
+	// in the kafka ingest mode) and "notification" sends mail.
 	private Future<Void> deployVerticles() {
 		Promise<Void> promise = Promise.promise();
-
-		vertx.deployVerticle(new AppManagementVerticle(mongoClient))
-				.compose(v -> vertx.deployVerticle(
-						new StateManagementVerticle(mongoClient)))
-				.compose(v -> vertx.deployVerticle(new NotificationVerticle(),
-						new DeploymentOptions()
-								.setThreadingModel(ThreadingModel.WORKER)))
-				.compose(
-						v -> vertx.deployVerticle(new LogVerticle(mongoClient)))
-				.onComplete(ar -> {
-					if (ar.succeeded()) {
-						promise.complete();
-					} else {
-						promise.fail(ar.cause());
-					}
-				});
-
-		return promise.future();
-	}
-
-	private Future<Void> createHttpServer() {
-		Promise<Void> promise = Promise.promise();
-		Router router = Router.router(vertx);
-
-		router.route().handler(LoggerHandler.create());
-		router.route().handler(BodyHandler.create());
-
-		router.route().failureHandler(ctx -> {
-			Throwable failure = ctx.failure();
-			int statusCode = ctx.statusCode();
-
-			if (failure instanceof RuntimeException) {
-				statusCode = 400;
-				failure.printStackTrace();
-				ctx.response().setStatusCode(statusCode)
-						.putHeader("content-type", "application/json")
-						.end(new JsonObject()
-								.put("error", "Custom error occurred")
-								.toBuffer());
-			} else {
-				ctx.response()
-						.setStatusCode(statusCode != -1 ? statusCode : 500)
-						.putHeader("content-type", "application/json")
-						.end(new JsonObject().put("error", failure.getMessage())
-								.toBuffer());
+		int cores = Runtime.getRuntime().availableProcessors();
+		List<String> roles = roles();
+		System.out.println("Deploying roles " + roles);
+
+		Future<String> chain = Future.succeededFuture();
+		if (roles.contains("app")) {
+			chain = chain.compose(v -> deploy(CatalogVerticle.class, 1))
+					.compose(v -> deploy(AppManagementVerticle.class,
+							instances("app", cores)))
+					.compose(v -> deploy(PatchVerticle.class, 1));
+		}
+		if (roles.contains("state")) {
+			chain = chain.compose(v -> deploy(StateManagementVerticle.class,
+					instances("state", cores)));
+			if (KafkaConfig.ingestEnabled(config())) {
+				// More consumers than topic partitions would sit idle
+				chain = chain.compose(v -> deploy(StateIngestVerticle.class,
+						instances("ingest", 1)));
 			}
-		});
-
-		router.post("/api/apps").handler(ctx -> {
-			FetchAppsRequest requestBody = Json
-					.decodeValue(ctx.body().asString(), FetchAppsRequest.class);
-			vertx.eventBus().request("app.fetch", requestBody, reply -> {
-				if (reply.succeeded()) {
-					UpdateApps updateApps = (UpdateApps) reply.result().body();
-					ctx.response().setStatusCode(200)
-							.putHeader("content-type", "application/json")
-							.end(Json.encode(updateApps));
-				} else {
-					ctx.fail(reply.cause());
-				}
-			});
-		});
-
-		router.post("/api/state-update").handler(ctx -> {
-			UpdateAppStateRequest updateRequest = Json.decodeValue(
-					ctx.body().asString(), UpdateAppStateRequest.class);
-			vertx.eventBus().request("state.update", updateRequest, reply -> {
-				if (reply.succeeded()) {
-					ctx.response().putHeader("content-type", "text/plain")
-							.end("State and logs updated successfully");
-				} else {
-					ctx.fail(reply.cause());
-				}
-			});
-		});
-
-		// Feature to be developed.
-		router.post("/api/analytics").handler(ctx -> {
-			// AnalyticsRequest analyticsReq =
-			// Json.decodeValue(ctx.body().asString(), AnalyticsRequest.class);
-			vertx.eventBus().request("logs.analytics", "analyticsReq",
-					reply -> {
-						if (reply.succeeded()) {
-							// To be developed.
-						} else {
-							ctx.fail(reply.cause());
-						}
-					});
-		});
-
-		vertx.createHttpServer().requestHandler(router).listen(8080, http -> {
-			if (http.succeeded()) {
-				System.out.println("HTTP server started on port 8080");
+		}
+		if (roles.contains("notification")) {
+			chain = chain.compose(v -> vertx.deployVerticle(
+					NotificationVerticle.class.getName(),
+					new DeploymentOptions().setConfig(config())
+							.setThreadingModel(ThreadingModel.WORKER)));
+		}
+		if (roles.contains("log")) {
+			chain = chain
+					.compose(v -> deploy(LogVerticle.class,
+							instances("log", cores)))
+					.compose(v -> deploy(AnalyticsVerticle.class, 1));
+		}
+		if (roles.contains("http")) {
+			chain = chain.compose(v -> deploy(ArtifactVerticle.class, 1))
+					.compose(v -> deploy(HttpServerVerticle.class,
+							instances("http", cores)));
+		}
+		chain.onComplete(ar -> {
+			if (ar.succeeded()) {
 				promise.complete();
 			} else {
-				promise.fail(http.cause());
+				promise.fail(ar.cause());
 			}
 		});
 
 		return promise.future();
 	}
 
+	private List<String> roles() {
+		JsonArray configured = config().getJsonArray("roles");
+		if (configured == null || configured.isEmpty()) {
+			return ROLES;
+		}
+		List<String> roles = new ArrayList<>();
+		for (Object role : configured) {
+			if (!ROLES.contains(role)) {
+				throw new IllegalArgumentException("Unknown role " + role);
+			}
+			roles.add((String) role);
+		}
+		return roles;
+	}
+
+	private Future<String> deploy(Class<? extends Verticle> verticle,
+			int instances) {
+		System.out.println("Deploying " + instances + " instance(s) of "
+				+ verticle.getSimpleName());
+		return vertx.deployVerticle(verticle.getName(),
+				new DeploymentOptions().setConfig(config())
+						.setInstances(instances));
+	}
+
+	private int instances(String name, int cores) {
+		return Math.max(1, config().getInteger("instances." + name, cores));
+	}
+
 	@Override
 	public void stop(Promise<Void> stopPromise) {
+		if (indexManager != null) {
+			indexManager.stop();
+		}
 		if (mongoClient != null) {
 			mongoClient.close();
 		}
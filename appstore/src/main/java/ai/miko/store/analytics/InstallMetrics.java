@@ -0,0 +1,195 @@
+package ai.miko.store.analytics;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import ai.miko.store.domain.ApplicationState;
+import ai.miko.store.domain.UpdateAppStateRequest;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+// Live install outcomes of this node, counted as state updates come in.
+// Counters are LongAdders, so the verticles recording updates never contend
+// with each other or with readers, and a read is a map lookup.
+//
+// Counted per app version, per app and in total: updates per state, the
+// report delay (robot timestamp to arrival) and the time it took to persist
+// the update, both as histograms where bucket b holds durations under 2^b
+// milliseconds. Counters start at zero with the process.
+public class InstallMetrics implements Shareable {
+
+	private static final String KEY = "install.metrics";
+	private static final int BUCKETS = 32;
+
+	private static class Histogram {
+		private final LongAdder[] buckets = adders(BUCKETS);
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sum = new LongAdder();
+
+		void record(long ms) {
+			ms = Math.max(0, ms);
+			int bucket = Math.min(BUCKETS - 1,
+					64 - Long.numberOfLeadingZeros(ms));
+			buckets[bucket].increment();
+			count.increment();
+			sum.add(ms);
+		}
+
+		JsonObject snapshot() {
+			long[] counts = new long[BUCKETS];
+			for (int b = 0; b < BUCKETS; b++) {
+				counts[b] = buckets[b].sum();
+			}
+			return snapshot(counts, count.sum(), sum.sum());
+		}
+
+		static JsonObject merge(List<JsonObject> snapshots, String name) {
+			long[] counts = new long[BUCKETS];
+			long total = 0;
+			long sum = 0;
+			for (JsonObject snapshot : snapshots) {
+				JsonObject histogram = snapshot.getJsonObject(name);
+				total += histogram.getLong("count");
+				sum += histogram.getLong("sumMs");
+				for (Object bucket : histogram.getJsonArray("buckets")) {
+					JsonObject b = (JsonObject) bucket;
+					long underMs = b.getLong("underMs");
+					counts[Long.numberOfTrailingZeros(underMs)] += b
+							.getLong("count");
+				}
+			}
+			return snapshot(counts, total, sum);
+		}
+
+		private static JsonObject snapshot(long[] counts, long total,
+				long sum) {
+			JsonArray buckets = new JsonArray();
+			for (int b = 0; b < BUCKETS; b++) {
+				if (counts[b] > 0) {
+					buckets.add(new JsonObject().put("underMs", 1L << b)
+							.put("count", counts[b]));
+				}
+			}
+			return new JsonObject().put("count", total).put("sumMs", sum)
+					.put("avgMs", total == 0 ? 0 : sum / total)
+					.put("buckets", buckets);
+		}
+	}
+
+	private static class Outcomes {
+		private final LongAdder[] states = adders(
+				ApplicationState.values().length);
+		private final Histogram reportDelay = new Histogram();
+		private final Histogram writeLatency = new Histogram();
+
+		JsonObject snapshot() {
+			JsonObject counts = new JsonObject();
+			for (ApplicationState state : ApplicationState.values()) {
+				counts.put(state.name(), states[state.ordinal()].sum());
+			}
+			return new JsonObject().put("states", counts)
+					.put("reportDelay", reportDelay.snapshot())
+					.put("writeLatency", writeLatency.snapshot());
+		}
+	}
+
+	private final Outcomes total = new Outcomes();
+	private final ConcurrentMap<String, Outcomes> byKey = new ConcurrentHashMap<>();
+
+	// The instance shared by all verticles of this Vert.x instance
+	public static InstallMetrics shared(Vertx vertx) {
+		LocalMap<String, InstallMetrics> map = vertx.sharedData()
+				.getLocalMap(KEY);
+		InstallMetrics metrics = new InstallMetrics();
+		InstallMetrics existing = map.putIfAbsent(KEY, metrics);
+		return existing != null ? existing : metrics;
+	}
+
+	// An update arrived, `now` in epoch millis
+	public void received(UpdateAppStateRequest update, long now) {
+		Instant at = update.getTimestamp();
+		for (Outcomes counters : counters(update)) {
+			if (update.getState() != null) {
+				counters.states[update.getState().ordinal()].increment();
+			}
+			if (at != null) {
+				counters.reportDelay.record(now - at.toEpochMilli());
+			}
+		}
+	}
+
+	// An update was persisted `ms` after it arrived
+	public void written(UpdateAppStateRequest update, long ms) {
+		for (Outcomes counters : counters(update)) {
+			counters.writeLatency.record(ms);
+		}
+	}
+
+	// Counters of one app version, of one app when version is null, or of
+	// all installs when appId is null as well
+	public JsonObject snapshot(String appId, String version) {
+		Outcomes counters = appId == null ? total
+				: byKey.get(key(appId, version));
+		JsonObject snapshot = counters == null ? new Outcomes().snapshot()
+				: counters.snapshot();
+		if (appId != null) {
+			snapshot.put("appId", appId).put("version", version);
+		}
+		return snapshot;
+	}
+
+	// Sum of snapshots taken on several nodes for the same appId and version
+	public static JsonObject merge(String appId, String version,
+			List<JsonObject> snapshots) {
+		JsonObject states = new JsonObject();
+		for (ApplicationState state : ApplicationState.values()) {
+			long count = 0;
+			for (JsonObject snapshot : snapshots) {
+				count += snapshot.getJsonObject("states")
+						.getLong(state.name(), 0L);
+			}
+			states.put(state.name(), count);
+		}
+		JsonObject merged = new JsonObject().put("states", states)
+				.put("reportDelay", Histogram.merge(snapshots, "reportDelay"))
+				.put("writeLatency",
+						Histogram.merge(snapshots, "writeLatency"));
+		if (appId != null) {
+			merged.put("appId", appId).put("version", version);
+		}
+		return merged;
+	}
+
+	private Outcomes[] counters(UpdateAppStateRequest update) {
+		String appId = update.getAppId();
+		if (appId == null) {
+			return new Outcomes[] { total };
+		}
+		Outcomes app = byKey.computeIfAbsent(key(appId, null),
+				k -> new Outcomes());
+		if (update.getVersion() == null) {
+			return new Outcomes[] { total, app };
+		}
+		return new Outcomes[] { total, app,
+				byKey.computeIfAbsent(key(appId, update.getVersion()),
+						k -> new Outcomes()) };
+	}
+
+	private static String key(String appId, String version) {
+		return appId + '/' + (version == null ? "*" : version);
+	}
+
+	private static LongAdder[] adders(int size) {
+		LongAdder[] adders = new LongAdder[size];
+		for (int i = 0; i < size; i++) {
+			adders[i] = new LongAdder();
+		}
+		return adders;
+	}
+}
@@ -0,0 +1,217 @@
+package ai.miko.store.analytics;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.BulkOperation;
+
+// Folds install log entries into increments of the rollup documents the
+// analytics endpoint reads, so a report costs a few point reads however
+// large app_logs grows. There is one document for all installs ("*"), one
+// per app ("<appId>/*") and one per app version ("<appId>/<version>"),
+// each holding:
+//
+// scheduled, picked_up, completed, errors: entries seen per state
+// retries.<n>: completed installs that needed n retries (10 for 10 or more)
+// ttl_ms, ttl_count, ttl.<b>: time from scheduling to completion, its sum,
+// count and a histogram where bucket b holds installs under 2^b seconds
+//
+// The scheduling time of an install still in progress is kept in
+// install_starts under its app and robot until the install completes.
+public class InstallRollups {
+
+	public static final String COLLECTION = "install_rollups";
+	public static final String STARTS = "install_starts";
+	public static final String ALL = "*";
+
+	static final int MAX_RETRIES = 10;
+
+	private final Map<String, JsonObject> starts;
+	private final Map<String, JsonObject> increments = new LinkedHashMap<>();
+	private final Set<String> started = new LinkedHashSet<>();
+	private final Set<String> finished = new LinkedHashSet<>();
+
+	// `starts` holds the install_starts documents of the installs the batch
+	// completes, by _id
+	public InstallRollups(Map<String, JsonObject> starts) {
+		this.starts = new LinkedHashMap<>(starts);
+	}
+
+	public static String startKey(String appId, String robotId) {
+		return appId + '/' + robotId;
+	}
+
+	// Keys of the install_starts documents a batch of log entries needs
+	public static JsonArray completions(JsonArray entries) {
+		Set<String> keys = new LinkedHashSet<>();
+		for (int i = 0; i < entries.size(); i++) {
+			JsonObject entry = entries.getJsonObject(i);
+			if ("COMPLETED".equals(entry.getString("state"))) {
+				keys.add(startKey(entry.getString("app_id"),
+						entry.getString("robot_id")));
+			}
+		}
+		return new JsonArray(keys.stream().toList());
+	}
+
+	public void add(JsonObject entry) {
+		String appId = entry.getString("app_id");
+		String version = entry.getString("version");
+		String state = entry.getString("state");
+		if (appId == null || version == null || state == null) {
+			return;
+		}
+		String key = startKey(appId, entry.getString("robot_id"));
+		Instant at = entry.getInstant("op_prfmd_ts");
+		JsonObject inc = new JsonObject();
+		switch (state) {
+		case "SCHEDULED":
+			inc.put("scheduled", 1L);
+			if (at != null) {
+				starts.put(key, new JsonObject().put("version", version)
+						.put("ts", at.toEpochMilli()));
+				started.add(key);
+				finished.remove(key);
+			}
+			break;
+		case "PICKEDUP":
+			inc.put("picked_up", 1L);
+			break;
+		case "COMPLETED":
+			int retries = entry.getInteger("retries", 0);
+			inc.put("completed", 1L).put(
+					"retries." + Math.min(retries, MAX_RETRIES), 1L);
+			JsonObject start = starts.remove(key);
+			started.remove(key);
+			finished.add(key);
+			if (start != null && at != null
+					&& Objects.equals(version, start.getString("version"))) {
+				long ms = Math.max(0, at.toEpochMilli() - start.getLong("ts"));
+				inc.put("ttl_ms", ms).put("ttl_count", 1L)
+						.put("ttl." + bucket(ms), 1L);
+			}
+			break;
+		case "ERROR":
+			inc.put("errors", 1L);
+			break;
+		default:
+			return;
+		}
+		increment(ALL, null, null, inc);
+		increment(appId + '/' + ALL, appId, ALL, inc);
+		increment(appId + '/' + version, appId, version, inc);
+	}
+
+	// Upserts applying the increments to the rollup documents
+	public List<BulkOperation> rollupOperations() {
+		List<BulkOperation> operations = new ArrayList<>(increments.size());
+		increments.forEach((id, update) -> operations.add(BulkOperation
+				.createUpdate(new JsonObject().put("_id", id), update, true,
+						false)));
+		return operations;
+	}
+
+	// Records the installs the batch scheduled and forgets the ones it
+	// completed
+	public List<BulkOperation> startOperations() {
+		List<BulkOperation> operations = new ArrayList<>();
+		for (String key : started) {
+			operations.add(BulkOperation.createReplace(
+					new JsonObject().put("_id", key), starts.get(key), true));
+		}
+		for (String key : finished) {
+			operations.add(BulkOperation
+					.createDelete(new JsonObject().put("_id", key)));
+		}
+		return operations;
+	}
+
+	private void increment(String id, String appId, String version,
+			JsonObject inc) {
+		JsonObject update = increments.computeIfAbsent(id, k -> {
+			JsonObject doc = new JsonObject().put("$inc", new JsonObject());
+			if (appId != null) {
+				doc.put("$set", new JsonObject().put("app_id", appId)
+						.put("version", version));
+			}
+			return doc;
+		});
+		JsonObject fields = update.getJsonObject("$inc");
+		for (String field : inc.fieldNames()) {
+			fields.put(field,
+					fields.getLong(field, 0L) + inc.getLong(field));
+		}
+	}
+
+	// Bucket b holds durations under 2^b seconds
+	static int bucket(long ms) {
+		return 64 - Long.numberOfLeadingZeros(ms / 1000);
+	}
+
+	// The report for one rollup document
+	public static JsonObject summary(JsonObject doc) {
+		long scheduled = count(doc, "scheduled");
+		long completed = count(doc, "completed");
+		long errors = count(doc, "errors");
+		JsonObject summary = new JsonObject();
+		if (doc.getString("app_id") != null) {
+			summary.put("appId", doc.getString("app_id"));
+			summary.put("version", doc.getString("version"));
+		}
+		// Success is per scheduled install, failure per attempt, a retried
+		// install counts every failed attempt
+		return summary.put("scheduled", scheduled)
+				.put("pickedUp", count(doc, "picked_up"))
+				.put("completed", completed).put("errors", errors)
+				.put("successRate", ratio(completed, scheduled))
+				.put("failureRate", ratio(errors, completed + errors))
+				.put("retries", doc.getJsonObject("retries", new JsonObject()))
+				.put("timeToInstall", timeToInstall(doc));
+	}
+
+	private static JsonObject timeToInstall(JsonObject doc) {
+		long count = count(doc, "ttl_count");
+		JsonObject histogram = doc.getJsonObject("ttl", new JsonObject());
+		JsonArray buckets = new JsonArray();
+		long p50 = -1;
+		long p90 = -1;
+		long seen = 0;
+		for (int b = 0; b < 64; b++) {
+			long n = count(histogram, String.valueOf(b));
+			if (n == 0) {
+				continue;
+			}
+			long under = (1L << b) * 1000;
+			buckets.add(new JsonObject().put("underMs", under).put("count", n));
+			seen += n;
+			// Upper bounds, the histogram does not tell more
+			if (p50 < 0 && seen * 2 >= count) {
+				p50 = under;
+			}
+			if (p90 < 0 && seen * 10 >= count * 9) {
+				p90 = under;
+			}
+		}
+		return new JsonObject().put("count", count)
+				.put("avgMs", count == 0 ? 0 : count(doc, "ttl_ms") / count)
+				.put("p50Ms", Math.max(p50, 0)).put("p90Ms", Math.max(p90, 0))
+				.put("buckets", buckets);
+	}
+
+	private static long count(JsonObject doc, String field) {
+		Number value = doc.getNumber(field);
+		return value == null ? 0 : value.longValue();
+	}
+
+	private static double ratio(long part, long whole) {
+		return whole == 0 ? 0 : (double) part / whole;
+	}
+}
@@ -0,0 +1,84 @@
+package ai.miko.store.analytics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.AsyncMap;
+
+// Cluster wide view of the InstallMetrics, which only count the updates of
+// their own node's StateManagementVerticles. Every node with the state role
+// answers on an address of its own and keeps it in a cluster wide map,
+// renewed while the node lives. A reader asks all of them and adds the
+// snapshots up, nodes that do not answer in time are left out and counted.
+public final class LiveMetrics {
+
+	private static final String NODES = "install.metrics.nodes";
+	private static final String ADDRESS = "install.metrics.live.";
+	// A node that went away drops out of the map after this long
+	private static final long TTL = 30_000;
+
+	private LiveMetrics() {
+	}
+
+	// Called by every StateManagementVerticle instance, the first one of a
+	// node serves that node
+	public static void serve(Vertx vertx) {
+		String address = ADDRESS + UUID.randomUUID();
+		if (vertx.sharedData().<String, String>getLocalMap(NODES)
+				.putIfAbsent(NODES, address) != null) {
+			return;
+		}
+		InstallMetrics metrics = InstallMetrics.shared(vertx);
+		vertx.eventBus().<JsonObject>consumer(address,
+				message -> message.reply(metrics.snapshot(
+						message.body().getString("appId"),
+						message.body().getString("version"))));
+		register(vertx, address);
+		vertx.setPeriodic(TTL / 2, id -> register(vertx, address));
+	}
+
+	private static void register(Vertx vertx, String address) {
+		nodes(vertx).compose(map -> map.put(address, true, TTL))
+				.onFailure(err -> System.err.println("Failed to register"
+						+ " live metrics: " + err.getMessage()));
+	}
+
+	// Counters summed over every state node, with the number of nodes that
+	// answered and of those that did not
+	public static Future<JsonObject> collect(Vertx vertx, String appId,
+			String version, long timeout) {
+		JsonObject query = new JsonObject().put("appId", appId)
+				.put("version", version);
+		DeliveryOptions options = new DeliveryOptions()
+				.setSendTimeout(timeout);
+		return nodes(vertx).compose(AsyncMap::keys).compose(addresses -> {
+			List<Future<Message<JsonObject>>> replies = new ArrayList<>();
+			for (String address : addresses) {
+				replies.add(vertx.eventBus().request(address, query, options));
+			}
+			return Future.join(replies).transform(ar -> {
+				List<JsonObject> snapshots = new ArrayList<>();
+				for (Future<Message<JsonObject>> reply : replies) {
+					if (reply.succeeded()) {
+						snapshots.add(reply.result().body());
+					}
+				}
+				return Future.succeededFuture(InstallMetrics
+						.merge(appId, version, snapshots)
+						.put("nodes", snapshots.size())
+						.put("unreachable", addresses.size()
+								- snapshots.size()));
+			});
+		});
+	}
+
+	private static Future<AsyncMap<String, Boolean>> nodes(Vertx vertx) {
+		return vertx.sharedData().getAsyncMap(NODES);
+	}
+}
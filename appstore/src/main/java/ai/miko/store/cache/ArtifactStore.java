@@ -0,0 +1,233 @@
+package ai.miko.store.cache;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.file.CopyOptions;
+import io.vertx.core.file.FileProps;
+import io.vertx.core.file.FileSystem;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.PoolOptions;
+import io.vertx.core.http.RequestOptions;
+import io.vertx.core.json.JsonObject;
+
+// On-disk copy of the artifacts robots download through the appstore. A
+// miss fetches the artifact from its origin once, however many robots ask
+// for it at the same time, and checks it against the published checksum
+// before it is served. The least recently used artifacts are deleted once
+// the store grows past artifact.cache.max.mb.
+//
+// An origin that stalls for artifact.origin.idle.timeout.ms, or a transfer
+// still running after artifact.origin.timeout.ms, fails the fetch and every
+// robot waiting on it. The next miss starts a new transfer.
+public class ArtifactStore {
+
+	private final Vertx vertx;
+	private final HttpClient client;
+	private final String directory;
+	private final long budget;
+	private final long idleTimeout;
+	private final long transferTimeout;
+
+	// file name to size, in access order
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(
+			16, 0.75f, true);
+	private long bytes;
+	// Origin transfers in progress, by file name
+	private final Map<String, Future<String>> fetching = new HashMap<>();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder originBytes = new LongAdder();
+
+	public ArtifactStore(Vertx vertx, JsonObject config) {
+		this.vertx = vertx;
+		this.directory = config.getString("artifact.cache.dir",
+				System.getProperty("java.io.tmpdir") + "/miko-artifacts");
+		this.budget = config.getLong("artifact.cache.max.mb", 10_240L) * 1024
+				* 1024;
+		this.idleTimeout = config.getLong("artifact.origin.idle.timeout.ms",
+				30_000L);
+		this.transferTimeout = config.getLong("artifact.origin.timeout.ms",
+				30 * 60 * 1000L);
+		this.client = vertx.createHttpClient(
+				new HttpClientOptions().setKeepAlive(true)
+						.setConnectTimeout(10_000)
+						.setIdleTimeout((int) idleTimeout)
+						.setIdleTimeoutUnit(TimeUnit.MILLISECONDS),
+				new PoolOptions().setHttp1MaxSize(
+						config.getInteger("artifact.origin.pool.size", 8)));
+	}
+
+	public Future<Void> start() {
+		FileSystem fs = vertx.fileSystem();
+		return fs.mkdirs(directory).compose(v -> fs.readDir(directory))
+				.compose(paths -> {
+					List<Future<FileProps>> props = new ArrayList<>();
+					for (String path : paths) {
+						props.add(path.endsWith(".part")
+								? fs.delete(path).map((FileProps) null)
+								: fs.props(path));
+					}
+					return Future.all(props).map(all -> {
+						List<Integer> order = new ArrayList<>();
+						for (int i = 0; i < paths.size(); i++) {
+							if (props.get(i).result() != null) {
+								order.add(i);
+							}
+						}
+						order.sort(Comparator.comparingLong(
+								i -> props.get(i).result().lastModifiedTime()));
+						for (int i : order) {
+							add(Path.of(paths.get(i)).getFileName().toString(),
+									props.get(i).result().size());
+						}
+						return null;
+					});
+				}).compose(v -> evict())
+				.onSuccess(v -> System.out.println("Artifact store holds "
+						+ entries.size() + " artifacts, " + bytes + " bytes"));
+	}
+
+	// Path of the stored artifact, fetched from `origin` on a miss
+	public Future<String> get(String appId, String version, String origin,
+			String checksum) {
+		String name = safe(appId) + "@" + safe(version);
+		if (entries.get(name) != null) {
+			hits.increment();
+			return Future.succeededFuture(path(name));
+		}
+		Future<String> pending = fetching.get(name);
+		if (pending != null) {
+			coalesced.increment();
+			return pending;
+		}
+		misses.increment();
+		Future<String> fetch = fetch(name, origin, checksum)
+				.andThen(ar -> fetching.remove(name));
+		fetching.put(name, fetch);
+		return fetch;
+	}
+
+	public JsonObject metrics() {
+		return new JsonObject().put("entries", entries.size())
+				.put("bytes", bytes).put("budget", budget)
+				.put("hits", hits.sum()).put("misses", misses.sum())
+				.put("coalesced", coalesced.sum())
+				.put("fetching", fetching.size())
+				.put("originBytes", originBytes.sum());
+	}
+
+	public Future<Void> close() {
+		return client.close();
+	}
+
+	private Future<String> fetch(String name, String origin, String checksum) {
+		String target = path(name);
+		String part = target + ".part";
+		FileSystem fs = vertx.fileSystem();
+		System.out.println("Fetching artifact from origin: " + origin);
+
+		return client
+				.request(new RequestOptions().setMethod(HttpMethod.GET)
+						.setAbsoluteURI(origin).setIdleTimeout(idleTimeout))
+				.compose(req -> {
+					// A trickling origin is never idle, this bounds the whole
+					// transfer
+					long timerId = vertx.setTimer(transferTimeout,
+							id -> req.reset(0, new TimeoutException(
+									"Origin transfer timed out for "
+											+ origin)));
+					return req.send().compose(response -> {
+						if (response.statusCode() != 200) {
+							return response.body().transform(ar -> Future
+									.failedFuture("Origin answered "
+											+ response.statusCode() + " for "
+											+ origin));
+						}
+						response.pause();
+						return fs
+								.open(part, new OpenOptions().setCreate(true)
+										.setWrite(true)
+										.setTruncateExisting(true))
+								.compose(file -> response.pipeTo(file));
+					}).andThen(ar -> vertx.cancelTimer(timerId));
+				}).compose(v -> verify(part, checksum))
+				.compose(v -> fs.move(part, target,
+						new CopyOptions().setReplaceExisting(true)))
+				.compose(v -> fs.props(target)).compose(props -> {
+					originBytes.add(props.size());
+					add(name, props.size());
+					return evict();
+				}).map(target)
+				.onFailure(err -> fs.delete(part));
+	}
+
+	// Hashes the file off the event loop, a corrupt copy would otherwise be
+	// served to the whole fleet
+	private Future<Void> verify(String path, String checksum) {
+		if (checksum == null) {
+			return Future.succeededFuture();
+		}
+		return vertx.executeBlocking(() -> {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] chunk = new byte[64 * 1024];
+			try (InputStream in = Files.newInputStream(Path.of(path))) {
+				for (int n = in.read(chunk); n > 0; n = in.read(chunk)) {
+					digest.update(chunk, 0, n);
+				}
+			}
+			return HexFormat.of().formatHex(digest.digest());
+		}, false).compose(sha256 -> checksum.equalsIgnoreCase(sha256)
+				? Future.succeededFuture()
+				: Future.failedFuture("Checksum mismatch for " + path));
+	}
+
+	private void add(String name, long size) {
+		Long previous = entries.put(name, size);
+		bytes += size - (previous == null ? 0 : previous);
+	}
+
+	// The newest entry always stays, it is about to be served
+	private Future<Void> evict() {
+		List<Future<Void>> deletes = new ArrayList<>();
+		Iterator<Map.Entry<String, Long>> eldest = entries.entrySet()
+				.iterator();
+		while (bytes > budget && entries.size() > 1 && eldest.hasNext()) {
+			Map.Entry<String, Long> entry = eldest.next();
+			bytes -= entry.getValue();
+			eldest.remove();
+			System.out.println("Evicting stored artifact " + entry.getKey());
+			deletes.add(vertx.fileSystem().delete(path(entry.getKey()))
+					.otherwiseEmpty());
+		}
+		return Future.all(deletes).mapEmpty();
+	}
+
+	private String path(String name) {
+		return directory + "/" + name;
+	}
+
+	private static String safe(String value) {
+		return value.replaceAll("[^A-Za-z0-9._-]", "_");
+	}
+}
@@ -0,0 +1,251 @@
+package ai.miko.store.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+
+import ai.miko.store.domain.Application;
+import ai.miko.store.domain.Patch;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.ext.mongo.MongoClient;
+
+// Keeps the whole "apps" collection in memory. A change stream on the
+// collection invalidates the snapshot and a periodic full reload covers
+// deployments where change streams are unavailable (standalone mongod).
+//
+// One cache serves all verticle instances of a Vert.x instance. It is owned
+// by the CatalogVerticle, which loads it, and shared through a LocalMap.
+// Other instances only read snapshots and ask the owner for a reload over
+// the event bus.
+public class CatalogCache implements Shareable {
+
+	private static final String KEY = "catalog.cache";
+
+	private static final String COLLECTION = "apps";
+
+	public static final String CATALOG_CHANGED = "catalog.changed";
+	// Replies once the catalog is loaded, for readers that found none
+	public static final String RELOAD = "app.catalog.reload";
+
+	private final Vertx vertx;
+	private final MongoClient dbClient;
+	private final long reloadInterval;
+	private final long changeDebounce;
+	private final long watchRetry;
+
+	private volatile CatalogIndex catalog;
+	private volatile long loadedAt;
+	private volatile long invalidatedAt;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder reloads = new LongAdder();
+
+	private Future<CatalogIndex> loading;
+	// Change stream events seen, in total and when the current load started
+	private long changes;
+	private long loadingChanges;
+	private ReadStream<ChangeStreamDocument<JsonObject>> changeStream;
+	private long watchBackoff;
+	private boolean stopped;
+	private long reloadTimerId = -1;
+	private long debounceTimerId = -1;
+	private long watchTimerId = -1;
+
+	public CatalogCache(Vertx vertx, MongoClient dbClient, JsonObject config) {
+		this.vertx = vertx;
+		this.dbClient = dbClient;
+		this.reloadInterval = config.getLong("catalog.reload.interval.ms",
+				5 * 60 * 1000L);
+		this.changeDebounce = config.getLong("catalog.change.debounce.ms",
+				500L);
+		this.watchRetry = config.getLong("catalog.change.retry.ms", 1000L);
+		this.watchBackoff = watchRetry;
+	}
+
+	// The cache the CatalogVerticle registered, null when none is deployed
+	public static CatalogCache shared(Vertx vertx) {
+		return vertx.sharedData().<String, CatalogCache>getLocalMap(KEY)
+				.get(KEY);
+	}
+
+	public Future<Void> start() {
+		vertx.sharedData().<String, CatalogCache>getLocalMap(KEY).put(KEY,
+				this);
+		watchChanges();
+		reloadTimerId = vertx.setPeriodic(reloadInterval, id -> reload());
+		// A failed initial load is not fatal, requests trigger a reload until
+		// one of them succeeds.
+		return reload().otherwiseEmpty().mapEmpty();
+	}
+
+	public void stop() {
+		vertx.sharedData().<String, CatalogCache>getLocalMap(KEY)
+				.removeIfPresent(KEY, this);
+		stopped = true;
+		vertx.cancelTimer(reloadTimerId);
+		vertx.cancelTimer(debounceTimerId);
+		vertx.cancelTimer(watchTimerId);
+		if (changeStream != null) {
+			changeStream.handler(null);
+			changeStream = null;
+		}
+	}
+
+	// Returns the cached catalog, or null when it has not been loaded yet
+	// and the caller has to wait for a reload. Safe from any thread.
+	public CatalogIndex snapshot() {
+		CatalogIndex current = catalog;
+		if (current == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return current;
+	}
+
+	// Owner context only. Joins the load in progress, unless the catalog
+	// changed after that load read it, then one more load follows it.
+	public Future<CatalogIndex> reload() {
+		if (loading != null) {
+			if (loadingChanges == changes) {
+				return loading;
+			}
+			return loading.transform(ar -> reload());
+		}
+		Promise<CatalogIndex> promise = Promise.promise();
+		loading = promise.future();
+		long startedAt = System.currentTimeMillis();
+		loadingChanges = changes;
+
+		dbClient.find(COLLECTION, new JsonObject(), ar -> {
+			loading = null;
+			if (ar.succeeded()) {
+				List<Application> apps = new ArrayList<>(ar.result().size());
+				for (JsonObject json : ar.result()) {
+					Application app = new Application(json.getString("app_id"),
+							json.getString("name"), json.getString("version"),
+							json.getString("url"));
+					app.setChecksum(json.getString("sha256"));
+					app.setPatches(patches(json.getJsonArray("patches")));
+					apps.add(app);
+				}
+				CatalogIndex previous = catalog;
+				catalog = CatalogIndex.of(apps, previous);
+				if (previous != null
+						&& previous.revision() != catalog.revision()) {
+					vertx.eventBus().publish(CATALOG_CHANGED, new JsonObject()
+							.put("revision", catalog.revision())
+							.put("fingerprint", catalog.fingerprint()));
+				}
+				loadedAt = startedAt;
+				if (loadingChanges == changes) {
+					invalidatedAt = 0;
+				}
+				reloads.increment();
+				System.out.println(
+						"Catalog cache loaded with " + apps.size() + " apps");
+				promise.complete(catalog);
+			} else {
+				System.err.println("Failed to load catalog cache: "
+						+ ar.cause().getMessage());
+				promise.fail(ar.cause());
+			}
+		});
+		return promise.future();
+	}
+
+	private static List<Patch> patches(JsonArray array) {
+		if (array == null || array.isEmpty()) {
+			return null;
+		}
+		List<Patch> patches = new ArrayList<>(array.size());
+		for (int i = 0; i < array.size(); i++) {
+			JsonObject patch = array.getJsonObject(i);
+			patches.add(new Patch(patch.getString("from"),
+					patch.getString("url"), patch.getLong("size", 0L)));
+		}
+		return patches;
+	}
+
+	private void watchChanges() {
+		ReadStream<ChangeStreamDocument<JsonObject>> stream;
+		try {
+			stream = dbClient.watch(COLLECTION, new JsonArray(), false, 1);
+		} catch (RuntimeException e) {
+			System.err.println("Catalog change stream unavailable: "
+					+ e.getMessage());
+			watchLater();
+			return;
+		}
+		changeStream = stream;
+		stream.exceptionHandler(err -> {
+			System.err.println(
+					"Catalog change stream closed: " + err.getMessage());
+			closed(stream);
+		}).endHandler(v -> closed(stream)).handler(change -> {
+			watchBackoff = watchRetry;
+			invalidate();
+		});
+	}
+
+	private void closed(ReadStream<ChangeStreamDocument<JsonObject>> stream) {
+		if (changeStream == stream) {
+			changeStream = null;
+			watchLater();
+		}
+	}
+
+	// Subscribes again with exponential backoff (up to a minute) and reloads
+	// once subscribed, for the changes made while the stream was down
+	private void watchLater() {
+		if (stopped) {
+			return;
+		}
+		long delay = watchBackoff;
+		watchBackoff = Math.min(watchBackoff * 2, 60_000L);
+		watchTimerId = vertx.setTimer(delay, id -> {
+			watchChanges();
+			if (changeStream != null) {
+				invalidate();
+			}
+		});
+	}
+
+	private void invalidate() {
+		changes++;
+		if (invalidatedAt == 0) {
+			invalidatedAt = System.currentTimeMillis();
+		}
+		// Releases touch several documents at once, coalesce them into a
+		// single reload.
+		vertx.cancelTimer(debounceTimerId);
+		debounceTimerId = vertx.setTimer(changeDebounce, id -> reload());
+	}
+
+	public JsonObject metrics() {
+		long hitCount = hits.sum();
+		long missCount = misses.sum();
+		long total = hitCount + missCount;
+		long now = System.currentTimeMillis();
+		CatalogIndex current = catalog;
+		return new JsonObject().put("loaded", current != null)
+				.put("apps", current != null ? current.apps() : 0)
+				.put("size", current != null ? current.size() : 0)
+				.put("revision", current != null ? current.revision() : 0)
+				.put("hits", hitCount).put("misses", missCount)
+				.put("hitRate", total == 0 ? 0.0 : (double) hitCount / total)
+				.put("reloads", reloads.sum())
+				.put("changeStream", changeStream != null)
+				.put("ageMs", current != null ? now - loadedAt : -1)
+				.put("staleMs", invalidatedAt != 0 ? now - invalidatedAt : 0);
+	}
+}
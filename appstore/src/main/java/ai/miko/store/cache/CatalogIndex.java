@@ -0,0 +1,203 @@
+package ai.miko.store.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import ai.miko.store.domain.Application;
+import ai.miko.store.domain.FetchAppsRequest.InstalledApp;
+import ai.miko.store.domain.Patch;
+import io.vertx.core.json.Json;
+
+// Immutable view of the catalog keyed by app_id, each entry holding the
+// versions of that app in ascending order.
+public class CatalogIndex {
+
+	private static final Comparator<Application> BY_VERSION = Comparator
+			.comparing(Application::getVersion, Versions.ORDER);
+
+	private final NavigableMap<String, List<Application>> versionsByApp;
+	private final int size;
+	private final long fingerprint;
+	private final long revision;
+
+	private CatalogIndex(NavigableMap<String, List<Application>> versionsByApp,
+			int size, long fingerprint, long revision) {
+		this.versionsByApp = versionsByApp;
+		this.size = size;
+		this.fingerprint = fingerprint;
+		this.revision = revision;
+	}
+
+	public static CatalogIndex of(Collection<Application> apps) {
+		return of(apps, null);
+	}
+
+	// The revision only moves forward when the content differs from the
+	// previous index. The first one starts at the current time so a restart
+	// never hands out a revision a robot saw before.
+	public static CatalogIndex of(Collection<Application> apps,
+			CatalogIndex previous) {
+		long fingerprint = 0;
+		for (Application app : apps) {
+			// Everything a robot is sent, a renamed app is a change too.
+			// The patches are not serialized with the app, they go into
+			// the delta entries.
+			StringBuilder content = new StringBuilder(Json.encode(app));
+			if (app.getPatches() != null) {
+				for (Patch patch : app.getPatches()) {
+					content.append('#').append(Json.encode(patch));
+				}
+			}
+			fingerprint += hash(app.getAppId(), app.getVersion(),
+					content.toString());
+		}
+		long revision;
+		if (previous == null) {
+			revision = System.currentTimeMillis();
+		} else if (previous.fingerprint == fingerprint) {
+			revision = previous.revision;
+		} else {
+			revision = previous.revision + 1;
+		}
+
+		Map<String, List<Application>> grouped = new HashMap<>();
+		for (Application app : apps) {
+			grouped.computeIfAbsent(app.getAppId(), k -> new ArrayList<>())
+					.add(app);
+		}
+		NavigableMap<String, List<Application>> index = new TreeMap<>();
+		for (Map.Entry<String, List<Application>> entry : grouped
+				.entrySet()) {
+			List<Application> versions = entry.getValue();
+			versions.sort(BY_VERSION);
+			index.put(entry.getKey(), Collections.unmodifiableList(versions));
+		}
+		return new CatalogIndex(Collections.unmodifiableNavigableMap(index),
+				apps.size(), fingerprint, revision);
+	}
+
+	// Order independent fingerprint of a robot's installed apps
+	public static long fingerprint(List<InstalledApp> installedApps) {
+		long fingerprint = 0;
+		if (installedApps != null) {
+			for (InstalledApp app : installedApps) {
+				fingerprint += hash(app.getAppId(), app.getVersion(), null);
+			}
+		}
+		return fingerprint;
+	}
+
+	// Entity tag of the delta for a given installed set, it only changes when
+	// the catalog content or the installed apps change. Built from content
+	// rather than the revision, so every appstore node hands out the same
+	// tag for the same delta.
+	public String tag(List<InstalledApp> installedApps) {
+		return "\"" + Long.toHexString(fingerprint) + "-"
+				+ Long.toHexString(fingerprint(installedApps)) + "\"";
+	}
+
+	private static long hash(String appId, String version, String url) {
+		// FNV-1a over the fields, finished with a mix step so that summing
+		// entry hashes stays well distributed
+		long h = 0xcbf29ce484222325L;
+		for (String field : new String[] { appId, version, url }) {
+			if (field != null) {
+				for (int i = 0; i < field.length(); i++) {
+					h ^= field.charAt(i);
+					h *= 0x100000001b3L;
+				}
+			}
+			h ^= 0xff;
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	public List<Application> versions(String appId) {
+		return versionsByApp.getOrDefault(appId, Collections.emptyList());
+	}
+
+	public Application latest(String appId) {
+		List<Application> versions = versionsByApp.get(appId);
+		return versions == null ? null : versions.get(versions.size() - 1);
+	}
+
+	// Apps the robot has to install: the latest version of every app it
+	// does not have, and the latest version of every installed app for which
+	// a newer version exists. Updates come with the patch from the installed
+	// version when one was published.
+	public List<Application> delta(List<InstalledApp> installedApps) {
+		return delta(installedApps, null, Integer.MAX_VALUE);
+	}
+
+	// One page of the delta in app_id order: at most `limit` apps whose
+	// app_id sorts after `afterAppId`, from the start when it is null
+	public List<Application> delta(List<InstalledApp> installedApps,
+			String afterAppId, int limit) {
+		Map<String, String> installed = new HashMap<>();
+		if (installedApps != null) {
+			for (InstalledApp app : installedApps) {
+				installed.put(app.getAppId(), app.getVersion());
+			}
+		}
+
+		Map<String, List<Application>> candidates = afterAppId == null
+				? versionsByApp
+				: versionsByApp.tailMap(afterAppId, false);
+		List<Application> apps = new ArrayList<>();
+		for (Map.Entry<String, List<Application>> entry : candidates
+				.entrySet()) {
+			if (apps.size() >= limit) {
+				break;
+			}
+			List<Application> versions = entry.getValue();
+			Application latest = versions.get(versions.size() - 1);
+			String installedVersion = installed.get(entry.getKey());
+			if (installedVersion == null) {
+				apps.add(latest);
+			} else if (Versions.compare(latest.getVersion(),
+					installedVersion) > 0) {
+				Patch patch = patchFrom(latest, installedVersion);
+				apps.add(patch == null ? latest : latest.withPatch(patch));
+			}
+		}
+		return apps;
+	}
+
+	private static Patch patchFrom(Application app, String version) {
+		if (app.getPatches() != null) {
+			for (Patch patch : app.getPatches()) {
+				if (version.equals(patch.getFrom())) {
+					return patch;
+				}
+			}
+		}
+		return null;
+	}
+
+	public int apps() {
+		return versionsByApp.size();
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long revision() {
+		return revision;
+	}
+
+	public long fingerprint() {
+		return fingerprint;
+	}
+}
@@ -0,0 +1,69 @@
+package ai.miko.store.cache;
+
+import java.util.Comparator;
+
+// Orders dotted version strings segment by segment, numerically where both
+// segments are numbers ("1.0.10" > "1.0.9").
+public final class Versions {
+
+	public static final Comparator<String> ORDER = Versions::compare;
+
+	private Versions() {
+	}
+
+	public static int compare(String left, String right) {
+		if (left == null || right == null) {
+			return left == null ? (right == null ? 0 : -1) : 1;
+		}
+		String[] a = left.split("[.-]");
+		String[] b = right.split("[.-]");
+		int length = Math.max(a.length, b.length);
+		for (int i = 0; i < length; i++) {
+			String x = i < a.length ? a[i] : "0";
+			String y = i < b.length ? b[i] : "0";
+			int result = compareSegment(x, y);
+			if (result != 0) {
+				return result;
+			}
+		}
+		return 0;
+	}
+
+	private static int compareSegment(String x, String y) {
+		boolean xNumeric = isNumeric(x);
+		boolean yNumeric = isNumeric(y);
+		if (xNumeric && yNumeric) {
+			String a = stripLeadingZeros(x);
+			String b = stripLeadingZeros(y);
+			if (a.length() != b.length()) {
+				return Integer.compare(a.length(), b.length());
+			}
+			return a.compareTo(b);
+		}
+		if (xNumeric != yNumeric) {
+			// release segments sort after qualifiers such as "beta"
+			return xNumeric ? 1 : -1;
+		}
+		return x.compareTo(y);
+	}
+
+	private static boolean isNumeric(String segment) {
+		if (segment.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < segment.length(); i++) {
+			if (!Character.isDigit(segment.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String stripLeadingZeros(String segment) {
+		int i = 0;
+		while (i < segment.length() - 1 && segment.charAt(i) == '0') {
+			i++;
+		}
+		return segment.substring(i);
+	}
+}
@@ -0,0 +1,69 @@
+package ai.miko.store.cluster;
+
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+
+// Locality aware point to point messaging. On a clustered event bus Vert.x
+// picks the consumer node round robin, so a node running both the HTTP
+// front end and the state writers would still send most of its messages
+// over the network. Consumers registered here are recorded per node, and
+// messages sent here stay on the node (local only delivery) when it has a
+// consumer for the address. Otherwise they go to the cluster. Without a
+// cluster every address is local and nothing changes.
+public final class LocalRouting {
+
+	private static final String ADDRESSES = "event.bus.local.addresses";
+
+	private LocalRouting() {
+	}
+
+	// Consumers are expected to live as long as their node
+	public static <T> MessageConsumer<T> consumer(Vertx vertx, String address,
+			Handler<Message<T>> handler) {
+		MessageConsumer<T> consumer = vertx.eventBus().consumer(address,
+				handler);
+		vertx.sharedData().<String, Boolean>getLocalMap(ADDRESSES)
+				.put(address, true);
+		return consumer;
+	}
+
+	public static boolean isLocal(Vertx vertx, String address) {
+		return vertx.sharedData().<String, Boolean>getLocalMap(ADDRESSES)
+				.containsKey(address);
+	}
+
+	public static <T> Future<Message<T>> request(Vertx vertx, String address,
+			Object body) {
+		return request(vertx, address, body, new DeliveryOptions());
+	}
+
+	public static <T> Future<Message<T>> request(Vertx vertx, String address,
+			Object body, DeliveryOptions options) {
+		if (!isLocal(vertx, address)) {
+			return vertx.eventBus().request(address, body, options);
+		}
+		return vertx.eventBus()
+				.<T>request(address, body,
+						new DeliveryOptions(options).setLocalOnly(true))
+				.recover(err -> {
+					// The local consumers went away, let the cluster answer
+					if (err instanceof ReplyException && ((ReplyException) err)
+							.failureType() == ReplyFailure.NO_HANDLERS) {
+						return vertx.eventBus().request(address, body,
+								options);
+					}
+					return Future.failedFuture(err);
+				});
+	}
+
+	public static void send(Vertx vertx, String address, Object body) {
+		vertx.eventBus().send(address, body,
+				new DeliveryOptions().setLocalOnly(isLocal(vertx, address)));
+	}
+}
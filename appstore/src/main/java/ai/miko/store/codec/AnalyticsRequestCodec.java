@@ -0,0 +1,24 @@
+package ai.miko.store.codec;
+
+import ai.miko.store.domain.AnalyticsRequest;
+import io.vertx.core.buffer.Buffer;
+
+public class AnalyticsRequestCodec extends DomainCodec<AnalyticsRequest> {
+
+	public AnalyticsRequestCodec() {
+		super("AnalyticsRequest");
+	}
+
+	@Override
+	protected void write(Buffer buffer, AnalyticsRequest request) {
+		writeString(buffer, request.getAppId());
+		writeString(buffer, request.getVersion());
+		buffer.appendInt(request.getLimit());
+	}
+
+	@Override
+	protected AnalyticsRequest read(WireReader reader) {
+		return new AnalyticsRequest(reader.readString(), reader.readString(),
+				reader.readInt());
+	}
+}
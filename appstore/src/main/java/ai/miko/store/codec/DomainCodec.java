@@ -0,0 +1,72 @@
+package ai.miko.store.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.MessageCodec;
+
+// Base for the event bus codecs of the domain types. Local delivery hands
+// the same instance to the consumer, so bodies must not be mutated after
+// they have been sent. Clustered delivery uses a compact binary layout:
+// strings are a length prefixed UTF-8 sequence (-1 for null), enums a
+// single ordinal byte (-1 for null) and instants epoch seconds plus nanos
+// (Long.MIN_VALUE for null).
+public abstract class DomainCodec<T> implements MessageCodec<T, T> {
+
+	private final String name;
+
+	protected DomainCodec(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public void encodeToWire(Buffer buffer, T value) {
+		write(buffer, value);
+	}
+
+	@Override
+	public T decodeFromWire(int pos, Buffer buffer) {
+		return read(new WireReader(buffer, pos));
+	}
+
+	@Override
+	public T transform(T value) {
+		return value;
+	}
+
+	@Override
+	public String name() {
+		return name;
+	}
+
+	@Override
+	public byte systemCodecID() {
+		return -1;
+	}
+
+	protected static void writeString(Buffer buffer, String value) {
+		if (value == null) {
+			buffer.appendInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		buffer.appendInt(bytes.length).appendBytes(bytes);
+	}
+
+	protected static void writeEnum(Buffer buffer, Enum<?> value) {
+		buffer.appendByte(value == null ? -1 : (byte) value.ordinal());
+	}
+
+	protected static void writeInstant(Buffer buffer, Instant value) {
+		if (value == null) {
+			buffer.appendLong(Long.MIN_VALUE);
+			return;
+		}
+		buffer.appendLong(value.getEpochSecond()).appendInt(value.getNano());
+	}
+
+	protected abstract void write(Buffer buffer, T value);
+
+	protected abstract T read(WireReader reader);
+}
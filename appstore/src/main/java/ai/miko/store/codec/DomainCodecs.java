@@ -0,0 +1,36 @@
+package ai.miko.store.codec;
+
+import ai.miko.store.domain.AnalyticsRequest;
+import ai.miko.store.domain.Application;
+import ai.miko.store.domain.FetchAppsRequest;
+import ai.miko.store.domain.UpdateAppStateRequest;
+import ai.miko.store.domain.UpdateApps;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.EventBus;
+
+public final class DomainCodecs {
+
+	public static final String STATE_LIST_CODEC = "UpdateAppStateRequestList";
+
+	private DomainCodecs() {
+	}
+
+	// Delivery options for sending a List<UpdateAppStateRequest>
+	public static DeliveryOptions stateList() {
+		return new DeliveryOptions().setCodecName(STATE_LIST_CODEC);
+	}
+
+	// Must run once per Vert.x instance, before any domain type is sent.
+	public static void register(EventBus eventBus) {
+		eventBus.registerDefaultCodec(Application.class,
+				new ApplicationCodec());
+		eventBus.registerDefaultCodec(FetchAppsRequest.class,
+				new FetchAppsRequestCodec());
+		eventBus.registerDefaultCodec(UpdateApps.class, new UpdateAppsCodec());
+		eventBus.registerDefaultCodec(UpdateAppStateRequest.class,
+				new UpdateAppStateRequestCodec());
+		eventBus.registerCodec(new UpdateAppStateRequestListCodec());
+		eventBus.registerDefaultCodec(AnalyticsRequest.class,
+				new AnalyticsRequestCodec());
+	}
+}
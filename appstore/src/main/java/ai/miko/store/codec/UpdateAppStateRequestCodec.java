@@ -0,0 +1,35 @@
+package ai.miko.store.codec;
+
+import ai.miko.store.domain.ApplicationState;
+import ai.miko.store.domain.UpdateAppStateRequest;
+import io.vertx.core.buffer.Buffer;
+
+public class UpdateAppStateRequestCodec
+		extends DomainCodec<UpdateAppStateRequest> {
+
+	public UpdateAppStateRequestCodec() {
+		super("UpdateAppStateRequest");
+	}
+
+	@Override
+	protected void write(Buffer buffer, UpdateAppStateRequest request) {
+		writeString(buffer, request.getAppId());
+		writeString(buffer, request.getRobotId());
+		writeString(buffer, request.getVersion());
+		buffer.appendInt(request.getRetryCount());
+		writeEnum(buffer, request.getState());
+		writeString(buffer, request.getMessage());
+		writeInstant(buffer, request.getTimestamp());
+		writeString(buffer, request.getStateId());
+	}
+
+	@Override
+	protected UpdateAppStateRequest read(WireReader reader) {
+		UpdateAppStateRequest request = new UpdateAppStateRequest(
+				reader.readString(), reader.readString(), reader.readString(),
+				reader.readInt(), reader.readEnum(ApplicationState.values()),
+				reader.readString(), reader.readInstant());
+		request.setStateId(reader.readString());
+		return request;
+	}
+}
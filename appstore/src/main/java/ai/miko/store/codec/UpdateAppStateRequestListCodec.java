@@ -0,0 +1,38 @@
+package ai.miko.store.codec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ai.miko.store.domain.UpdateAppStateRequest;
+import io.vertx.core.buffer.Buffer;
+
+// Named codec, lists cannot get a default codec without claiming every
+// ArrayList sent on the event bus. Senders select it through
+// DomainCodecs.stateList().
+public class UpdateAppStateRequestListCodec
+		extends DomainCodec<List<UpdateAppStateRequest>> {
+
+	private final UpdateAppStateRequestCodec requestCodec = new UpdateAppStateRequestCodec();
+
+	public UpdateAppStateRequestListCodec() {
+		super(DomainCodecs.STATE_LIST_CODEC);
+	}
+
+	@Override
+	protected void write(Buffer buffer, List<UpdateAppStateRequest> requests) {
+		buffer.appendInt(requests.size());
+		for (UpdateAppStateRequest request : requests) {
+			requestCodec.write(buffer, request);
+		}
+	}
+
+	@Override
+	protected List<UpdateAppStateRequest> read(WireReader reader) {
+		int size = reader.readInt();
+		List<UpdateAppStateRequest> requests = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			requests.add(requestCodec.read(reader));
+		}
+		return requests;
+	}
+}
@@ -0,0 +1,48 @@
+package ai.miko.store.codec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ai.miko.store.domain.Application;
+import ai.miko.store.domain.UpdateApps;
+import io.vertx.core.buffer.Buffer;
+
+public class UpdateAppsCodec extends DomainCodec<UpdateApps> {
+
+	private final ApplicationCodec applicationCodec = new ApplicationCodec();
+
+	public UpdateAppsCodec() {
+		super("UpdateApps");
+	}
+
+	@Override
+	protected void write(Buffer buffer, UpdateApps updateApps) {
+		writeString(buffer, updateApps.getRobotId());
+		writeString(buffer, updateApps.getNextCursor());
+		List<Application> applications = updateApps.getApplications();
+		if (applications == null) {
+			buffer.appendInt(-1);
+			return;
+		}
+		buffer.appendInt(applications.size());
+		for (Application app : applications) {
+			applicationCodec.write(buffer, app);
+		}
+	}
+
+	@Override
+	protected UpdateApps read(WireReader reader) {
+		UpdateApps updateApps = new UpdateApps();
+		updateApps.setRobotId(reader.readString());
+		updateApps.setNextCursor(reader.readString());
+		int size = reader.readInt();
+		if (size >= 0) {
+			List<Application> applications = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				applications.add(applicationCodec.read(reader));
+			}
+			updateApps.setApplications(applications);
+		}
+		return updateApps;
+	}
+}
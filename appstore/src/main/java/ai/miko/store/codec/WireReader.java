@@ -0,0 +1,58 @@
+package ai.miko.store.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import io.vertx.core.buffer.Buffer;
+
+// Reads the binary layout written by DomainCodec.
+public final class WireReader {
+
+	private final Buffer buffer;
+	private int pos;
+
+	public WireReader(Buffer buffer, int pos) {
+		this.buffer = buffer;
+		this.pos = pos;
+	}
+
+	public String readString() {
+		int length = readInt();
+		if (length < 0) {
+			return null;
+		}
+		String value = buffer.getString(pos, pos + length,
+				StandardCharsets.UTF_8.name());
+		pos += length;
+		return value;
+	}
+
+	public <E extends Enum<E>> E readEnum(E[] values) {
+		byte ordinal = buffer.getByte(pos++);
+		return ordinal < 0 ? null : values[ordinal];
+	}
+
+	public Instant readInstant() {
+		long seconds = readLong();
+		if (seconds == Long.MIN_VALUE) {
+			return null;
+		}
+		return Instant.ofEpochSecond(seconds, readInt());
+	}
+
+	public int readInt() {
+		int value = buffer.getInt(pos);
+		pos += 4;
+		return value;
+	}
+
+	public long readLong() {
+		long value = buffer.getLong(pos);
+		pos += 8;
+		return value;
+	}
+
+	public int position() {
+		return pos;
+	}
+}
@@ -0,0 +1,64 @@
+package ai.miko.store.config;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import io.vertx.core.json.JsonObject;
+
+// Settings of the state update ingest log. With state.ingest set to
+// "kafka" the HTTP front ends append state updates to a topic and
+// acknowledge once the broker has them, the StateIngestVerticle applies
+// them to Mongo in batches. Any other value keeps the direct path over the
+// event bus.
+public final class KafkaConfig {
+
+	private KafkaConfig() {
+	}
+
+	public static boolean ingestEnabled(JsonObject config) {
+		return "kafka".equals(config.getString("state.ingest", "direct"));
+	}
+
+	public static String topic(JsonObject config) {
+		return config.getString("state.ingest.topic", "app-state-updates");
+	}
+
+	// Waits for all in-sync replicas, an acknowledged update must survive
+	// the loss of a broker. Idempotence keeps retried sends from being
+	// appended twice.
+	public static Map<String, String> producer(JsonObject config) {
+		Map<String, String> producer = new HashMap<>();
+		producer.put("bootstrap.servers", bootstrapServers(config));
+		producer.put("key.serializer",
+				"org.apache.kafka.common.serialization.StringSerializer");
+		producer.put("value.serializer",
+				"org.apache.kafka.common.serialization.StringSerializer");
+		producer.put("acks", "all");
+		producer.put("enable.idempotence", "true");
+		producer.put("linger.ms", String
+				.valueOf(config.getLong("state.ingest.linger.ms", 5L)));
+		return producer;
+	}
+
+	// Offsets are committed by the StateIngestVerticle once a batch is in
+	// Mongo, never automatically
+	public static Map<String, String> consumer(JsonObject config) {
+		Map<String, String> consumer = new HashMap<>();
+		consumer.put("bootstrap.servers", bootstrapServers(config));
+		consumer.put("group.id", config.getString("state.ingest.group",
+				"appstore-state-writers"));
+		consumer.put("key.deserializer",
+				"org.apache.kafka.common.serialization.StringDeserializer");
+		consumer.put("value.deserializer",
+				"org.apache.kafka.common.serialization.StringDeserializer");
+		consumer.put("enable.auto.commit", "false");
+		consumer.put("auto.offset.reset", "earliest");
+		consumer.put("max.poll.records", String
+				.valueOf(config.getInteger("state.ingest.batch.size", 500)));
+		return consumer;
+	}
+
+	private static String bootstrapServers(JsonObject config) {
+		return config.getString("kafka.bootstrap.servers", "localhost:9092");
+	}
+}
@@ -0,0 +1,30 @@
+package ai.miko.store.config;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.MongoClient;
+
+// One Mongo connection pool per Vert.x instance, shared by every verticle
+// instance. Each verticle takes the client in start() and closes it in
+// stop(), the pool goes away with the last one. Pool settings such as
+// maxPoolSize go in the connection string.
+public final class MongoConfig {
+
+	private static final String POOL = "app_store";
+
+	private MongoConfig() {
+	}
+
+	public static MongoClient shared(Vertx vertx, JsonObject config) {
+		return MongoClient.createShared(vertx, clientConfig(config), POOL);
+	}
+
+	static JsonObject clientConfig(JsonObject config) {
+		String connectionString = "mongodb+srv://<username>:<password>@store.dsvyk.mongodb.net/?retryWrites=true&w=majority&appName=store";
+		return new JsonObject()
+				.put("connection_string",
+						config.getString("mongo.connection.string",
+								connectionString))
+				.put("db_name", config.getString("mongo.db.name", "app_store"));
+	}
+}
@@ -0,0 +1,255 @@
+package ai.miko.store.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.IndexOptions;
+import io.vertx.ext.mongo.MongoClient;
+
+// Declares the indexes the appstore's queries rely on, creates the missing
+// ones at startup and checks with explain that every hot query is planned
+// on an index. Readiness stays down while any of them would scan a whole
+// collection, a missing index shows up as a failed check instead of as
+// latency. The check repeats every index.verify.interval.ms (0 for startup
+// only) so a dropped index is noticed as well. An index with the declared
+// keys but without the declared unique flag cannot be fixed by creating
+// another one and is reported as not ready until someone replaces it.
+public class IndexManager {
+
+	// Replies with status(), for the readiness route
+	public static final String STATUS = "index.status";
+
+	static final String MISSING = "is missing";
+
+	private static class Index {
+		final String collection;
+		final JsonObject keys;
+		final boolean unique;
+
+		Index(String collection, JsonObject keys, boolean unique) {
+			this.collection = collection;
+			this.keys = keys;
+			this.unique = unique;
+		}
+	}
+
+	private static class HotQuery {
+		final String name;
+		final String collection;
+		final JsonObject filter;
+		final JsonObject sort;
+
+		HotQuery(String name, String collection, JsonObject filter,
+				JsonObject sort) {
+			this.name = name;
+			this.collection = collection;
+			this.filter = filter;
+			this.sort = sort;
+		}
+	}
+
+	private static final List<Index> INDEXES = List.of(
+			new Index("app_states",
+					new JsonObject().put("app_id", 1).put("robot_id", 1), true),
+			new Index("app_logs",
+					new JsonObject().put("robot_id", 1).put("ent_ts", 1), false),
+			new Index("apps",
+					new JsonObject().put("app_id", 1).put("version", 1), false),
+			new Index("install_rollups", new JsonObject().put("errors", -1),
+					false),
+			new Index("install_rollups",
+					new JsonObject().put("app_id", 1).put("errors", -1),
+					false));
+
+	private static final JsonObject NOT_SUMMARY = new JsonObject().put("$nin",
+			new JsonArray().addNull().add("*"));
+
+	// The queries behind the request paths, with placeholder values
+	private static final List<HotQuery> HOT_QUERIES = List.of(
+			new HotQuery("state upsert", "app_states",
+					new JsonObject().put("app_id", "").put("robot_id", ""),
+					null),
+			new HotQuery("robot log export", "app_logs",
+					new JsonObject().put("robot_id", ""),
+					new JsonObject().put("ent_ts", 1)),
+			new HotQuery("app version lookup", "apps",
+					new JsonObject().put("app_id", "").put("version", ""),
+					null),
+			new HotQuery("failure breakdown", "install_rollups",
+					new JsonObject().put("version", NOT_SUMMARY),
+					new JsonObject().put("errors", -1)),
+			new HotQuery("app failure breakdown", "install_rollups",
+					new JsonObject().put("app_id", "").put("version",
+							NOT_SUMMARY),
+					new JsonObject().put("errors", -1)));
+
+	private final Vertx vertx;
+	private final MongoClient dbClient;
+	private final long verifyInterval;
+
+	private volatile JsonObject status = new JsonObject().put("ready", false)
+			.put("reason", "Index check pending");
+	private long timerId = -1;
+
+	public IndexManager(Vertx vertx, MongoClient dbClient, JsonObject config) {
+		this.vertx = vertx;
+		this.dbClient = dbClient;
+		this.verifyInterval = config.getLong("index.verify.interval.ms",
+				10 * 60 * 1000L);
+	}
+
+	// Completes once the indexes are in place and verified, failed when an
+	// index could not be created or a hot query scans a collection
+	public Future<Void> start() {
+		Future<Void> check = ensureIndexes(true).compose(v -> verify());
+		if (verifyInterval > 0) {
+			timerId = vertx.setPeriodic(verifyInterval,
+					id -> ensureIndexes(false).compose(v -> verify()));
+		}
+		return check;
+	}
+
+	public void stop() {
+		vertx.cancelTimer(timerId);
+	}
+
+	public boolean isReady() {
+		return status.getBoolean("ready");
+	}
+
+	public JsonObject status() {
+		return status.copy();
+	}
+
+	// Creates the missing indexes, or only reports them when create is false
+	private Future<Void> ensureIndexes(boolean create) {
+		Future<Void> chain = Future.succeededFuture();
+		for (Index index : INDEXES) {
+			chain = chain.compose(v -> dbClient.listIndexes(index.collection)
+					.recover(err -> Future.succeededFuture(new JsonArray()))
+					.compose(existing -> {
+						String problem = problem(existing, index.keys,
+								index.unique);
+						if (problem == null) {
+							return Future.succeededFuture();
+						}
+						if (!create || !MISSING.equals(problem)) {
+							return Future.failedFuture("Index " + index.keys
+									+ " on " + index.collection + " "
+									+ problem);
+						}
+						System.out.println("Creating index " + index.keys
+								+ " on " + index.collection);
+						return dbClient.createIndexWithOptions(
+								index.collection, index.keys,
+								new IndexOptions().unique(index.unique));
+					}));
+		}
+		return chain.onFailure(err -> status = new JsonObject()
+				.put("ready", false)
+				.put("reason", "Index check failed: " + err.getMessage()));
+	}
+
+	// Null when one of the existing indexes has the declared keys, and is
+	// unique when declared so, otherwise what is wrong
+	static String problem(JsonArray existing, JsonObject keys,
+			boolean unique) {
+		for (int i = 0; i < existing.size(); i++) {
+			JsonObject index = existing.getJsonObject(i);
+			if (sameKeys(keys, index.getJsonObject("key"))) {
+				if (unique && !index.getBoolean("unique", false)) {
+					return "exists without unique";
+				}
+				return null;
+			}
+		}
+		return MISSING;
+	}
+
+	private Future<Void> verify() {
+		List<Future<String>> checks = new ArrayList<>(HOT_QUERIES.size());
+		for (HotQuery query : HOT_QUERIES) {
+			JsonObject find = new JsonObject().put("find", query.collection)
+					.put("filter", query.filter);
+			if (query.sort != null) {
+				find.put("sort", query.sort);
+			}
+			checks.add(dbClient
+					.runCommand("explain",
+							new JsonObject().put("explain", find)
+									.put("verbosity", "queryPlanner"))
+					.map(plan -> scansCollection(plan.getJsonObject(
+							"queryPlanner", new JsonObject())
+							.getJsonObject("winningPlan")) ? query.name
+									: null));
+		}
+		return Future.all(checks).transform(ar -> {
+			if (ar.failed()) {
+				status = new JsonObject().put("ready", false).put("reason",
+						"Query plan check failed: " + ar.cause().getMessage());
+				return Future.failedFuture(ar.cause());
+			}
+			JsonArray scanning = new JsonArray();
+			for (Future<String> check : checks) {
+				if (check.result() != null) {
+					scanning.add(check.result());
+				}
+			}
+			if (!scanning.isEmpty()) {
+				System.err.println("Hot queries without an index: " + scanning);
+				status = new JsonObject().put("ready", false)
+						.put("reason", "Collection scan in hot queries")
+						.put("queries", scanning);
+				return Future.failedFuture(
+						"Hot queries without an index: " + scanning);
+			}
+			status = new JsonObject().put("ready", true);
+			return Future.succeededFuture();
+		});
+	}
+
+	// Key order matters, the server may hand directions back as doubles
+	static boolean sameKeys(JsonObject declared, JsonObject existing) {
+		if (existing == null || declared.size() != existing.size()) {
+			return false;
+		}
+		List<String> names = new ArrayList<>(existing.fieldNames());
+		int i = 0;
+		for (String field : declared.fieldNames()) {
+			Object direction = existing.getValue(field);
+			if (!field.equals(names.get(i++))
+					|| !(direction instanceof Number) || ((Number) direction)
+							.intValue() != declared.getInteger(field)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// True when a COLLSCAN stage appears anywhere in the plan tree, which
+	// covers both the classic and the slot based plan layouts
+	static boolean scansCollection(Object plan) {
+		if (plan instanceof JsonObject) {
+			JsonObject stage = (JsonObject) plan;
+			if ("COLLSCAN".equals(stage.getValue("stage"))) {
+				return true;
+			}
+			for (String field : stage.fieldNames()) {
+				if (scansCollection(stage.getValue(field))) {
+					return true;
+				}
+			}
+		} else if (plan instanceof JsonArray) {
+			for (Object child : (JsonArray) plan) {
+				if (scansCollection(child)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
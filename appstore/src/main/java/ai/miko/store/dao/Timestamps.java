@@ -0,0 +1,36 @@
+package ai.miko.store.dao;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+// Time fields (ent_ts, mod_ts) are stored as UTC ISO-8601 strings of a fixed
+// width, millisecond precision, so that string order is time order and
+// range queries can use the indexes. Instant.toString() is not enough, it
+// drops a zero fraction and "...:00Z" sorts after "...:00.123Z".
+public class Timestamps {
+
+	private static final DateTimeFormatter FORMAT = DateTimeFormatter
+			.ofPattern("uuuu-MM-dd'T'HH:mm:ss.SSS'Z'")
+			.withZone(ZoneOffset.UTC);
+
+	public static String now() {
+		return format(Instant.now());
+	}
+
+	public static String format(Instant instant) {
+		return FORMAT.format(instant);
+	}
+
+	// Stored form of an ISO-8601 instant, or of a date-time without an
+	// offset, taken as UTC
+	public static String parse(String value) {
+		try {
+			return format(Instant.parse(value));
+		} catch (DateTimeParseException e) {
+			return format(LocalDateTime.parse(value).toInstant(ZoneOffset.UTC));
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package ai.miko.store.domain;
+
+import java.io.Serializable;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+public class AnalyticsRequest implements Serializable {
+
+	private static final long serialVersionUID = 3141746092651804123L;
+
+	// Narrow the report to one app, or one version of it, when set
+	private String appId;
+	private String version;
+	// Number of app versions in the failure breakdown, 0 for the default
+	private int limit;
+
+	public AnalyticsRequest() {
+	}
+
+	public AnalyticsRequest(String appId, String version, int limit) {
+		this.appId = appId;
+		this.version = version;
+		this.limit = limit;
+	}
+
+	public String getAppId() {
+		return appId;
+	}
+
+	public void setAppId(String appId) {
+		this.appId = appId;
+	}
+
+	public String getVersion() {
+		return version;
+	}
+
+	public void setVersion(String version) {
+		this.version = version;
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	public void setLimit(int limit) {
+		this.limit = limit;
+	}
+
+	@Override
+	public String toString() {
+		return "AnalyticsRequest [appId=" + appId + ", version=" + version
+				+ ", limit=" + limit + "]";
+	}
+}
@@ -1,8 +1,10 @@
 package ai.miko.store.domain;
 
 import java.io.Serializable;
+import java.util.List;
 import java.util.Objects;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 
@@ -16,6 +18,15 @@ public class Application implements Serializable {
 	private String name;
 	private String version;
 	private String url;
+	// SHA-256 of the artifact, hex encoded
+	private String checksum;
+	// Patch from the robot's installed version, only set on the copies
+	// handed out by the catalog delta
+	private String patchFrom;
+	private String patchUrl;
+	private Long patchSize;
+	// Every patch published for this version, catalog side only
+	private List<Patch> patches;
 
 	private String stateId;
 	private ApplicationState state;
@@ -64,6 +75,66 @@ public class Application implements Serializable {
 		this.url = url;
 	}
 
+	public String getChecksum() {
+		return checksum;
+	}
+
+	public void setChecksum(String checksum) {
+		this.checksum = checksum;
+	}
+
+	public String getPatchFrom() {
+		return patchFrom;
+	}
+
+	public void setPatchFrom(String patchFrom) {
+		this.patchFrom = patchFrom;
+	}
+
+	public String getPatchUrl() {
+		return patchUrl;
+	}
+
+	public void setPatchUrl(String patchUrl) {
+		this.patchUrl = patchUrl;
+	}
+
+	public Long getPatchSize() {
+		return patchSize;
+	}
+
+	public void setPatchSize(Long patchSize) {
+		this.patchSize = patchSize;
+	}
+
+	@JsonIgnore
+	public List<Patch> getPatches() {
+		return patches;
+	}
+
+	public void setPatches(List<Patch> patches) {
+		this.patches = patches;
+	}
+
+	// Catalog entries are shared between requests, what is specific to one
+	// robot goes on a copy.
+	public Application copy() {
+		Application copy = new Application(appId, name, version, url);
+		copy.checksum = checksum;
+		copy.patchFrom = patchFrom;
+		copy.patchUrl = patchUrl;
+		copy.patchSize = patchSize;
+		return copy;
+	}
+
+	public Application withPatch(Patch patch) {
+		Application copy = copy();
+		copy.patchFrom = patch.getFrom();
+		copy.patchUrl = patch.getUrl();
+		copy.patchSize = patch.getSize();
+		return copy;
+	}
+
 	public String getStateId() {
 		return stateId;
 	}
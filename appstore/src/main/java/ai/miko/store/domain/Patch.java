@@ -0,0 +1,76 @@
+package ai.miko.store.domain;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+// Binary patch turning the artifact of version `from` into the artifact of
+// the version document it is stored on.
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+public class Patch implements Serializable {
+
+	private static final long serialVersionUID = 5121958725350412267L;
+
+	private String from;
+	private String url;
+	private long size;
+
+	public Patch() {
+	}
+
+	public Patch(String from, String url, long size) {
+		this.from = from;
+		this.url = url;
+		this.size = size;
+	}
+
+	public String getFrom() {
+		return from;
+	}
+
+	public void setFrom(String from) {
+		this.from = from;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public void setUrl(String url) {
+		this.url = url;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public void setSize(long size) {
+		this.size = size;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(from, size, url);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		Patch other = (Patch) obj;
+		return Objects.equals(from, other.from) && size == other.size
+				&& Objects.equals(url, other.url);
+	}
+
+	@Override
+	public String toString() {
+		return "Patch [from=" + from + ", url=" + url + ", size=" + size + "]";
+	}
+}
@@ -15,6 +15,8 @@ public class UpdateApps implements Serializable {
 
 	private String robotId;
 	private List<Application> applications;
+	// Cursor of the next page, null on the last one
+	private String nextCursor;
 
 	public UpdateApps() {
 		super();
@@ -34,6 +36,14 @@ public class UpdateApps implements Serializable {
 		this.applications = applications;
 	}
 
+	public String getNextCursor() {
+		return nextCursor;
+	}
+
+	public void setNextCursor(String nextCursor) {
+		this.nextCursor = nextCursor;
+	}
+
 	public String getRobotId() {
 		return robotId;
 	}
@@ -44,7 +54,7 @@ public class UpdateApps implements Serializable {
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(applications, robotId);
+		return Objects.hash(applications, nextCursor, robotId);
 	}
 
 	@Override
@@ -57,13 +67,14 @@ public class UpdateApps implements Serializable {
 			return false;
 		UpdateApps other = (UpdateApps) obj;
 		return Objects.equals(applications, other.applications)
+				&& Objects.equals(nextCursor, other.nextCursor)
 				&& Objects.equals(robotId, other.robotId);
 	}
 
 	@Override
 	public String toString() {
 		return "UpdateApps [robotId=" + robotId + ", applications="
-				+ applications + "]";
+				+ applications + ", nextCursor=" + nextCursor + "]";
 	}
 
 }
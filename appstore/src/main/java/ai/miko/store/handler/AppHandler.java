@@ -1,5 +1,129 @@
 package ai.miko.store.handler;
 
-public class AppHandler {
+import java.util.Iterator;
+import java.util.List;
 
+import ai.miko.store.cluster.LocalRouting;
+import ai.miko.store.domain.Application;
+import ai.miko.store.domain.FetchAppsRequest;
+import ai.miko.store.domain.UpdateApps;
+import ai.miko.store.verticle.AppManagementVerticle;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.Json;
+import io.vertx.ext.web.RoutingContext;
+
+// POST /api/apps, the apps a robot has to install. Query parameters:
+// limit and cursor page through the delta (the reply carries nextCursor
+// until the last page), stream=true writes the reply as a chunked body one
+// app at a time instead of encoding it to a single buffer first.
+public class AppHandler implements Handler<RoutingContext> {
+
+	private final Vertx vertx;
+
+	public AppHandler(Vertx vertx) {
+		this.vertx = vertx;
+	}
+
+	@Override
+	public void handle(RoutingContext ctx) {
+		FetchAppsRequest requestBody = Json.decodeValue(ctx.body().asString(),
+				FetchAppsRequest.class);
+		DeliveryOptions options = new DeliveryOptions();
+		String ifNoneMatch = ctx.request().getHeader(HttpHeaders.IF_NONE_MATCH);
+		if (ifNoneMatch != null) {
+			options.addHeader(AppManagementVerticle.IF_NONE_MATCH, ifNoneMatch);
+		}
+		String limit = ctx.queryParams().get("limit");
+		if (limit != null) {
+			if (!limit.matches("[1-9][0-9]{0,8}")) {
+				ctx.response().setStatusCode(400).end("Invalid limit");
+				return;
+			}
+			options.addHeader(AppManagementVerticle.LIMIT, limit);
+		}
+		String cursor = ctx.queryParams().get("cursor");
+		if (cursor != null) {
+			options.addHeader(AppManagementVerticle.CURSOR, cursor);
+		}
+		boolean stream = "true".equals(ctx.queryParams().get("stream"));
+
+		LocalRouting.request(vertx, "app.fetch", requestBody, options)
+				.onComplete(reply -> {
+					if (reply.failed()) {
+						ctx.fail(reply.cause());
+						return;
+					}
+					Message<Object> message = reply.result();
+					ctx.response().putHeader(HttpHeaders.ETAG,
+							message.headers().get(AppManagementVerticle.ETAG));
+					if (message.headers()
+							.contains(AppManagementVerticle.NOT_MODIFIED)) {
+						ctx.response().setStatusCode(304).end();
+						return;
+					}
+					UpdateApps updateApps = (UpdateApps) message.body();
+					HttpServerResponse response = ctx.response()
+							.setStatusCode(200)
+							.putHeader("content-type", "application/json");
+					if (stream) {
+						stream(updateApps, response);
+					} else {
+						response.end(Json.encode(updateApps));
+					}
+				});
+	}
+
+	// Same document as Json.encode(updateApps), written app by app and held
+	// back while the connection's write queue is full. Fields in declaration
+	// order, empty ones left out (UpdateApps is @JsonInclude(NON_EMPTY)).
+	static void stream(UpdateApps updateApps, HttpServerResponse response) {
+		List<Application> applications = updateApps.getApplications();
+		if (applications == null || applications.isEmpty()) {
+			response.end(Json.encode(updateApps));
+			return;
+		}
+		Buffer head = Buffer.buffer("{");
+		String robotId = updateApps.getRobotId();
+		if (robotId != null && !robotId.isEmpty()) {
+			head.appendString("\"robotId\":")
+					.appendString(Json.encode(robotId)).appendString(",");
+		}
+		response.setChunked(true)
+				.write(head.appendString("\"applications\":["));
+		String nextCursor = updateApps.getNextCursor();
+		writeApps(applications.iterator(),
+				nextCursor != null && !nextCursor.isEmpty() ? nextCursor
+						: null,
+				response, true);
+	}
+
+	private static void writeApps(Iterator<Application> apps,
+			String nextCursor, HttpServerResponse response, boolean first) {
+		while (apps.hasNext()) {
+			Buffer chunk = Buffer.buffer();
+			if (!first) {
+				chunk.appendByte((byte) ',');
+			}
+			first = false;
+			response.write(
+					chunk.appendBuffer(Json.encodeToBuffer(apps.next())));
+			if (response.writeQueueFull() && apps.hasNext()) {
+				response.drainHandler(
+						v -> writeApps(apps, nextCursor, response, false));
+				return;
+			}
+		}
+		Buffer end = Buffer.buffer("]");
+		if (nextCursor != null) {
+			end.appendString(",\"nextCursor\":").appendString(
+					Json.encode(nextCursor));
+		}
+		response.end(end.appendString("}"));
+	}
 }
@@ -0,0 +1,136 @@
+package ai.miko.store.handler;
+
+import ai.miko.store.verticle.ArtifactVerticle;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+// GET /api/artifacts/:appId/:version. Serves the artifact the
+// ArtifactVerticle keeps on disk with sendFile, which leaves the copy to the
+// kernel, and honours single byte ranges so robots can resume an
+// interrupted transfer.
+//
+// A miss waits for the whole origin transfer, so the fetch is not bound by
+// the default 30 s reply timeout but by artifact.fetch.timeout.ms, sized
+// for the largest artifacts. A robot that times out anyway joins the
+// transfer still running when it retries.
+public class ArtifactProxyHandler implements Handler<RoutingContext> {
+
+	private final Vertx vertx;
+	private final DeliveryOptions fetchOptions;
+
+	public ArtifactProxyHandler(Vertx vertx, JsonObject config) {
+		this.vertx = vertx;
+		this.fetchOptions = new DeliveryOptions().setLocalOnly(true)
+				.setSendTimeout(config.getLong("artifact.fetch.timeout.ms",
+						10 * 60 * 1000L));
+	}
+
+	@Override
+	public void handle(RoutingContext ctx) {
+		JsonObject query = new JsonObject()
+				.put("appId", ctx.pathParam("appId"))
+				.put("version", ctx.pathParam("version"));
+
+		vertx.eventBus().<JsonObject>request(ArtifactVerticle.FETCH, query,
+				fetchOptions, reply -> {
+					if (reply.failed()) {
+						// 404 for an unknown artifact, 502 when the origin
+						// could not deliver it, 504 when it took too long
+						int status = 502;
+						if (reply.cause() instanceof ReplyException) {
+							ReplyException err = (ReplyException) reply
+									.cause();
+							if (err.failureType() == ReplyFailure.TIMEOUT) {
+								status = 504;
+							} else if (err.failureCode() > 0) {
+								status = err.failureCode();
+							}
+						}
+						error(ctx, status, reply.cause().getMessage());
+						return;
+					}
+					JsonObject artifact = reply.result().body();
+					serve(ctx, artifact.getString("path"),
+							artifact.getString("checksum"));
+				});
+	}
+
+	private void serve(RoutingContext ctx, String path, String checksum) {
+		vertx.fileSystem().props(path).onSuccess(props -> {
+			long size = props.size();
+			HttpServerResponse response = ctx.response()
+					.putHeader(HttpHeaders.CONTENT_TYPE,
+							"application/octet-stream")
+					.putHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+			if (checksum != null) {
+				response.putHeader(HttpHeaders.ETAG, "\"" + checksum + "\"");
+			}
+
+			String range = ctx.request().getHeader("Range");
+			if (range == null) {
+				response.sendFile(path);
+				return;
+			}
+			long[] bounds = parseRange(range, size);
+			if (bounds == null) {
+				response.setStatusCode(416)
+						.putHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size)
+						.end();
+				return;
+			}
+			response.setStatusCode(206).putHeader(HttpHeaders.CONTENT_RANGE,
+					"bytes " + bounds[0] + "-" + bounds[1] + "/" + size);
+			response.sendFile(path, bounds[0], bounds[1] - bounds[0] + 1);
+		}).onFailure(err -> error(ctx, 500, err.getMessage()));
+	}
+
+	// First and last byte of "bytes=a-b", "bytes=a-" or "bytes=-n", null
+	// when the range cannot be satisfied. Multiple ranges are not supported.
+	static long[] parseRange(String header, long size) {
+		if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+			return null;
+		}
+		String spec = header.substring("bytes=".length()).trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0) {
+			return null;
+		}
+		try {
+			String first = spec.substring(0, dash);
+			String last = spec.substring(dash + 1);
+			long start;
+			long end;
+			if (first.isEmpty()) {
+				long suffix = Long.parseLong(last);
+				if (suffix <= 0) {
+					return null;
+				}
+				start = Math.max(0, size - suffix);
+				end = size - 1;
+			} else {
+				start = Long.parseLong(first);
+				end = last.isEmpty() ? size - 1
+						: Math.min(Long.parseLong(last), size - 1);
+			}
+			if (start < 0 || start >= size || end < start) {
+				return null;
+			}
+			return new long[] { start, end };
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static void error(RoutingContext ctx, int status, String message) {
+		ctx.response().setStatusCode(status)
+				.putHeader("content-type", "application/json")
+				.end(new JsonObject().put("error", message).toBuffer());
+	}
+}
@@ -0,0 +1,70 @@
+package ai.miko.store.handler;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import ai.miko.store.cache.CatalogCache;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.ServerWebSocket;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+// WebSocket endpoint robots keep open to hear about catalog changes. Idle
+// connections cost only their socket, there is no per connection timer or
+// subscription, and a change is fanned out from a single event bus
+// subscription per HTTP server instance.
+public class CatalogPushHandler implements Handler<RoutingContext> {
+
+	private final Set<ServerWebSocket> sockets = new HashSet<>();
+	private final long spread;
+	// Content of the last change pushed. Every node running the catalog
+	// publishes the same change, robots only hear about it once.
+	private Long pushed;
+
+	public CatalogPushHandler(Vertx vertx, JsonObject config) {
+		this.spread = config.getLong("catalog.push.spread.ms", 10_000L);
+		vertx.eventBus().<JsonObject>consumer(CatalogCache.CATALOG_CHANGED,
+				message -> broadcast(message.body()));
+	}
+
+	@Override
+	public void handle(RoutingContext ctx) {
+		ctx.request().toWebSocket().onSuccess(this::add)
+				.onFailure(ctx::fail);
+	}
+
+	void add(ServerWebSocket socket) {
+		sockets.add(socket);
+		socket.closeHandler(v -> sockets.remove(socket));
+		socket.exceptionHandler(err -> socket.close());
+		// Robots only listen, anything they send is ignored
+		socket.handler(buffer -> {
+		});
+	}
+
+	private void broadcast(JsonObject change) {
+		Long fingerprint = change.getLong("fingerprint");
+		if (fingerprint != null && fingerprint.equals(pushed)) {
+			return;
+		}
+		pushed = fingerprint;
+		// Robots wait a random delay up to spreadMs before fetching, so a
+		// release does not turn into a fleet wide burst of fetches
+		String frame = change.copy().put("spreadMs", spread).encode();
+		int sent = 0;
+		for (ServerWebSocket socket : sockets) {
+			// A robot that is not reading gets nothing, it still polls
+			if (!socket.writeQueueFull()) {
+				socket.writeTextMessage(frame);
+				sent++;
+			}
+		}
+		System.out.println("Catalog change pushed to " + sent + " of "
+				+ sockets.size() + " robots");
+	}
+
+	public int connections() {
+		return sockets.size();
+	}
+}
@@ -0,0 +1,116 @@
+package ai.miko.store.handler;
+
+import java.time.format.DateTimeParseException;
+
+import ai.miko.store.dao.Timestamps;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.ext.mongo.FindOptions;
+import io.vertx.ext.mongo.MongoClient;
+import io.vertx.ext.web.RoutingContext;
+
+// GET export of a whole collection as chunked NDJSON, one document per
+// line. Documents are read from a findBatch cursor and written as they
+// come, the cursor is paused while the response's write queue is full and
+// cancelled when the client goes away, so memory stays flat however many
+// rows match.
+//
+// Filters: robot_id and app_id, from (inclusive) and to (exclusive) as
+// ISO-8601 timestamps compared against the collection's time field, UTC
+// when they carry no offset.
+public class ExportHandler implements Handler<RoutingContext> {
+
+	private final MongoClient dbClient;
+	private final String collection;
+	private final String timeField;
+	private final int batchSize;
+
+	public ExportHandler(MongoClient dbClient, String collection,
+			String timeField, JsonObject config) {
+		this.dbClient = dbClient;
+		this.collection = collection;
+		this.timeField = timeField;
+		this.batchSize = config.getInteger("export.batch.size", 1000);
+	}
+
+	@Override
+	public void handle(RoutingContext ctx) {
+		JsonObject query;
+		try {
+			query = query(ctx.queryParams(), timeField);
+		} catch (IllegalArgumentException e) {
+			ctx.response().setStatusCode(400)
+					.putHeader(HttpHeaders.CONTENT_TYPE, "application/json")
+					.end(new JsonObject().put("error", e.getMessage())
+							.toBuffer());
+			return;
+		}
+		FindOptions options = new FindOptions().setBatchSize(batchSize);
+		stream(dbClient.findBatchWithOptions(collection, query, options),
+				ctx.response());
+	}
+
+	static JsonObject query(MultiMap params, String timeField) {
+		JsonObject query = new JsonObject();
+		for (String field : new String[] { "robot_id", "app_id" }) {
+			String value = params.get(field);
+			if (value != null) {
+				query.put(field, value);
+			}
+		}
+		JsonObject range = new JsonObject();
+		String from = params.get("from");
+		if (from != null) {
+			range.put("$gte", timestamp("from", from));
+		}
+		String to = params.get("to");
+		if (to != null) {
+			range.put("$lt", timestamp("to", to));
+		}
+		if (!range.isEmpty()) {
+			query.put(timeField, range);
+		}
+		return query;
+	}
+
+	// Bounds in the stored form of the time fields, see Timestamps
+	private static String timestamp(String name, String value) {
+		try {
+			return Timestamps.parse(value);
+		} catch (DateTimeParseException e) {
+			throw new IllegalArgumentException(
+					"Invalid " + name + " timestamp: " + value);
+		}
+	}
+
+	static void stream(ReadStream<JsonObject> docs,
+			HttpServerResponse response) {
+		response.setChunked(true).putHeader(HttpHeaders.CONTENT_TYPE,
+				"application/x-ndjson");
+		// Stops the cursor when the client disconnects mid export
+		response.closeHandler(v -> docs.handler(null));
+		response.drainHandler(v -> docs.resume());
+
+		docs.exceptionHandler(err -> {
+			System.err.println("Export failed: " + err.getMessage());
+			if (response.headWritten()) {
+				// The status is out already, a cut connection is all the
+				// client can be told
+				response.reset();
+			} else {
+				response.setChunked(false).setStatusCode(500).end();
+			}
+		});
+		docs.endHandler(v -> response.end());
+		docs.handler(doc -> {
+			response.write(doc.toBuffer().appendByte((byte) '\n'));
+			if (response.writeQueueFull()) {
+				docs.pause();
+			}
+		});
+	}
+}
@@ -0,0 +1,68 @@
+package ai.miko.store.handler;
+
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.MongoClient;
+import io.vertx.ext.mongo.MongoGridFsClient;
+import io.vertx.ext.web.RoutingContext;
+
+// GET /api/patches/:appId/:name. Streams a patch out of the GridFS bucket
+// the PatchVerticle stores it in, so every front end serves every patch
+// whichever node built it. Robots do not resume patches, a failed patch
+// falls back to the full artifact, so there is no Range support here.
+public class PatchHandler implements Handler<RoutingContext> {
+
+	public static final String BUCKET = "patches";
+
+	private final MongoClient dbClient;
+	private Future<MongoGridFsClient> gridFs;
+
+	public PatchHandler(MongoClient dbClient) {
+		this.dbClient = dbClient;
+	}
+
+	public static String fileName(String appId, String name) {
+		return appId + "/" + name;
+	}
+
+	@Override
+	public void handle(RoutingContext ctx) {
+		String fileName = fileName(ctx.pathParam("appId"),
+				ctx.pathParam("name"));
+		HttpServerResponse response = ctx.response();
+
+		dbClient.findOne(BUCKET + ".files",
+				new JsonObject().put("filename", fileName),
+				new JsonObject().put("length", 1)).compose(file -> {
+					if (file == null) {
+						response.setStatusCode(404).end();
+						return Future.succeededFuture();
+					}
+					response.putHeader(HttpHeaders.CONTENT_TYPE,
+							"application/octet-stream")
+							.putHeader(HttpHeaders.CONTENT_LENGTH,
+									String.valueOf(file.getLong("length")));
+					return gridFs().compose(
+							fs -> fs.readByFileName(fileName).pipeTo(response));
+				}).onFailure(err -> {
+					System.err.println("Failed to serve patch " + fileName
+							+ ": " + err.getMessage());
+					if (!response.headWritten()) {
+						response.setStatusCode(500).end();
+					} else {
+						response.reset();
+					}
+				});
+	}
+
+	// Event loop only, like the handler itself
+	private Future<MongoGridFsClient> gridFs() {
+		if (gridFs == null || gridFs.failed()) {
+			gridFs = dbClient.createGridFsBucketService(BUCKET);
+		}
+		return gridFs;
+	}
+}
@@ -0,0 +1,69 @@
+package ai.miko.store.handler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ai.miko.store.domain.UpdateAppStateRequest;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.kafka.client.producer.KafkaProducer;
+import io.vertx.kafka.client.producer.KafkaProducerRecord;
+import io.vertx.kafka.client.producer.RecordMetadata;
+
+// POST /api/state-update and /api/state-update/batch in the kafka ingest
+// mode. The updates are appended to the ingest topic keyed by robot_id, so
+// a robot's updates stay in order on one partition, and the robot gets its
+// answer as soon as the broker has them. Mongo is written later by the
+// StateIngestVerticle.
+public class StateIngestHandler implements Handler<RoutingContext> {
+
+	private final KafkaProducer<String, String> producer;
+	private final String topic;
+	private final boolean batch;
+
+	public StateIngestHandler(KafkaProducer<String, String> producer,
+			String topic, boolean batch) {
+		this.producer = producer;
+		this.topic = topic;
+		this.batch = batch;
+	}
+
+	@Override
+	public void handle(RoutingContext ctx) {
+		List<UpdateAppStateRequest> updates = new ArrayList<>();
+		if (batch) {
+			JsonArray body = ctx.body().asJsonArray();
+			for (int i = 0; i < body.size(); i++) {
+				updates.add(body.getJsonObject(i)
+						.mapTo(UpdateAppStateRequest.class));
+			}
+		} else {
+			updates.add(Json.decodeValue(ctx.body().asString(),
+					UpdateAppStateRequest.class));
+		}
+
+		List<Future<RecordMetadata>> appends = new ArrayList<>(
+				updates.size());
+		for (UpdateAppStateRequest update : updates) {
+			appends.add(producer.send(KafkaProducerRecord.create(topic,
+					update.getRobotId(), Json.encode(update))));
+		}
+		Future.all(appends).onComplete(ar -> {
+			if (ar.succeeded()) {
+				ctx.response().putHeader("content-type", "text/plain")
+						.end("State update accepted");
+			} else {
+				// Not accepted, the update has to be sent again
+				ctx.response().setStatusCode(503)
+						.putHeader("content-type", "application/json")
+						.end(new JsonObject()
+								.put("error", ar.cause().getMessage())
+								.toBuffer());
+			}
+		});
+	}
+}
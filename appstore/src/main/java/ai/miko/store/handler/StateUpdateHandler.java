@@ -0,0 +1,63 @@
+package ai.miko.store.handler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ai.miko.store.cluster.LocalRouting;
+import ai.miko.store.codec.DomainCodecs;
+import ai.miko.store.domain.UpdateAppStateRequest;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.ext.web.RoutingContext;
+
+// POST /api/state-update and /api/state-update/batch without the kafka
+// ingest. The robot gets its answer once the StateManagementVerticle has
+// written the states and their logs.
+public class StateUpdateHandler implements Handler<RoutingContext> {
+
+	private final Vertx vertx;
+	private final boolean batch;
+
+	public StateUpdateHandler(Vertx vertx, boolean batch) {
+		this.vertx = vertx;
+		this.batch = batch;
+	}
+
+	@Override
+	public void handle(RoutingContext ctx) {
+		if (!batch) {
+			UpdateAppStateRequest updateRequest = Json.decodeValue(
+					ctx.body().asString(), UpdateAppStateRequest.class);
+			LocalRouting.request(vertx, "state.update", updateRequest)
+					.onComplete(reply -> {
+						if (reply.succeeded()) {
+							ctx.response()
+									.putHeader("content-type", "text/plain")
+									.end("State and logs updated successfully");
+						} else {
+							ctx.fail(reply.cause());
+						}
+					});
+			return;
+		}
+
+		JsonArray body = ctx.body().asJsonArray();
+		List<UpdateAppStateRequest> updateRequests = new ArrayList<>(
+				body.size());
+		for (int i = 0; i < body.size(); i++) {
+			updateRequests.add(
+					body.getJsonObject(i).mapTo(UpdateAppStateRequest.class));
+		}
+		LocalRouting.request(vertx, "state.update.batch", updateRequests,
+				DomainCodecs.stateList()).onComplete(reply -> {
+					if (reply.succeeded()) {
+						ctx.response().putHeader("content-type", "text/plain")
+								.end("States and logs updated successfully");
+					} else {
+						ctx.fail(reply.cause());
+					}
+				});
+	}
+}
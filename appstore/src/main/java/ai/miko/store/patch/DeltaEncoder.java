@@ -0,0 +1,148 @@
+package ai.miko.store.patch;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+// Block based binary delta in the spirit of rsync. The source artifact is
+// cut into fixed size blocks indexed by a rolling checksum, the target is
+// scanned byte by byte and every block found in the source becomes a copy
+// instruction, everything else literal data.
+//
+// Layout, big endian: the magic "MKP1", source size and target size as
+// longs, then a sequence of operations
+//   'C' offset (long) length (int)  copy bytes from the source
+//   'D' length (int) bytes          literal bytes
+//   'E'                             end of patch
+public final class DeltaEncoder {
+
+	public static final int MAGIC = 0x4d4b5031;
+	public static final byte COPY = 'C';
+	public static final byte DATA = 'D';
+	public static final byte END = 'E';
+
+	private DeltaEncoder() {
+	}
+
+	// Writes the patch turning source into target and returns its size
+	public static long encode(Path source, Path target, Path patch,
+			int blockSize) throws IOException {
+		try (FileChannel sourceChannel = FileChannel.open(source);
+				FileChannel targetChannel = FileChannel.open(target);
+				DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(Files.newOutputStream(patch,
+								StandardOpenOption.CREATE,
+								StandardOpenOption.TRUNCATE_EXISTING,
+								StandardOpenOption.WRITE), 1 << 16))) {
+			MappedByteBuffer src = map(sourceChannel);
+			MappedByteBuffer dst = map(targetChannel);
+			out.writeInt(MAGIC);
+			out.writeLong(src.limit());
+			out.writeLong(dst.limit());
+			encode(src, dst, out, blockSize);
+			out.writeByte(END);
+			out.flush();
+			return out.size();
+		}
+	}
+
+	private static MappedByteBuffer map(FileChannel channel)
+			throws IOException {
+		if (channel.size() > Integer.MAX_VALUE) {
+			throw new IOException("Artifact too large to patch");
+		}
+		return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+	}
+
+	private static void encode(MappedByteBuffer src, MappedByteBuffer dst,
+			DataOutputStream out, int blockSize) throws IOException {
+		// First source block for every checksum, later duplicates add nothing
+		Map<Integer, Integer> blocks = new HashMap<>();
+		int sourceLength = src.limit();
+		for (int offset = 0; offset + blockSize <= sourceLength;
+				offset += blockSize) {
+			blocks.putIfAbsent(checksum(src, offset, blockSize), offset);
+		}
+
+		int length = dst.limit();
+		int literalStart = 0;
+		int pos = 0;
+		int a = 0;
+		int b = 0;
+		boolean rolling = false;
+		while (pos + blockSize <= length) {
+			if (!rolling) {
+				a = 0;
+				b = 0;
+				for (int i = 0; i < blockSize; i++) {
+					int x = dst.get(pos + i) & 0xff;
+					a += x;
+					b += (blockSize - i) * x;
+				}
+				rolling = true;
+			}
+			Integer match = blocks.get((a & 0xffff) | (b << 16));
+			if (match != null && equal(src, match, dst, pos, blockSize)) {
+				int matched = blockSize;
+				while (match + matched < sourceLength && pos + matched < length
+						&& src.get(match + matched) == dst.get(pos + matched)) {
+					matched++;
+				}
+				writeData(out, dst, literalStart, pos);
+				out.writeByte(COPY);
+				out.writeLong(match);
+				out.writeInt(matched);
+				pos += matched;
+				literalStart = pos;
+				rolling = false;
+				continue;
+			}
+			if (pos + blockSize < length) {
+				int leaving = dst.get(pos) & 0xff;
+				int entering = dst.get(pos + blockSize) & 0xff;
+				a += entering - leaving;
+				b += a - blockSize * leaving;
+			}
+			pos++;
+		}
+		writeData(out, dst, literalStart, length);
+	}
+
+	// rsync's weak checksum, two 16 bit sums packed into an int
+	private static int checksum(MappedByteBuffer buffer, int offset,
+			int length) {
+		int a = 0;
+		int b = 0;
+		for (int i = 0; i < length; i++) {
+			int x = buffer.get(offset + i) & 0xff;
+			a += x;
+			b += (length - i) * x;
+		}
+		return (a & 0xffff) | (b << 16);
+	}
+
+	private static boolean equal(MappedByteBuffer src, int srcOffset,
+			MappedByteBuffer dst, int dstOffset, int length) {
+		return src.slice(srcOffset, length)
+				.equals(dst.slice(dstOffset, length));
+	}
+
+	private static void writeData(DataOutputStream out, MappedByteBuffer dst,
+			int from, int to) throws IOException {
+		if (to <= from) {
+			return;
+		}
+		byte[] bytes = new byte[to - from];
+		dst.get(from, bytes);
+		out.writeByte(DATA);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+}
@@ -0,0 +1,136 @@
+package ai.miko.store.verticle;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import ai.miko.store.analytics.InstallRollups;
+import ai.miko.store.cluster.LocalRouting;
+import ai.miko.store.config.MongoConfig;
+import ai.miko.store.domain.AnalyticsRequest;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.BulkWriteOptions;
+import io.vertx.ext.mongo.FindOptions;
+import io.vertx.ext.mongo.MongoClient;
+import io.vertx.ext.mongo.MongoClientBulkWriteResult;
+
+// Install analytics served from the rollups in install_rollups. The
+// LogVerticle sends every batch it has written to "analytics.record", the
+// batch is folded into one bulk upsert of increments. Reports on
+// "logs.analytics" read the summary document and the app versions with
+// the most errors, both off an index (see IndexManager), and never touch
+// app_logs.
+//
+// Rollups count the logs written since they were introduced. A batch whose
+// rollup write fails is logged and dropped, app_logs stays the record.
+public class AnalyticsVerticle extends AbstractVerticle {
+
+	public static final String RECORD = "analytics.record";
+
+	private MongoClient dbClient;
+
+	private int defaultLimit;
+
+	@Override
+	public void start(Promise<Void> startPromise) {
+		dbClient = MongoConfig.shared(vertx, config());
+		defaultLimit = config().getInteger("analytics.breakdown.limit", 20);
+
+		LocalRouting.<JsonArray>consumer(vertx, RECORD,
+				message -> record(message.body()));
+		LocalRouting.<AnalyticsRequest>consumer(vertx, "logs.analytics",
+				this::report);
+
+		startPromise.complete();
+	}
+
+	@Override
+	public void stop() {
+		dbClient.close();
+	}
+
+	private void record(JsonArray entries) {
+		JsonArray completions = InstallRollups.completions(entries);
+		Future<Map<String, JsonObject>> starts = completions.isEmpty()
+				? Future.succeededFuture(Map.of())
+				: dbClient.find(InstallRollups.STARTS,
+						new JsonObject().put("_id",
+								new JsonObject().put("$in", completions)))
+						.map(docs -> {
+							Map<String, JsonObject> byKey = new HashMap<>();
+							for (JsonObject doc : docs) {
+								byKey.put(doc.getString("_id"), doc);
+							}
+							return byKey;
+						});
+
+		starts.compose(known -> {
+			InstallRollups rollups = new InstallRollups(known);
+			for (int i = 0; i < entries.size(); i++) {
+				rollups.add(entries.getJsonObject(i));
+			}
+			BulkWriteOptions unordered = new BulkWriteOptions(false);
+			Future<MongoClientBulkWriteResult> rollupWrite = dbClient
+					.bulkWriteWithOptions(InstallRollups.COLLECTION,
+							rollups.rollupOperations(), unordered);
+			if (rollups.startOperations().isEmpty()) {
+				return rollupWrite;
+			}
+			return rollupWrite.compose(v -> dbClient.bulkWriteWithOptions(
+					InstallRollups.STARTS, rollups.startOperations(),
+					unordered));
+		}).onFailure(err -> System.err.println(
+				"Failed to update install rollups: " + err.getMessage()));
+	}
+
+	private void report(Message<AnalyticsRequest> message) {
+		AnalyticsRequest request = message.body();
+		String appId = request.getAppId();
+		String summaryId = appId == null ? InstallRollups.ALL
+				: appId + '/' + (request.getVersion() == null
+						? InstallRollups.ALL
+						: request.getVersion());
+
+		// Version documents only, the per app ones carry version "*"
+		JsonObject query = new JsonObject().put("version",
+				new JsonObject().put("$nin",
+						new JsonArray().addNull().add(InstallRollups.ALL)));
+		if (appId != null) {
+			query.put("app_id", appId);
+		}
+		FindOptions options = new FindOptions()
+				.setSort(new JsonObject().put("errors", -1))
+				.setLimit(request.getLimit() > 0 ? request.getLimit()
+						: defaultLimit);
+
+		Future<JsonObject> summary = dbClient.findOne(
+				InstallRollups.COLLECTION,
+				new JsonObject().put("_id", summaryId), null);
+		Future<JsonArray> breakdown = dbClient
+				.findWithOptions(InstallRollups.COLLECTION, query, options)
+				.map(docs -> {
+					JsonArray versions = new JsonArray();
+					for (JsonObject doc : docs) {
+						versions.add(InstallRollups.summary(doc));
+					}
+					return versions;
+				});
+
+		Future.all(summary, breakdown).onComplete(ar -> {
+			if (ar.failed()) {
+				message.fail(500, "Failed to read install rollups: "
+						+ ar.cause().getMessage());
+				return;
+			}
+			JsonObject doc = summary.result();
+			message.reply(new JsonObject()
+					.put("summary", InstallRollups
+							.summary(doc == null ? new JsonObject() : doc))
+					.put("versions", breakdown.result()));
+		});
+	}
+}
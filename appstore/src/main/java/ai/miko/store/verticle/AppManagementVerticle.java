@@ -1,6 +1,8 @@
 package ai.miko.store.verticle;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
 import java.util.Objects;
 
@@ -8,24 +10,32 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
+import ai.miko.store.cache.CatalogCache;
+import ai.miko.store.cache.CatalogIndex;
+import ai.miko.store.cluster.LocalRouting;
 import ai.miko.store.domain.Application;
 import ai.miko.store.domain.FetchAppsRequest;
-import ai.miko.store.domain.FetchAppsRequest.InstalledApp;
 import ai.miko.store.domain.UpdateApps;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
+import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.json.jackson.DatabindCodec;
-import io.vertx.ext.mongo.MongoClient;
 
 public class AppManagementVerticle extends AbstractVerticle {
 
-	private final MongoClient dbClient;
+	public static final String ETAG = "etag";
+	public static final String IF_NONE_MATCH = "if-none-match";
+	public static final String NOT_MODIFIED = "not-modified";
+	// Page of the delta to return, the whole delta when LIMIT is absent
+	public static final String CURSOR = "cursor";
+	public static final String LIMIT = "limit";
 
-	public AppManagementVerticle(MongoClient dbClient) {
-		this.dbClient = dbClient;
-	}
+	// Loaded and kept current by the CatalogVerticle
+	private CatalogCache catalogCache;
+	// Base of the artifact proxy route, null to hand out origin URLs
+	private String artifactBaseUrl;
 
 	static {
 		var objectMapper = DatabindCodec.mapper();
@@ -42,16 +52,71 @@ public class AppManagementVerticle extends AbstractVerticle {
 	@Override
 	public void start(Promise<Void> startPromise) {
 
+		catalogCache = CatalogCache.shared(vertx);
+		if (catalogCache == null) {
+			startPromise.fail("CatalogVerticle is not deployed");
+			return;
+		}
+		// Only an address configured for the robots reaches the proxy, a
+		// default such as localhost would point them at themselves
+		String proxyBaseUrl = config().getString("artifact.proxy.base.url");
+		if (proxyBaseUrl != null
+				&& config().getBoolean("artifact.proxy.enabled", true)) {
+			artifactBaseUrl = proxyBaseUrl + "/api/artifacts/";
+		} else if (proxyBaseUrl == null) {
+			System.out.println("artifact.proxy.base.url not set, robots "
+					+ "download from the origin");
+		}
+
 		// Consumer for fetching scheduled apps
-		vertx.eventBus().consumer("app.fetch", message -> {
+		LocalRouting.consumer(vertx, "app.fetch", message -> {
 			FetchAppsRequest request = (FetchAppsRequest) message.body();
-			fetchScheduledApps(request).onComplete(ar -> {
+			String cursor = message.headers().get(CURSOR);
+			String pageSize = message.headers().get(LIMIT);
+			String afterAppId;
+			int limit;
+			try {
+				afterAppId = cursor == null ? null : decodeCursor(cursor);
+				limit = pageSize == null ? 0 : Integer.parseInt(pageSize);
+			} catch (IllegalArgumentException e) {
+				message.fail(400, "Invalid page: " + e.getMessage());
+				return;
+			}
+			catalog().onComplete(ar -> {
 				if (ar.succeeded()) {
+					CatalogIndex catalog = ar.result();
+					String tag = catalog.tag(request.getInstalledApps());
+					if (limit > 0 || cursor != null) {
+						// Every page has its own tag
+						tag = tag.substring(0, tag.length() - 1) + "-" + limit
+								+ "-" + (cursor == null ? "" : cursor) + "\"";
+					}
+					DeliveryOptions options = new DeliveryOptions()
+							.addHeader(ETAG, tag);
+					if (tag.equals(message.headers().get(IF_NONE_MATCH))) {
+						// Neither the catalog nor the installed apps changed
+						// since the robot's last fetch
+						message.reply(null,
+								options.addHeader(NOT_MODIFIED, "true"));
+						return;
+					}
+
+					// One app more than asked for tells whether a next
+					// page exists
+					List<Application> page = catalog.delta(
+							request.getInstalledApps(), afterAppId,
+							limit > 0 ? limit + 1 : Integer.MAX_VALUE);
 					UpdateApps updateApps = new UpdateApps();
-					updateApps.setApplications(ar.result());
-					message.reply(updateApps);
+					if (limit > 0 && page.size() > limit) {
+						page = page.subList(0, limit);
+						updateApps.setNextCursor(
+								encodeCursor(page.get(limit - 1).getAppId()));
+					}
+					List<Application> apps = proxied(page);
+					updateApps.setApplications(apps);
+					message.reply(updateApps, options);
 
-					updateState(ar.result(), request.getRobotId());
+					updateState(apps, request.getRobotId());
 
 				} else {
 					message.fail(500, ar.cause().getMessage());
@@ -59,51 +124,68 @@ public class AppManagementVerticle extends AbstractVerticle {
 			});
 		});
 
+		// Origin of an artifact served through the proxy route
+		LocalRouting.<JsonObject>consumer(vertx, ArtifactVerticle.ORIGIN,
+				message -> catalog().onComplete(ar -> {
+					if (ar.failed()) {
+						message.fail(500, ar.cause().getMessage());
+						return;
+					}
+					String appId = message.body().getString("appId");
+					String version = message.body().getString("version");
+					for (Application app : ar.result().versions(appId)) {
+						if (app.getVersion().equals(version)
+								&& app.getUrl() != null) {
+							message.reply(new JsonObject()
+									.put("url", app.getUrl())
+									.put("checksum", app.getChecksum()));
+							return;
+						}
+					}
+					message.fail(404, "Unknown artifact");
+				}));
+
 		startPromise.complete();
 	}
 
-	private Future<List<Application>> fetchScheduledApps(
-			FetchAppsRequest fetchApps) {
-		Promise<List<Application>> promise = Promise.promise();
-		JsonObject query = buildMongoQuery(fetchApps.getInstalledApps());
-
-		dbClient.find("apps", query, ar -> {
-			if (ar.succeeded()) {
-				List<Application> apps = new ArrayList<>();
-				for (JsonObject json : ar.result()) {
-					Application app = new Application(json.getString("app_id"),
-							json.getString("name"), json.getString("version"),
-							json.getString("url"));
-					apps.add(app);
-				}
-				promise.complete(apps);
-			} else {
-				promise.fail(ar.cause());
-			}
-		});
+	// Points the download URLs at the appstore's artifact proxy, so the
+	// origin serves each artifact once instead of once per robot
+	private List<Application> proxied(List<Application> apps) {
+		if (artifactBaseUrl == null) {
+			return apps;
+		}
+		List<Application> proxied = new ArrayList<>(apps.size());
+		for (Application app : apps) {
+			Application copy = app.copy();
+			copy.setUrl(artifactBaseUrl + app.getAppId() + "/"
+					+ app.getVersion());
+			proxied.add(copy);
+		}
+		return proxied;
+	}
 
-		return promise.future();
+	// Cursors are opaque to clients: the last app_id of the previous page,
+	// base64url encoded
+	static String encodeCursor(String appId) {
+		return Base64.getUrlEncoder().withoutPadding()
+				.encodeToString(appId.getBytes(StandardCharsets.UTF_8));
 	}
 
-	private JsonObject buildMongoQuery(List<InstalledApp> installedApps) {
-		JsonObject query = new JsonObject();
-		if (installedApps != null && !installedApps.isEmpty()) {
-			List<JsonObject> conditions = new ArrayList<>();
-			for (InstalledApp app : installedApps) {
-				// Each condition will exclude the app with a matching app_id
-				// and version
-				JsonObject excludeCondition = new JsonObject()
-						.put("app_id", app.getAppId())
-						.put("version", app.getVersion());
-
-				// We use $nor to exclude the apps that match both app_id and
-				// version
-				conditions.add(new JsonObject().put("$nor",
-						List.of(excludeCondition)));
-			}
-			query.put("$and", conditions);
+	static String decodeCursor(String cursor) {
+		return new String(Base64.getUrlDecoder().decode(cursor),
+				StandardCharsets.UTF_8);
+	}
+
+	private Future<CatalogIndex> catalog() {
+		CatalogIndex catalog = catalogCache.snapshot();
+		if (catalog != null) {
+			return Future.succeededFuture(catalog);
 		}
-		return query;
+		// Not loaded yet, the CatalogVerticle replies once it is
+		return vertx.eventBus()
+				.request(CatalogCache.RELOAD, null,
+						new DeliveryOptions().setLocalOnly(true))
+				.map(reply -> catalogCache.snapshot());
 	}
 
 	private Future<Void> updateState(List<Application> appsToBeUpdated,
@@ -113,8 +195,8 @@ public class AppManagementVerticle extends AbstractVerticle {
 			UpdateApps updateApps = new UpdateApps();
 			updateApps.setRobotId(robotId);
 			updateApps.setApplications(appsToBeUpdated);
-			vertx.eventBus().request("state.update.scheduled", updateApps,
-					reply -> {
+			LocalRouting.request(vertx, "state.update.scheduled", updateApps)
+					.onComplete(reply -> {
 						if (reply.succeeded()) {
 							System.out.println("state changed");
 						} else {
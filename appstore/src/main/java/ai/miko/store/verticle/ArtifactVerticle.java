@@ -0,0 +1,66 @@
+package ai.miko.store.verticle;
+
+import ai.miko.store.cluster.LocalRouting;
+import ai.miko.store.cache.ArtifactStore;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Promise;
+import io.vertx.core.json.JsonObject;
+
+// Owns the ArtifactStore. Its LRU bookkeeping and the coalescing of origin
+// transfers are not thread safe, so the store runs in this single instance
+// and the HTTP server instances ask for a file over the event bus. The
+// bytes themselves never cross the event bus, the reply is the path the
+// proxy route serves with sendFile.
+public class ArtifactVerticle extends AbstractVerticle {
+
+	// Local path and checksum of an artifact, fetched from its origin on a
+	// miss
+	public static final String FETCH = "app.artifact.fetch";
+	// Origin of an artifact, answered by the AppManagementVerticle
+	public static final String ORIGIN = "app.artifact.origin";
+	public static final String METRICS = "app.artifact.metrics";
+
+	private ArtifactStore store;
+
+	@Override
+	public void start(Promise<Void> startPromise) {
+		store = new ArtifactStore(vertx, config());
+
+		// Local only, the path in the reply is a file on this node
+		vertx.eventBus().<JsonObject>localConsumer(FETCH, message -> {
+			String appId = message.body().getString("appId");
+			String version = message.body().getString("version");
+			LocalRouting.<JsonObject>request(vertx, ORIGIN, message.body())
+					.onComplete(reply -> {
+						if (reply.failed()) {
+							message.fail(404, "Unknown artifact " + appId + " "
+									+ version);
+							return;
+						}
+						JsonObject origin = reply.result().body();
+						String checksum = origin.getString("checksum");
+						store.get(appId, version, origin.getString("url"),
+								checksum)
+								.onSuccess(path -> message.reply(
+										new JsonObject().put("path", path)
+												.put("checksum", checksum)))
+								.onFailure(err -> message.fail(502,
+										err.getMessage()));
+					});
+		});
+
+		vertx.eventBus().localConsumer(METRICS,
+				message -> message.reply(store.metrics()));
+
+		store.start().onFailure(err -> System.err
+				.println("Artifact store unavailable: " + err.getMessage()));
+		startPromise.complete();
+	}
+
+	@Override
+	public void stop() {
+		if (store != null) {
+			store.close();
+		}
+	}
+}
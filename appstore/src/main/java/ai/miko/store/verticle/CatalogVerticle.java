@@ -0,0 +1,50 @@
+package ai.miko.store.verticle;
+
+import ai.miko.store.cache.CatalogCache;
+import ai.miko.store.cluster.LocalRouting;
+import ai.miko.store.config.MongoConfig;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Promise;
+import io.vertx.ext.mongo.MongoClient;
+
+// Owns the CatalogCache: loads it, follows the change stream and publishes
+// catalog changes. Runs as a single instance so the catalog is loaded once
+// per node, the AppManagementVerticle instances read the shared snapshot.
+public class CatalogVerticle extends AbstractVerticle {
+
+	public static final String METRICS = "app.catalog.metrics";
+
+	private MongoClient dbClient;
+	private CatalogCache catalogCache;
+
+	@Override
+	public void start(Promise<Void> startPromise) {
+		dbClient = MongoConfig.shared(vertx, config());
+		catalogCache = new CatalogCache(vertx, dbClient, config());
+
+		// Readers that found no catalog wait for the load here
+		vertx.eventBus().localConsumer(CatalogCache.RELOAD,
+				message -> catalogCache.reload().onComplete(ar -> {
+					if (ar.succeeded()) {
+						message.reply(ar.result().revision());
+					} else {
+						message.fail(500, ar.cause().getMessage());
+					}
+				}));
+
+		LocalRouting.consumer(vertx, METRICS,
+				message -> message.reply(catalogCache.metrics()));
+
+		catalogCache.start().onComplete(ar -> startPromise.complete());
+	}
+
+	@Override
+	public void stop() {
+		if (catalogCache != null) {
+			catalogCache.stop();
+		}
+		if (dbClient != null) {
+			dbClient.close();
+		}
+	}
+}
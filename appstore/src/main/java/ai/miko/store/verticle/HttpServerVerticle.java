@@ -0,0 +1,224 @@
+package ai.miko.store.verticle;
+
+import ai.miko.store.analytics.LiveMetrics;
+import ai.miko.store.cluster.LocalRouting;
+import ai.miko.store.config.KafkaConfig;
+import ai.miko.store.config.MongoConfig;
+import ai.miko.store.dao.IndexManager;
+import ai.miko.store.domain.AnalyticsRequest;
+import ai.miko.store.handler.AppHandler;
+import ai.miko.store.handler.ArtifactProxyHandler;
+import ai.miko.store.handler.CatalogPushHandler;
+import ai.miko.store.handler.ExportHandler;
+import ai.miko.store.handler.PatchHandler;
+import ai.miko.store.handler.StateIngestHandler;
+import ai.miko.store.handler.StateUpdateHandler;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Promise;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.http.Http2Settings;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.MongoClient;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.handler.BodyHandler;
+import io.vertx.ext.web.handler.LoggerHandler;
+import io.vertx.kafka.client.producer.KafkaProducer;
+
+// The HTTP API. Deployed once per core, the instances share port 8080 and
+// Vert.x spreads the connections over their event loops. State that has to
+// exist once per node (catalog, artifact store, index checks) is reached
+// over the event bus.
+public class HttpServerVerticle extends AbstractVerticle {
+
+	// For the node's own artifact store and index checks
+	private static final DeliveryOptions LOCAL = new DeliveryOptions()
+			.setLocalOnly(true);
+
+	private MongoClient dbClient;
+	private KafkaProducer<String, String> producer;
+
+	@Override
+	public void start(Promise<Void> startPromise) {
+		dbClient = MongoConfig.shared(vertx, config());
+
+		Router router = Router.router(vertx);
+
+		router.route().handler(LoggerHandler.create());
+
+		// Push channel, robots fetch /api/apps when told the catalog changed.
+		// Registered ahead of the BodyHandler, the upgrade must not be read.
+		router.get("/api/catalog/ws")
+				.handler(new CatalogPushHandler(vertx, config()));
+
+		router.route().handler(BodyHandler.create());
+
+		// Down while a hot query has no index to run on
+		router.get("/api/health/ready").handler(ctx -> {
+			vertx.eventBus().<JsonObject>request(IndexManager.STATUS, null,
+					LOCAL, reply -> {
+						JsonObject status = reply.succeeded()
+								? reply.result().body()
+								: new JsonObject().put("ready", false).put(
+										"reason", reply.cause().getMessage());
+						ctx.response()
+								.setStatusCode(
+										status.getBoolean("ready") ? 200 : 503)
+								.putHeader("content-type", "application/json")
+								.end(status.toBuffer());
+					});
+		});
+
+		router.route().failureHandler(ctx -> {
+			Throwable failure = ctx.failure();
+			int statusCode = ctx.statusCode();
+
+			if (failure instanceof RuntimeException) {
+				statusCode = 400;
+				failure.printStackTrace();
+				ctx.response().setStatusCode(statusCode)
+						.putHeader("content-type", "application/json")
+						.end(new JsonObject()
+								.put("error", "Custom error occurred")
+								.toBuffer());
+			} else {
+				ctx.response()
+						.setStatusCode(statusCode != -1 ? statusCode : 500)
+						.putHeader("content-type", "application/json")
+						.end(new JsonObject().put("error", failure.getMessage())
+								.toBuffer());
+			}
+		});
+
+		router.post("/api/apps").handler(new AppHandler(vertx));
+
+		if (KafkaConfig.ingestEnabled(config())) {
+			// Acknowledged once appended to the ingest topic, the
+			// StateIngestVerticle writes them to Mongo
+			producer = KafkaProducer.createShared(vertx, "state-ingest",
+					KafkaConfig.producer(config()), String.class, String.class);
+			String topic = KafkaConfig.topic(config());
+			router.post("/api/state-update")
+					.handler(new StateIngestHandler(producer, topic, false));
+			router.post("/api/state-update/batch")
+					.handler(new StateIngestHandler(producer, topic, true));
+		} else {
+			router.post("/api/state-update")
+					.handler(new StateUpdateHandler(vertx, false));
+			router.post("/api/state-update/batch")
+					.handler(new StateUpdateHandler(vertx, true));
+		}
+
+		router.get("/api/metrics/catalog").handler(ctx -> {
+			LocalRouting.<JsonObject>request(vertx, CatalogVerticle.METRICS,
+					null).onComplete(reply -> {
+						if (reply.succeeded()) {
+							ctx.response()
+									.putHeader("content-type",
+											"application/json")
+									.end(reply.result().body().toBuffer());
+						} else {
+							ctx.fail(reply.cause());
+						}
+					});
+		});
+
+		// Artifacts proxied from their origin and kept on disk, robots
+		// download through here instead of from the origin
+		router.get("/api/artifacts/:appId/:version")
+				.handler(new ArtifactProxyHandler(vertx, config()));
+
+		router.get("/api/metrics/artifacts").handler(ctx -> {
+			vertx.eventBus().<JsonObject>request(ArtifactVerticle.METRICS, null,
+					LOCAL, reply -> {
+						if (reply.succeeded()) {
+							ctx.response()
+									.putHeader("content-type",
+											"application/json")
+									.end(reply.result().body().toBuffer());
+						} else {
+							ctx.fail(reply.cause());
+						}
+					});
+		});
+
+		// Patches published by the PatchVerticle, from shared storage
+		router.get("/api/patches/:appId/:name")
+				.handler(new PatchHandler(dbClient));
+
+		// Install success and failure rates, retries and time to install,
+		// overall or for one app or version, from the install rollups
+		router.post("/api/analytics").handler(ctx -> {
+			String body = ctx.body().asString();
+			AnalyticsRequest analyticsReq = body == null || body.isBlank()
+					? new AnalyticsRequest()
+					: Json.decodeValue(body, AnalyticsRequest.class);
+			LocalRouting.<JsonObject>request(vertx, "logs.analytics",
+					analyticsReq).onComplete(reply -> {
+						if (reply.succeeded()) {
+							ctx.response()
+									.putHeader("content-type",
+											"application/json")
+									.end(reply.result().body().toBuffer());
+						} else {
+							ctx.fail(reply.cause());
+						}
+					});
+		});
+
+		// Live counters of the state nodes, added up across the cluster
+		long liveTimeout = config().getLong("analytics.live.timeout.ms", 2000L);
+		router.get("/api/analytics/live").handler(ctx -> LiveMetrics
+				.collect(vertx, ctx.queryParams().get("appId"),
+						ctx.queryParams().get("version"), liveTimeout)
+				.onComplete(ar -> {
+					if (ar.failed()) {
+						ctx.fail(ar.cause());
+					} else if (ar.result().getInteger("nodes") == 0) {
+						ctx.response().setStatusCode(503)
+								.putHeader("content-type", "application/json")
+								.end(new JsonObject().put("error",
+										"No state node answered").toBuffer());
+					} else {
+						ctx.response()
+								.putHeader("content-type", "application/json")
+								.end(ar.result().toBuffer());
+					}
+				}));
+
+		// Bulk exports for offline analysis, streamed as NDJSON
+		router.get("/api/export/logs").handler(
+				new ExportHandler(dbClient, "app_logs", "ent_ts", config()));
+		router.get("/api/export/states").handler(new ExportHandler(
+				dbClient, "app_states", "mod_ts", config()));
+
+		// Accept h2c (prior knowledge and upgrade) next to HTTP/1.1 keep-alive,
+		// robots multiplex their fetches and state updates on one connection
+		HttpServerOptions serverOptions = new HttpServerOptions()
+				.setHttp2ClearTextEnabled(true)
+				.setInitialSettings(new Http2Settings().setMaxConcurrentStreams(
+						config().getLong("http.http2.streams", 100L)))
+				.setTcpKeepAlive(true);
+
+		vertx.createHttpServer(serverOptions).requestHandler(router)
+				.listen(8080, http -> {
+					if (http.succeeded()) {
+						System.out.println("HTTP server started on port 8080");
+						startPromise.complete();
+					} else {
+						startPromise.fail(http.cause());
+					}
+				});
+	}
+
+	@Override
+	public void stop() {
+		if (producer != null) {
+			producer.close();
+		}
+		if (dbClient != null) {
+			dbClient.close();
+		}
+	}
+}
@@ -1,28 +1,45 @@
 package ai.miko.store.verticle;
 
-import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
 
+import ai.miko.store.cluster.LocalRouting;
+import ai.miko.store.config.MongoConfig;
+import ai.miko.store.dao.Timestamps;
 import ai.miko.store.domain.UpdateAppStateRequest;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
 import io.vertx.core.Promise;
 import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.json.jackson.DatabindCodec;
+import io.vertx.ext.mongo.BulkOperation;
+import io.vertx.ext.mongo.BulkWriteOptions;
 import io.vertx.ext.mongo.MongoClient;
 
 public class LogVerticle extends AbstractVerticle {
 
-	private final MongoClient dbClient;
+	private MongoClient dbClient;
 
-	public LogVerticle(MongoClient dbClient) {
-		this.dbClient = dbClient;
-	}
+	private final Queue<BufferedLog> buffer = new ArrayDeque<>();
+	private int batchSize;
+	private int maxBuffered;
+	private int maxAttempts;
+	private long flushInterval;
+	private long flushTimerId = -1;
+	private boolean flushing;
 
 	static {
 		var objectMapper = DatabindCodec.mapper();
@@ -36,16 +53,55 @@ public class LogVerticle extends AbstractVerticle {
 		objectMapper.registerModule(module);
 	}
 
+	public LogVerticle() {
+	}
+
+	// For tests, with a client standing in for Mongo
+	LogVerticle(MongoClient dbClient) {
+		this.dbClient = dbClient;
+	}
+
 	@Override
 	public void start(Promise<Void> startPromise) {
-		vertx.eventBus().consumer("log.insert", this::insertLogs);
+		if (dbClient == null) {
+			dbClient = MongoConfig.shared(vertx, config());
+		}
+		JsonObject config = config();
+		batchSize = config.getInteger("log.batch.size", 500);
+		maxBuffered = config.getInteger("log.buffer.max", 10_000);
+		maxAttempts = config.getInteger("log.write.attempts", 3);
+		flushInterval = config.getLong("log.flush.interval.ms", 50L);
+
+		LocalRouting.consumer(vertx, "log.insert", this::insertLogs);
 		startPromise.complete();
 	}
 
+	@Override
+	public void stop(Promise<Void> stopPromise) {
+		vertx.cancelTimer(flushTimerId);
+		drain().onComplete(ar -> {
+			dbClient.close();
+			stopPromise.complete();
+		});
+	}
+
 	private void insertLogs(Message<List<UpdateAppStateRequest>> message) {
 		List<UpdateAppStateRequest> logData = (List<UpdateAppStateRequest>) message
 				.body();
 
+		if (logData == null || logData.isEmpty()) {
+			message.reply("No logs to insert");
+			return;
+		}
+		// Push back instead of growing without limit while mongo is behind,
+		// a request larger than the whole buffer is still let through alone.
+		if (!buffer.isEmpty()
+				&& buffer.size() + logData.size() > maxBuffered) {
+			message.fail(503, "Log buffer full, retry later");
+			return;
+		}
+
+		PendingAck ack = new PendingAck(message, logData.size());
 		for (UpdateAppStateRequest app : logData) {
 			JsonObject logEntry = new JsonObject()
 					.put("log_id", UUID.randomUUID().toString())
@@ -56,18 +112,160 @@ public class LogVerticle extends AbstractVerticle {
 					.put("message", app.getMessage())
 					.put("version", app.getVersion())
 					.put("retries", app.getRetryCount())
-					.put("ent_ts", LocalDateTime.now().toString())
+					.put("ent_ts", Timestamps.now())
 					.put("op_prfmd_ts", app.getTimestamp());
+			buffer.add(new BufferedLog(logEntry, ack));
+		}
 
-			dbClient.insert("app_logs", logEntry, res -> {
-				if (res.succeeded()) {
-					message.reply("Log inserted successfully");
-				} else {
-					message.fail(500, "Failed to insert log: "
-							+ res.cause().getMessage());
-				}
+		if (buffer.size() >= batchSize) {
+			flush();
+		} else if (flushTimerId == -1) {
+			flushTimerId = vertx.setTimer(flushInterval, id -> {
+				flushTimerId = -1;
+				flush();
 			});
 		}
 	}
 
+	private void flush() {
+		if (flushing || buffer.isEmpty()) {
+			return;
+		}
+		flushing = true;
+		vertx.cancelTimer(flushTimerId);
+		flushTimerId = -1;
+
+		int count = Math.min(batchSize, buffer.size());
+		List<BufferedLog> batch = new ArrayList<>(count);
+		List<BulkOperation> operations = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			BufferedLog log = buffer.poll();
+			batch.add(log);
+			operations.add(BulkOperation.createInsert(log.entry));
+		}
+
+		dbClient.bulkWriteWithOptions("app_logs", operations,
+				new BulkWriteOptions(false), res -> {
+					List<BufferedLog> written = res.succeeded() ? batch
+							: settleFailed(batch, res.cause());
+					if (!written.isEmpty()) {
+						recordAnalytics(written);
+					}
+					for (BufferedLog log : written) {
+						log.ack.written();
+					}
+					flushing = false;
+					if (buffer.size() >= batchSize) {
+						flush();
+					} else if (!buffer.isEmpty() && flushTimerId == -1) {
+						flushTimerId = vertx.setTimer(flushInterval, id -> {
+							flushTimerId = -1;
+							flush();
+						});
+					}
+				});
+	}
+
+	// The insert is unordered, so a bulk write error lists the entries Mongo
+	// rejected and every other one is in app_logs. Rejected entries go back
+	// into the buffer up to log.write.attempts times before their request
+	// fails; a failed request is retried by its sender, which repeats the
+	// rows of that request that were written. Without a bulk write error
+	// the outcome is unknown and the whole batch fails.
+	private List<BufferedLog> settleFailed(List<BufferedLog> batch,
+			Throwable cause) {
+		Set<Integer> rejected = rejected(cause);
+		List<BufferedLog> written = new ArrayList<>(batch.size());
+		for (int i = 0; i < batch.size(); i++) {
+			BufferedLog log = batch.get(i);
+			if (rejected != null && !rejected.contains(i)) {
+				written.add(log);
+			} else if (rejected != null && !log.ack.done
+					&& ++log.attempts < maxAttempts) {
+				buffer.add(log);
+			} else {
+				log.ack.failed(cause);
+			}
+		}
+		if (rejected != null) {
+			System.err.println("Rejected " + rejected.size() + " of "
+					+ batch.size() + " logs: " + cause.getMessage());
+		}
+		return written;
+	}
+
+	// Indexes of the rejected operations, null when the error is not a
+	// bulk write error
+	static Set<Integer> rejected(Throwable cause) {
+		for (Throwable err = cause; err != null; err = err.getCause()) {
+			if (err instanceof MongoBulkWriteException) {
+				Set<Integer> indexes = new HashSet<>();
+				for (BulkWriteError error : ((MongoBulkWriteException) err)
+						.getWriteErrors()) {
+					indexes.add(error.getIndex());
+				}
+				return indexes;
+			}
+		}
+		return null;
+	}
+
+	// Feeds the install rollups, only with entries that made it to app_logs
+	private void recordAnalytics(List<BufferedLog> batch) {
+		JsonArray entries = new JsonArray(new ArrayList<>(batch.size()));
+		for (BufferedLog log : batch) {
+			entries.add(log.entry);
+		}
+		LocalRouting.send(vertx, AnalyticsVerticle.RECORD, entries);
+	}
+
+	private Future<Void> drain() {
+		if (buffer.isEmpty() && !flushing) {
+			return Future.succeededFuture();
+		}
+		flush();
+		Promise<Void> promise = Promise.promise();
+		vertx.setTimer(flushInterval, id -> drain().onComplete(promise));
+		return promise.future();
+	}
+
+	private static final class BufferedLog {
+		private final JsonObject entry;
+		private final PendingAck ack;
+		private int attempts;
+
+		private BufferedLog(JsonObject entry, PendingAck ack) {
+			this.entry = entry;
+			this.ack = ack;
+		}
+	}
+
+	// Replies to the log.insert request exactly once, after all of its
+	// entries have been written or the first of them failed for good.
+	private static final class PendingAck {
+		private final Message<?> message;
+		private int remaining;
+		private boolean done;
+
+		private PendingAck(Message<?> message, int remaining) {
+			this.message = message;
+			this.remaining = remaining;
+		}
+
+		private void written() {
+			if (!done && --remaining == 0) {
+				done = true;
+				message.reply("Log inserted successfully");
+			}
+		}
+
+		private void failed(Throwable cause) {
+			if (!done) {
+				done = true;
+				message.fail(500,
+						"Failed to insert log: " + cause.getMessage());
+			}
+		}
+	}
+
 }
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
+import ai.miko.store.cluster.LocalRouting;
 import ai.miko.store.domain.UpdateAppStateRequest;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Future;
@@ -39,7 +40,7 @@ public class NotificationVerticle extends AbstractVerticle {
 
 		mailClient = MailClient.create(vertx, mailConfig);
 
-		vertx.eventBus().consumer("notification.send", message -> {
+		LocalRouting.consumer(vertx, "notification.send", message -> {
 			System.out.println("message recieved");
 			UpdateAppStateRequest updateApp = (UpdateAppStateRequest) message
 					.body();
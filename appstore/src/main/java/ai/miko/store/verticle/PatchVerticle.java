@@ -0,0 +1,253 @@
+package ai.miko.store.verticle;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ai.miko.store.cache.CatalogCache;
+import ai.miko.store.cache.Versions;
+import ai.miko.store.config.MongoConfig;
+import ai.miko.store.handler.PatchHandler;
+import ai.miko.store.patch.DeltaEncoder;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.file.FileSystem;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.RequestOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.MongoClient;
+import io.vertx.ext.mongo.MongoGridFsClient;
+
+// Publishes binary patches between consecutive versions of every app. Both
+// artifacts are fetched, diffed with DeltaEncoder and the patch is stored in
+// the PatchHandler's GridFS bucket, which every front end serves, and
+// recorded in the "patches" array of the newer version's document. Runs at
+// startup and after every catalog change.
+//
+// Every "app" node runs one and hears every catalog change, a cluster wide
+// lock lets one of them scan at a time. The next one to get it reads the
+// patches recorded meanwhile and finds nothing left to build.
+public class PatchVerticle extends AbstractVerticle {
+
+	private static final String COLLECTION = "apps";
+
+	private static final String LOCK = "patch.scan";
+
+	private MongoClient dbClient;
+	private MongoGridFsClient gridFs;
+
+	private HttpClient client;
+	private String baseUrl;
+	private int blockSize;
+	private double maxRatio;
+
+	private boolean scanning;
+	private boolean rescan;
+	// Version pairs whose patch turned out too large to be worth serving
+	private final Set<String> skipped = new HashSet<>();
+
+	@Override
+	public void start(Promise<Void> startPromise) {
+		dbClient = MongoConfig.shared(vertx, config());
+		JsonObject config = config();
+		baseUrl = config.getString("patch.base.url",
+				"http://localhost:8080/api/patches");
+		blockSize = config.getInteger("patch.block.size", 4096);
+		maxRatio = config.getDouble("patch.max.ratio", 0.5);
+		client = vertx.createHttpClient(new HttpClientOptions()
+				.setKeepAlive(true).setConnectTimeout(10_000));
+
+		vertx.eventBus().consumer(CatalogCache.CATALOG_CHANGED,
+				message -> scan());
+
+		dbClient.createGridFsBucketService(PatchHandler.BUCKET)
+				.onComplete(ar -> {
+					if (ar.succeeded()) {
+						gridFs = ar.result();
+						startPromise.complete();
+						scan();
+					} else {
+						startPromise.fail(ar.cause());
+					}
+				});
+	}
+
+	@Override
+	public void stop(Promise<Void> stopPromise) {
+		dbClient.close();
+		client.close().onComplete(ar -> stopPromise.complete());
+	}
+
+	private void scan() {
+		if (scanning) {
+			rescan = true;
+			return;
+		}
+		scanning = true;
+		vertx.sharedData().getLockWithTimeout(LOCK, 1000).onComplete(lock -> {
+			if (lock.failed()) {
+				// Another node is scanning, it hears the same changes and
+				// scans again once it is done
+				scanning = false;
+				rescan = false;
+				return;
+			}
+			dbClient.find(COLLECTION, new JsonObject())
+					.compose(this::publishMissing).onComplete(ar -> {
+						lock.result().release();
+						if (ar.failed()) {
+							System.err.println("Patch scan failed: "
+									+ ar.cause().getMessage());
+						}
+						scanning = false;
+						if (rescan) {
+							rescan = false;
+							scan();
+						}
+					});
+		});
+	}
+
+	private Future<Void> publishMissing(List<JsonObject> documents) {
+		Map<String, List<JsonObject>> byApp = new HashMap<>();
+		for (JsonObject document : documents) {
+			byApp.computeIfAbsent(document.getString("app_id"),
+					k -> new ArrayList<>()).add(document);
+		}
+
+		// One patch at a time, each holds two artifacts on disk
+		Future<Void> chain = Future.succeededFuture();
+		for (List<JsonObject> versions : byApp.values()) {
+			versions.sort((a, b) -> Versions.compare(a.getString("version"),
+					b.getString("version")));
+			for (int i = 1; i < versions.size(); i++) {
+				JsonObject from = versions.get(i - 1);
+				JsonObject to = versions.get(i);
+				if (from.getString("url") == null
+						|| to.getString("url") == null
+						|| hasPatch(to, from.getString("version"))
+						|| skipped.contains(pairKey(from, to))) {
+					continue;
+				}
+				chain = chain.compose(v -> publish(from, to).recover(err -> {
+					System.err.println("Failed to build patch for app "
+							+ to.getString("app_id") + " "
+							+ from.getString("version") + " -> "
+							+ to.getString("version") + ": "
+							+ err.getMessage());
+					return Future.succeededFuture();
+				}));
+			}
+		}
+		return chain;
+	}
+
+	private Future<Void> publish(JsonObject from, JsonObject to) {
+		String appId = to.getString("app_id");
+		String name = safe(from.getString("version")) + "-"
+				+ safe(to.getString("version")) + ".patch";
+		FileSystem fs = vertx.fileSystem();
+
+		return fs.createTempDirectory("miko-patch").compose(work -> {
+			String source = work + "/source";
+			String target = work + "/target";
+			String patch = work + "/patch";
+			return fetch(from.getString("url"), source)
+					.compose(v -> fetch(to.getString("url"), target))
+					.compose(v -> vertx.executeBlocking(
+							() -> DeltaEncoder.encode(Path.of(source),
+									Path.of(target), Path.of(patch),
+									blockSize),
+							false))
+					.compose(size -> fs.props(target).compose(props -> {
+						if (size > props.size() * maxRatio) {
+							System.out.println("Patch for app " + appId
+									+ " not worth serving (" + size + " of "
+									+ props.size() + " bytes)");
+							skipped.add(pairKey(from, to));
+							return Future.succeededFuture();
+						}
+						return upload(patch,
+								PatchHandler.fileName(safe(appId), name))
+								.compose(v -> record(to,
+										from.getString("version"),
+										baseUrl + "/" + safe(appId) + "/"
+												+ name,
+										size));
+					}))
+					.eventually(() -> fs.deleteRecursive(work, true));
+		});
+	}
+
+	private Future<Void> upload(String path, String fileName) {
+		return vertx.fileSystem().open(path, new OpenOptions().setRead(true))
+				.compose(file -> gridFs.uploadByFileName(file, fileName)
+						.eventually(() -> file.close().otherwiseEmpty()))
+				.mapEmpty();
+	}
+
+	// At most one patch per source version, whoever records it first
+	private Future<Void> record(JsonObject to, String fromVersion, String url,
+			long size) {
+		JsonObject patch = new JsonObject().put("from", fromVersion)
+				.put("url", url).put("size", size);
+		return dbClient.updateCollection(COLLECTION,
+				new JsonObject().put("_id", to.getValue("_id"))
+						.put("patches.from",
+								new JsonObject().put("$ne", fromVersion)),
+				new JsonObject().put("$push",
+						new JsonObject().put("patches", patch)))
+				.onSuccess(r -> System.out.println("Published patch " + url
+						+ " (" + size + " bytes)"))
+				.mapEmpty();
+	}
+
+	private Future<Void> fetch(String url, String path) {
+		return client
+				.request(new RequestOptions().setMethod(HttpMethod.GET)
+						.setAbsoluteURI(url))
+				.compose(req -> req.send()).compose(response -> {
+					if (response.statusCode() != 200) {
+						return response.body().transform(ar -> Future
+								.failedFuture("Fetching " + url
+										+ " failed with status "
+										+ response.statusCode()));
+					}
+					response.pause();
+					return vertx.fileSystem()
+							.open(path, new OpenOptions().setCreate(true)
+									.setWrite(true).setTruncateExisting(true))
+							.compose(file -> response.pipeTo(file));
+				});
+	}
+
+	private static boolean hasPatch(JsonObject document, String fromVersion) {
+		JsonArray patches = document.getJsonArray("patches");
+		if (patches != null) {
+			for (int i = 0; i < patches.size(); i++) {
+				if (fromVersion.equals(
+						patches.getJsonObject(i).getString("from"))) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static String pairKey(JsonObject from, JsonObject to) {
+		return to.getValue("_id") + "@" + from.getString("version");
+	}
+
+	private static String safe(String value) {
+		return value.replaceAll("[^A-Za-z0-9._-]", "_");
+	}
+}
@@ -0,0 +1,140 @@
+package ai.miko.store.verticle;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import ai.miko.store.cluster.LocalRouting;
+import ai.miko.store.codec.DomainCodecs;
+import ai.miko.store.config.KafkaConfig;
+import ai.miko.store.domain.UpdateAppStateRequest;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.jackson.DatabindCodec;
+import io.vertx.kafka.client.common.TopicPartition;
+import io.vertx.kafka.client.consumer.KafkaConsumer;
+import io.vertx.kafka.client.consumer.KafkaConsumerRecords;
+
+// Applies the state updates of the ingest topic to app_states and app_logs.
+// Each poll becomes one state.update.batch, the bulk write path of the
+// StateManagementVerticle, and its offsets are committed only once that
+// write succeeded. A failed batch is read again from its first offset, so
+// updates are applied at least once and a robot's updates in order.
+public class StateIngestVerticle extends AbstractVerticle {
+
+	private KafkaConsumer<String, String> consumer;
+	private Duration pollTimeout;
+	private long retryDelay;
+	private boolean stopped;
+
+	static {
+		var objectMapper = DatabindCodec.mapper();
+		objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+		objectMapper.disable(
+				SerializationFeature.WRITE_DATE_TIMESTAMPS_AS_NANOSECONDS);
+		objectMapper.disable(
+				DeserializationFeature.READ_DATE_TIMESTAMPS_AS_NANOSECONDS);
+
+		JavaTimeModule module = new JavaTimeModule();
+		objectMapper.registerModule(module);
+	}
+
+	@Override
+	public void start(Promise<Void> startPromise) {
+		pollTimeout = Duration
+				.ofMillis(config().getLong("state.ingest.poll.ms", 1000L));
+		retryDelay = config().getLong("state.ingest.retry.ms", 1000L);
+
+		consumer = KafkaConsumer.create(vertx,
+				KafkaConfig.consumer(config()), String.class, String.class);
+		consumer.subscribe(KafkaConfig.topic(config())).onComplete(ar -> {
+			if (ar.succeeded()) {
+				poll();
+				startPromise.complete();
+			} else {
+				startPromise.fail(ar.cause());
+			}
+		});
+	}
+
+	@Override
+	public void stop(Promise<Void> stopPromise) {
+		stopped = true;
+		consumer.close().onComplete(ar -> stopPromise.complete());
+	}
+
+	private void poll() {
+		if (stopped) {
+			return;
+		}
+		consumer.poll(pollTimeout).onComplete(ar -> {
+			if (ar.failed()) {
+				System.err.println(
+						"State ingest poll failed: " + ar.cause().getMessage());
+				vertx.setTimer(retryDelay, id -> poll());
+				return;
+			}
+			KafkaConsumerRecords<String, String> records = ar.result();
+			if (records.isEmpty()) {
+				poll();
+				return;
+			}
+			apply(records).compose(v -> consumer.commit()).onComplete(done -> {
+				if (done.succeeded()) {
+					poll();
+				} else {
+					System.err.println("State ingest batch of " + records.size()
+							+ " failed: " + done.cause().getMessage());
+					rewind(records).onComplete(
+							v -> vertx.setTimer(retryDelay, id -> poll()));
+				}
+			});
+		});
+	}
+
+	private Future<Void> apply(KafkaConsumerRecords<String, String> records) {
+		List<UpdateAppStateRequest> updates = new ArrayList<>(records.size());
+		for (int i = 0; i < records.size(); i++) {
+			String value = records.recordAt(i).value();
+			try {
+				updates.add(
+						Json.decodeValue(value, UpdateAppStateRequest.class));
+			} catch (DecodeException e) {
+				// Retrying cannot fix it, skip instead of blocking the
+				// partition
+				System.err.println("Skipping undecodable state update: "
+						+ e.getMessage());
+			}
+		}
+		if (updates.isEmpty()) {
+			return Future.succeededFuture();
+		}
+		return LocalRouting.request(vertx, "state.update.batch", updates,
+				DomainCodecs.stateList()).mapEmpty();
+	}
+
+	// Back to the first record of the batch on every partition it came from
+	private Future<Void> rewind(
+			KafkaConsumerRecords<String, String> records) {
+		ConsumerRecords<String, String> polled = records.records();
+		List<Future<Void>> seeks = new ArrayList<>();
+		for (org.apache.kafka.common.TopicPartition partition : polled
+				.partitions()) {
+			List<ConsumerRecord<String, String>> batch = polled
+					.records(partition);
+			seeks.add(consumer.seek(new TopicPartition(partition.topic(),
+					partition.partition()), batch.get(0).offset()));
+		}
+		return Future.all(seeks).mapEmpty();
+	}
+}
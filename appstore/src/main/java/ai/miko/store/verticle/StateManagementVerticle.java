@@ -2,13 +2,23 @@ package ai.miko.store.verticle;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
+import ai.miko.store.analytics.InstallMetrics;
+import ai.miko.store.analytics.LiveMetrics;
+import ai.miko.store.cluster.LocalRouting;
+import ai.miko.store.codec.DomainCodecs;
+import ai.miko.store.config.MongoConfig;
+import ai.miko.store.dao.Timestamps;
 import ai.miko.store.domain.Application;
 import ai.miko.store.domain.ApplicationState;
 import ai.miko.store.domain.UpdateAppStateRequest;
@@ -16,18 +26,21 @@ import ai.miko.store.domain.UpdateApps;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.json.jackson.DatabindCodec;
+import io.vertx.ext.mongo.BulkOperation;
 import io.vertx.ext.mongo.FindOptions;
 import io.vertx.ext.mongo.MongoClient;
-import io.vertx.ext.mongo.UpdateOptions;
 
 public class StateManagementVerticle extends AbstractVerticle {
 
-	private final MongoClient dbClient;
+	private MongoClient dbClient;
 
 	private int retryCountForMail = 2;
 
+	private InstallMetrics metrics;
+
 	static {
 		var objectMapper = DatabindCodec.mapper();
 		objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
@@ -40,34 +53,63 @@ public class StateManagementVerticle extends AbstractVerticle {
 		objectMapper.registerModule(module);
 	}
 
-	public StateManagementVerticle(MongoClient dbClient) {
+	public StateManagementVerticle() {
+	}
+
+	// For tests, with a client standing in for Mongo
+	StateManagementVerticle(MongoClient dbClient) {
 		this.dbClient = dbClient;
 	}
 
 	@Override
 	public void start(Promise<Void> startPromise) {
+		if (dbClient == null) {
+			dbClient = MongoConfig.shared(vertx, config());
+		}
+		metrics = InstallMetrics.shared(vertx);
+		LiveMetrics.serve(vertx);
 
-		vertx.eventBus().consumer("state.update", message -> {
+		LocalRouting.consumer(vertx, "state.update", message -> {
 			UpdateAppStateRequest updateApp = (UpdateAppStateRequest) message
 					.body();
 			List<UpdateAppStateRequest> updateStateApps = new ArrayList<>();
 			updateStateApps.add(updateApp);
+			long received = received(updateStateApps);
 			updateState(updateStateApps).compose(res -> updateLogs(res))
 					.onComplete(ar -> {
 						if (ar.succeeded()) {
+							written(updateStateApps, received);
 							message.reply("State updated");
 						} else {
 							message.fail(500, ar.cause().getMessage());
 						}
 					});
-			if (updateApp.getRetryCount() >= retryCountForMail
-					&& ApplicationState.ERROR == updateApp.getState()) {
-				System.out.println("Sending mail");
-				vertx.eventBus().send("notification.send", updateApp);
-			}
+			notifyOnRepeatedFailure(updateApp);
 		});
 
-		vertx.eventBus().consumer("state.update.scheduled", message -> {
+		// A robot's coalesced updates, applied in one bulk write
+		LocalRouting.<List<UpdateAppStateRequest>>consumer(vertx,
+				"state.update.batch", message -> {
+					List<UpdateAppStateRequest> updateStateApps = message
+							.body();
+					long received = received(updateStateApps);
+					updateState(updateStateApps)
+							.compose(res -> updateLogs(res))
+							.onComplete(ar -> {
+								if (ar.succeeded()) {
+									written(updateStateApps, received);
+									message.reply("States updated");
+								} else {
+									message.fail(500,
+											ar.cause().getMessage());
+								}
+							});
+					for (UpdateAppStateRequest updateApp : updateStateApps) {
+						notifyOnRepeatedFailure(updateApp);
+					}
+				});
+
+		LocalRouting.consumer(vertx, "state.update.scheduled", message -> {
 			UpdateApps updateApps = (UpdateApps) message.body();
 			List<UpdateAppStateRequest> updateStateApps = new ArrayList<>();
 			for (Application app : updateApps.getApplications()) {
@@ -80,9 +122,11 @@ public class StateManagementVerticle extends AbstractVerticle {
 				temp.setTimestamp(Instant.now());
 				updateStateApps.add(temp);
 			}
+			long received = received(updateStateApps);
 			updateState(updateStateApps).compose(result -> updateLogs(result))
 					.onComplete(ar -> {
 						if (ar.succeeded()) {
+							written(updateStateApps, received);
 							System.out.println("State updated and logged");
 							message.reply("State updated and logged");
 						} else {
@@ -94,10 +138,43 @@ public class StateManagementVerticle extends AbstractVerticle {
 		startPromise.complete();
 	}
 
+	@Override
+	public void stop() {
+		dbClient.close();
+	}
+
+	// Counts the updates in the live metrics, returns the arrival time
+	private long received(List<UpdateAppStateRequest> updates) {
+		long now = System.currentTimeMillis();
+		for (UpdateAppStateRequest update : updates) {
+			metrics.received(update, now);
+		}
+		return now;
+	}
+
+	private void written(List<UpdateAppStateRequest> updates, long received) {
+		long elapsed = System.currentTimeMillis() - received;
+		for (UpdateAppStateRequest update : updates) {
+			metrics.written(update, elapsed);
+		}
+	}
+
+	private void notifyOnRepeatedFailure(UpdateAppStateRequest updateApp) {
+		if (updateApp.getRetryCount() >= retryCountForMail
+				&& ApplicationState.ERROR == updateApp.getState()) {
+			System.out.println("Sending mail");
+			LocalRouting.send(vertx, "notification.send", updateApp);
+		}
+	}
+
 	private Future<List<UpdateAppStateRequest>> updateState(
 			List<UpdateAppStateRequest> appsStates) {
-		Promise<List<UpdateAppStateRequest>> promise = Promise.promise();
+		if (appsStates.isEmpty()) {
+			return Future.succeededFuture(appsStates);
+		}
 
+		String now = Timestamps.now();
+		List<BulkOperation> operations = new ArrayList<>(appsStates.size());
 		for (UpdateAppStateRequest app : appsStates) {
 			JsonObject query = new JsonObject().put("app_id", app.getAppId())
 					.put("robot_id", app.getRobotId());
@@ -105,92 +182,84 @@ public class StateManagementVerticle extends AbstractVerticle {
 			JsonObject updateFields = new JsonObject()
 					.put("state", app.getState())
 					.put("version", app.getVersion())
-					.put("retries", app.getRetryCount())
-					.put("mod_ts", Instant.now())
+					.put("retries", app.getRetryCount()).put("mod_ts", now)
 					.put("op_prfmd_ts", app.getTimestamp());
 
+			// Fields only written when the upsert creates the entry
+			JsonObject insertFields = new JsonObject()
+					.put("state_id", UUID.randomUUID().toString())
+					.put("ent_ts", now);
+
 			// If the state is COMPLETED, update the installedVersion as well
 			if (ApplicationState.COMPLETED == app.getState()) {
 				updateFields.put("installedVersion", app.getVersion());
+			} else {
+				insertFields.put("installedVersion", app.getVersion());
 			}
 
-			JsonObject update = new JsonObject().put("$set", updateFields);
-
-			// Define the options to return the document after updating
-			// Project thestate_id field
-			FindOptions findOptions = new FindOptions()
-					.setFields(new JsonObject().put("state_id", 1));
-			UpdateOptions updateOptions = new UpdateOptions()
-					.setReturningNewDocument(false);
-			// Return the updated document
-
-			// If the document exists, update it. If not, insert a new one.
-			dbClient.findOneAndUpdateWithOptions("app_states", query, update,
-					findOptions, updateOptions, res -> {
-						if (res.succeeded()) {
-							JsonObject updatedDoc = res.result();
-							if (updatedDoc != null) {
-								// Set the stateId from the existing entry
-								app.setStateId(
-										updatedDoc.getString("state_id"));
-								System.out.println(
-										"State updated for existing entry: "
-												+ app.getStateId());
-							} else {
-								// If no document is found, create a new one
-								String stateId = UUID.randomUUID().toString();
-								app.setStateId(stateId);
-								JsonObject newState = new JsonObject()
-										.put("state_id", stateId)
-										.put("app_id", app.getAppId())
-										.put("robot_id", app.getRobotId())
-										.put("state", app.getState())
-										.put("version", app.getVersion())
-										.put("installedVersion",
-												app.getVersion())
-										.put("retries", app.getRetryCount())
-										.put("ent_ts", Instant.now())
-										.put("mod_ts", Instant.now())
-										.put("op_prfmd_ts", app.getTimestamp());
-
-								dbClient.insert("app_states", newState,
-										insertRes -> {
-											if (insertRes.succeeded()) {
-												System.out.println(
-														"New state inserted with stateId: "
-																+ stateId);
-											} else {
-												promise.fail(
-														"Failed to insert new state: "
-																+ insertRes
-																		.cause()
-																		.getMessage());
-											}
-										});
-							}
-						} else {
-							promise.fail("Failed to update state: "
-									+ res.cause().getMessage());
-						}
-					});
+			JsonObject update = new JsonObject().put("$set", updateFields)
+					.put("$setOnInsert", insertFields);
+			operations.add(BulkOperation.createUpdate(query, update, true,
+					false));
 		}
 
-		promise.complete(appsStates);
-		return promise.future();
+		// Ordered, so several updates for the same app apply in sequence
+		return dbClient.bulkWrite("app_states", operations)
+				.compose(result -> resolveStateIds(appsStates))
+				.recover(err -> Future.failedFuture(
+						"Failed to update state: " + err.getMessage()));
+	}
+
+	// Upserts do not return the documents, read the state_ids of all
+	// entries back in one query.
+	private Future<List<UpdateAppStateRequest>> resolveStateIds(
+			List<UpdateAppStateRequest> appsStates) {
+		Set<String> keys = new HashSet<>();
+		JsonArray conditions = new JsonArray();
+		for (UpdateAppStateRequest app : appsStates) {
+			if (keys.add(stateKey(app.getAppId(), app.getRobotId()))) {
+				conditions.add(new JsonObject().put("app_id", app.getAppId())
+						.put("robot_id", app.getRobotId()));
+			}
+		}
+		JsonObject query = new JsonObject().put("$or", conditions);
+		FindOptions findOptions = new FindOptions()
+				.setFields(new JsonObject().put("state_id", 1)
+						.put("app_id", 1).put("robot_id", 1));
+
+		return dbClient.findWithOptions("app_states", query, findOptions)
+				.map(docs -> {
+					Map<String, String> stateIds = new HashMap<>();
+					for (JsonObject doc : docs) {
+						stateIds.put(stateKey(doc.getString("app_id"),
+								doc.getString("robot_id")),
+								doc.getString("state_id"));
+					}
+					for (UpdateAppStateRequest app : appsStates) {
+						app.setStateId(stateIds.get(
+								stateKey(app.getAppId(), app.getRobotId())));
+					}
+					return appsStates;
+				});
+	}
+
+	private static String stateKey(String appId, String robotId) {
+		return appId + '/' + robotId;
 	}
 
 	private Future<Void> updateLogs(List<UpdateAppStateRequest> updateApps) {
 		Promise<Void> promise = Promise.promise();
-		vertx.eventBus().request("log.insert", updateApps, reply -> {
-			if (reply.succeeded()) {
-				System.out.println("Log inserted.");
-				promise.complete();
-			} else {
-				System.out.println("Failure to insert log.");
-				reply.cause().printStackTrace();
-				promise.fail("Fail to insert Log.");
-			}
-		});
+		LocalRouting.request(vertx, "log.insert", updateApps,
+				DomainCodecs.stateList()).onComplete(reply -> {
+					if (reply.succeeded()) {
+						System.out.println("Log inserted.");
+						promise.complete();
+					} else {
+						System.out.println("Failure to insert log.");
+						reply.cause().printStackTrace();
+						promise.fail("Fail to insert Log.");
+					}
+				});
 		return promise.future();
 	}
 }
@@ -0,0 +1,103 @@
+package ai.miko.store.analytics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import ai.miko.store.domain.ApplicationState;
+import ai.miko.store.domain.UpdateAppStateRequest;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+
+@ExtendWith(VertxExtension.class)
+public class TestInstallMetrics {
+
+  @Test
+  void counts_concurrent_updates(Vertx vertx) throws Exception {
+    InstallMetrics metrics = InstallMetrics.shared(vertx);
+    assertSame(metrics, InstallMetrics.shared(vertx));
+
+    long now = 1_700_000_010_000L;
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      String version = t % 2 == 0 ? "1.0.1" : "1.0.2";
+      Thread thread = new Thread(() -> {
+        for (int i = 0; i < 1000; i++) {
+          UpdateAppStateRequest update = new UpdateAppStateRequest("1", "r" + i, version, 0,
+              i % 10 == 0 ? ApplicationState.ERROR : ApplicationState.COMPLETED, null,
+              Instant.ofEpochMilli(now - 3));
+          metrics.received(update, now);
+          metrics.written(update, 20);
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    JsonObject total = metrics.snapshot(null, null);
+    assertEquals(3600L, total.getJsonObject("states").getLong("COMPLETED"));
+    assertEquals(400L, total.getJsonObject("states").getLong("ERROR"));
+    assertEquals(4000L, total.getJsonObject("reportDelay").getLong("count"));
+    assertEquals(3L, total.getJsonObject("reportDelay").getLong("avgMs"));
+    // 20 ms lands in the bucket under 32 ms
+    assertEquals(32L, total.getJsonObject("writeLatency").getJsonArray("buckets")
+        .getJsonObject(0).getLong("underMs"));
+
+    assertEquals(4000L, metrics.snapshot("1", null).getJsonObject("writeLatency").getLong("count"));
+    assertEquals(200L, metrics.snapshot("1", "1.0.2").getJsonObject("states").getLong("ERROR"));
+    assertEquals(0L, metrics.snapshot("2", null).getJsonObject("states").getLong("ERROR"));
+  }
+
+  private static UpdateAppStateRequest update(ApplicationState state) {
+    return new UpdateAppStateRequest("1", "123", "1.0.1", 0, state, null, Instant.ofEpochMilli(1000));
+  }
+
+  @Test
+  void merges_the_snapshots_of_several_nodes() {
+    InstallMetrics first = new InstallMetrics();
+    InstallMetrics second = new InstallMetrics();
+    first.received(update(ApplicationState.COMPLETED), 1003);
+    first.written(update(ApplicationState.COMPLETED), 20);
+    second.received(update(ApplicationState.ERROR), 1100);
+    second.written(update(ApplicationState.ERROR), 40);
+
+    JsonObject merged = InstallMetrics.merge("1", null,
+        List.of(first.snapshot("1", null), second.snapshot("1", null)));
+    assertEquals(1L, merged.getJsonObject("states").getLong("COMPLETED"));
+    assertEquals(1L, merged.getJsonObject("states").getLong("ERROR"));
+    assertEquals(2L, merged.getJsonObject("writeLatency").getLong("count"));
+    assertEquals(30L, merged.getJsonObject("writeLatency").getLong("avgMs"));
+    // 3 ms and 100 ms, in the buckets under 4 and under 128 ms
+    assertEquals(List.of(4L, 128L), merged.getJsonObject("reportDelay").getJsonArray("buckets")
+        .stream().map(bucket -> ((JsonObject) bucket).getLong("underMs")).toList());
+    assertEquals("1", merged.getString("appId"));
+  }
+
+  @Test
+  void collects_from_the_state_nodes(Vertx vertx, VertxTestContext testContext) {
+    LiveMetrics.collect(vertx, null, null, 1000).compose(none -> {
+      testContext.verify(() -> assertEquals(0, none.getInteger("nodes")));
+      // Once per node, however many state verticles call it
+      LiveMetrics.serve(vertx);
+      LiveMetrics.serve(vertx);
+      InstallMetrics.shared(vertx).received(update(ApplicationState.COMPLETED), 1003);
+      return LiveMetrics.collect(vertx, null, null, 1000);
+    }).onComplete(testContext.succeeding(live -> testContext.verify(() -> {
+      assertEquals(1, live.getInteger("nodes"));
+      assertEquals(0, live.getInteger("unreachable"));
+      assertEquals(1L, live.getJsonObject("states").getLong("COMPLETED"));
+      testContext.completeNow();
+    })));
+  }
+}
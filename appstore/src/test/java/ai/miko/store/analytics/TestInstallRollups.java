@@ -0,0 +1,91 @@
+package ai.miko.store.analytics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.BulkOperation;
+import io.vertx.ext.mongo.BulkOperationType;
+
+public class TestInstallRollups {
+
+  private static JsonObject entry(String appId, String robotId, String version, String state,
+      int retries, long epochSecond) {
+    return new JsonObject().put("app_id", appId).put("robot_id", robotId).put("version", version)
+        .put("state", state).put("retries", retries)
+        .put("op_prfmd_ts", Instant.ofEpochSecond(epochSecond));
+  }
+
+  private static JsonObject increments(List<BulkOperation> operations, String id) {
+    for (BulkOperation operation : operations) {
+      if (id.equals(operation.getFilter().getString("_id"))) {
+        return operation.getDocument().getJsonObject("$inc");
+      }
+    }
+    return null;
+  }
+
+  @Test
+  void folds_a_batch_into_increments() {
+    JsonArray batch = new JsonArray()
+        .add(entry("1", "r1", "1.0.2", "SCHEDULED", 0, 1000))
+        .add(entry("1", "r1", "1.0.2", "ERROR", 1, 1003))
+        .add(entry("1", "r1", "1.0.2", "COMPLETED", 1, 1005))
+        .add(entry("1", "r2", "1.0.2", "COMPLETED", 0, 1010))
+        .add(entry("2", "r1", "2.0", "SCHEDULED", 0, 1000));
+    assertEquals(new JsonArray().add("1/r1").add("1/r2"), InstallRollups.completions(batch));
+
+    // r2 was scheduled in an earlier batch
+    InstallRollups rollups = new InstallRollups(
+        Map.of("1/r2", new JsonObject().put("_id", "1/r2").put("version", "1.0.2").put("ts", 970_000L)));
+    for (int i = 0; i < batch.size(); i++) {
+      rollups.add(batch.getJsonObject(i));
+    }
+
+    List<BulkOperation> operations = rollups.rollupOperations();
+    assertEquals(5, operations.size());
+    JsonObject version = increments(operations, "1/1.0.2");
+    assertEquals(1L, version.getLong("scheduled"));
+    assertEquals(2L, version.getLong("completed"));
+    assertEquals(1L, version.getLong("errors"));
+    assertEquals(1L, version.getLong("retries.0"));
+    assertEquals(1L, version.getLong("retries.1"));
+    assertEquals(45_000L, version.getLong("ttl_ms"));
+    assertEquals(1L, version.getLong("ttl.3"));
+    assertEquals(1L, version.getLong("ttl.6"));
+    assertEquals(2L, increments(operations, InstallRollups.ALL).getLong("scheduled"));
+
+    // 2/r1 is still in progress, both installs of app 1 are done
+    List<BulkOperation> starts = rollups.startOperations();
+    assertEquals(3, starts.size());
+    assertEquals(BulkOperationType.REPLACE, starts.get(0).getType());
+    assertEquals("2/r1", starts.get(0).getFilter().getString("_id"));
+    assertEquals(BulkOperationType.DELETE, starts.get(1).getType());
+  }
+
+  @Test
+  void summarises_a_rollup_document() {
+    JsonObject doc = new JsonObject().put("app_id", "1").put("version", "1.0.2")
+        .put("scheduled", 10).put("completed", 8).put("errors", 2)
+        .put("retries", new JsonObject().put("0", 7).put("1", 1))
+        .put("ttl_ms", 80_000L).put("ttl_count", 8)
+        .put("ttl", new JsonObject().put("3", 4).put("4", 3).put("6", 1));
+
+    JsonObject summary = InstallRollups.summary(doc);
+    assertEquals(0.8, summary.getDouble("successRate"));
+    assertEquals(0.2, summary.getDouble("failureRate"));
+    assertEquals(7, summary.getJsonObject("retries").getInteger("0"));
+    JsonObject timeToInstall = summary.getJsonObject("timeToInstall");
+    assertEquals(10_000L, timeToInstall.getLong("avgMs"));
+    assertEquals(8_000L, timeToInstall.getLong("p50Ms"));
+    assertEquals(64_000L, timeToInstall.getLong("p90Ms"));
+
+    assertEquals(0.0, InstallRollups.summary(new JsonObject()).getDouble("successRate"));
+  }
+}
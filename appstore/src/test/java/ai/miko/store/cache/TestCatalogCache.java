@@ -0,0 +1,152 @@
+package ai.miko.store.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.ext.mongo.MongoClient;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+
+@ExtendWith(VertxExtension.class)
+public class TestCatalogCache {
+
+  private final List<Handler<AsyncResult<List<JsonObject>>>> finds = new ArrayList<>();
+  private final List<ChangeStream> streams = new ArrayList<>();
+
+  // Only what the cache uses: find on "apps" and a change stream
+  @SuppressWarnings("unchecked")
+  private MongoClient mongo() {
+    return (MongoClient) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[] { MongoClient.class }, (proxy, method, args) -> {
+          switch (method.getName()) {
+          case "find":
+            finds.add((Handler<AsyncResult<List<JsonObject>>>) args[2]);
+            return proxy;
+          case "watch":
+            ChangeStream stream = new ChangeStream();
+            streams.add(stream);
+            return stream;
+          default:
+            throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  private static List<JsonObject> apps(String version) {
+    return List.of(new JsonObject().put("app_id", "1").put("name", "Chess")
+        .put("version", version).put("url", "http://cdn/1-" + version));
+  }
+
+  private static JsonObject config() {
+    return new JsonObject().put("catalog.change.debounce.ms", 10)
+        .put("catalog.change.retry.ms", 10);
+  }
+
+  @Test
+  void change_during_a_load_is_followed_by_another_load(Vertx vertx,
+      VertxTestContext testContext) {
+    vertx.getOrCreateContext().runOnContext(v -> {
+      CatalogCache cache = new CatalogCache(vertx, mongo(), config());
+      cache.start();
+      finds.get(0).handle(Future.succeededFuture(apps("1.0")));
+
+      // A periodic reload reads the catalog, then a release changes it
+      cache.reload();
+      streams.get(0).emit();
+      vertx.setTimer(100, id -> {
+        finds.get(1).handle(Future.succeededFuture(apps("1.0")));
+        testContext.verify(() -> assertEquals(3, finds.size()));
+        finds.get(2).handle(Future.succeededFuture(apps("1.1")));
+        testContext.verify(() -> {
+          assertEquals("1.1", cache.snapshot().latest("1").getVersion());
+          assertEquals(0L, cache.metrics().getLong("staleMs"));
+        });
+        cache.stop();
+        testContext.completeNow();
+      });
+    });
+  }
+
+  @Test
+  void closed_change_stream_is_watched_again(Vertx vertx, VertxTestContext testContext) {
+    vertx.getOrCreateContext().runOnContext(v -> {
+      CatalogCache cache = new CatalogCache(vertx, mongo(), config());
+      cache.start();
+      finds.get(0).handle(Future.succeededFuture(apps("1.0")));
+
+      streams.get(0).fail(new RuntimeException("Primary stepped down"));
+      testContext.verify(() -> assertEquals(false, cache.metrics().getBoolean("changeStream")));
+      vertx.setTimer(200, id -> {
+        testContext.verify(() -> {
+          assertEquals(2, streams.size());
+          assertEquals(true, cache.metrics().getBoolean("changeStream"));
+          // Changes made while the stream was down are picked up
+          assertEquals(2, finds.size());
+        });
+        cache.stop();
+        testContext.completeNow();
+      });
+    });
+  }
+
+  private static class ChangeStream implements ReadStream<ChangeStreamDocument<JsonObject>> {
+
+    private Handler<Throwable> exceptionHandler;
+    private Handler<ChangeStreamDocument<JsonObject>> handler;
+
+    void emit() {
+      handler.handle(null);
+    }
+
+    void fail(Throwable err) {
+      exceptionHandler.handle(err);
+    }
+
+    @Override
+    public ReadStream<ChangeStreamDocument<JsonObject>> exceptionHandler(Handler<Throwable> handler) {
+      this.exceptionHandler = handler;
+      return this;
+    }
+
+    @Override
+    public ReadStream<ChangeStreamDocument<JsonObject>> handler(
+        Handler<ChangeStreamDocument<JsonObject>> handler) {
+      this.handler = handler;
+      return this;
+    }
+
+    @Override
+    public ReadStream<ChangeStreamDocument<JsonObject>> pause() {
+      return this;
+    }
+
+    @Override
+    public ReadStream<ChangeStreamDocument<JsonObject>> resume() {
+      return this;
+    }
+
+    @Override
+    public ReadStream<ChangeStreamDocument<JsonObject>> fetch(long amount) {
+      return this;
+    }
+
+    @Override
+    public ReadStream<ChangeStreamDocument<JsonObject>> endHandler(Handler<Void> endHandler) {
+      return this;
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package ai.miko.store.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import ai.miko.store.domain.Application;
+import ai.miko.store.domain.FetchAppsRequest.InstalledApp;
+import ai.miko.store.domain.Patch;
+
+public class TestCatalogIndex {
+
+  private final CatalogIndex index = CatalogIndex.of(List.of(
+      new Application("1", "Chess", "1.0.1", "http://cdn/1-1.0.1"),
+      new Application("1", "Chess", "1.0.10", "http://cdn/1-1.0.10"),
+      new Application("1", "Chess", "1.0.2", "http://cdn/1-1.0.2"),
+      new Application("2", "Music", "2.0", "http://cdn/2-2.0")));
+
+  @Test
+  void versions_are_ordered_numerically() {
+    assertEquals("1.0.10", index.latest("1").getVersion());
+    assertEquals(List.of("1.0.1", "1.0.2", "1.0.10"),
+        index.versions("1").stream().map(Application::getVersion).toList());
+  }
+
+  @Test
+  void delta_returns_latest_of_missing_and_outdated_apps() {
+    List<Application> apps = index.delta(List.of(new InstalledApp("1", "1.0.2")));
+    assertEquals(2, apps.size());
+    assertEquals("1.0.10", apps.get(0).getVersion());
+    assertEquals("2", apps.get(1).getAppId());
+  }
+
+  @Test
+  void delta_pages_in_app_id_order() {
+    List<Application> first = index.delta(List.of(), null, 1);
+    assertEquals(List.of("1"), first.stream().map(Application::getAppId).toList());
+    List<Application> second = index.delta(List.of(), "1", 1);
+    assertEquals(List.of("2"), second.stream().map(Application::getAppId).toList());
+    assertTrue(index.delta(List.of(), "2", 1).isEmpty());
+  }
+
+  @Test
+  void delta_is_empty_when_up_to_date() {
+    assertTrue(index.delta(List.of(new InstalledApp("1", "1.0.10"),
+        new InstalledApp("2", "2.0"))).isEmpty());
+  }
+
+  @Test
+  void installed_version_newer_than_catalog_is_not_downgraded() {
+    List<Application> apps = index.delta(List.of(new InstalledApp("2", "2.1")));
+    assertEquals(1, apps.size());
+    assertEquals("1", apps.get(0).getAppId());
+  }
+
+  @Test
+  void revision_moves_only_when_content_changes() {
+    CatalogIndex same = CatalogIndex.of(List.of(
+        new Application("2", "Music", "2.0", "http://cdn/2-2.0"),
+        new Application("1", "Chess", "1.0.2", "http://cdn/1-1.0.2"),
+        new Application("1", "Chess", "1.0.10", "http://cdn/1-1.0.10"),
+        new Application("1", "Chess", "1.0.1", "http://cdn/1-1.0.1")), index);
+    assertEquals(index.revision(), same.revision());
+
+    CatalogIndex changed = CatalogIndex.of(List.of(
+        new Application("1", "Chess", "1.0.11", "http://cdn/1-1.0.11")), same);
+    assertEquals(index.revision() + 1, changed.revision());
+  }
+
+  @Test
+  void revision_moves_when_any_sent_field_changes() {
+    List<Application> apps = List.of(new Application("1", "Chess", "1.0.2", "http://cdn/1-1.0.2"));
+    CatalogIndex before = CatalogIndex.of(apps);
+
+    CatalogIndex renamed = CatalogIndex.of(
+        List.of(new Application("1", "Chess Pro", "1.0.2", "http://cdn/1-1.0.2")), before);
+    assertEquals(before.revision() + 1, renamed.revision());
+
+    Application patched = new Application("1", "Chess", "1.0.2", "http://cdn/1-1.0.2");
+    patched.setPatches(List.of(new Patch("1.0.1", "http://cdn/1-1.0.1-1.0.2.patch", 100)));
+    CatalogIndex withPatch = CatalogIndex.of(List.of(patched), before);
+    assertEquals(before.revision() + 1, withPatch.revision());
+
+    Application resized = new Application("1", "Chess", "1.0.2", "http://cdn/1-1.0.2");
+    resized.setPatches(List.of(new Patch("1.0.1", "http://cdn/1-1.0.1-1.0.2.patch", 120)));
+    assertEquals(withPatch.revision() + 1, CatalogIndex.of(List.of(resized), withPatch).revision());
+    assertEquals(before.revision(), CatalogIndex.of(apps, before).revision());
+  }
+
+  @Test
+  void tag_ignores_installed_order() {
+    List<InstalledApp> installed = List.of(new InstalledApp("1", "1.0.1"),
+        new InstalledApp("2", "2.0"));
+    assertEquals(index.tag(installed), index.tag(List.of(installed.get(1), installed.get(0))));
+    assertNotEquals(index.tag(installed), index.tag(List.of(new InstalledApp("1", "1.0.2"))));
+  }
+
+  @Test
+  void tag_is_the_same_on_every_node() {
+    CatalogIndex otherNode = CatalogIndex.of(List.of(
+        new Application("1", "Chess", "1.0.1", "http://cdn/1-1.0.1"),
+        new Application("1", "Chess", "1.0.10", "http://cdn/1-1.0.10"),
+        new Application("1", "Chess", "1.0.2", "http://cdn/1-1.0.2"),
+        new Application("2", "Music", "2.0", "http://cdn/2-2.0")), CatalogIndex.of(List.of()));
+    List<InstalledApp> installed = List.of(new InstalledApp("1", "1.0.1"));
+    assertNotEquals(index.revision(), otherNode.revision());
+    assertEquals(index.tag(installed), otherNode.tag(installed));
+  }
+
+  @Test
+  void delta_advertises_the_patch_from_the_installed_version() {
+    Application latest = new Application("1", "Chess", "1.0.2", "http://cdn/1-1.0.2");
+    latest.setPatches(List.of(new Patch("1.0.1", "http://store/patches/1/1.0.1-1.0.2.patch", 42)));
+    CatalogIndex patched = CatalogIndex.of(List.of(
+        new Application("1", "Chess", "1.0.1", "http://cdn/1-1.0.1"), latest));
+
+    Application update = patched.delta(List.of(new InstalledApp("1", "1.0.1"))).get(0);
+    assertEquals("http://store/patches/1/1.0.1-1.0.2.patch", update.getPatchUrl());
+    assertEquals(42L, update.getPatchSize());
+    assertNull(latest.getPatchUrl());
+
+    assertNull(patched.delta(List.of(new InstalledApp("1", "1.0.0"))).get(0).getPatchUrl());
+    assertNull(patched.delta(List.of()).get(0).getPatchUrl());
+  }
+}
@@ -0,0 +1,113 @@
+package ai.miko.store.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.JoinConfig;
+
+import ai.miko.store.codec.DomainCodecs;
+import ai.miko.store.domain.ApplicationState;
+import ai.miko.store.domain.UpdateAppStateRequest;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.junit5.VertxTestContext;
+import io.vertx.spi.cluster.hazelcast.ConfigUtil;
+import io.vertx.spi.cluster.hazelcast.HazelcastClusterManager;
+
+public class TestLocalRouting {
+
+  private final List<Vertx> nodes = new ArrayList<>();
+
+  // A clustered node that only looks for its peers on localhost
+  private Future<Vertx> node(String clusterName) {
+    Config config = ConfigUtil.loadConfig().setClusterName(clusterName);
+    config.getNetworkConfig().getInterfaces().setEnabled(true).addInterface("127.0.0.1");
+    JoinConfig join = config.getNetworkConfig().getJoin();
+    join.getMulticastConfig().setEnabled(false);
+    join.getTcpIpConfig().setEnabled(true).addMember("127.0.0.1");
+    VertxOptions options = new VertxOptions().setClusterManager(new HazelcastClusterManager(config));
+    options.getEventBusOptions().setHost("127.0.0.1");
+    return Vertx.clusteredVertx(options).onSuccess(vertx -> {
+      nodes.add(vertx);
+      DomainCodecs.register(vertx.eventBus());
+    });
+  }
+
+  // Resolves once the consumer is known to the whole cluster. Vert.x 4.5
+  // only reports that through completionHandler, completion() is 5.x API.
+  private static Future<Void> logWriter(Vertx vertx, String name) {
+    Promise<Void> registered = Promise.promise();
+    LocalRouting.<List<UpdateAppStateRequest>>consumer(vertx, "log.insert",
+        message -> message.reply(name + " " + message.body().get(0).getAppId()))
+        .completionHandler(registered);
+    return registered.future();
+  }
+
+  private static Future<List<String>> ask(Vertx vertx, String address, Object body, int times) {
+    List<Future<Message<String>>> replies = new ArrayList<>();
+    for (int i = 0; i < times; i++) {
+      replies.add(LocalRouting.request(vertx, address, body, DomainCodecs.stateList()));
+    }
+    return Future.all(replies).map(all -> {
+      List<String> nodes = new ArrayList<>();
+      for (Future<Message<String>> reply : replies) {
+        nodes.add(reply.result().body());
+      }
+      return nodes;
+    });
+  }
+
+  @AfterEach
+  void close() throws Exception {
+    for (Vertx vertx : nodes) {
+      vertx.close().toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  @Timeout(value = 2, unit = TimeUnit.MINUTES)
+  void prefers_the_local_consumer_and_falls_back_to_the_cluster() throws Throwable {
+    VertxTestContext testContext = new VertxTestContext();
+    String clusterName = "appstore-" + UUID.randomUUID();
+    List<UpdateAppStateRequest> batch = List.of(
+        new UpdateAppStateRequest("1", "123", "1.0", 0, ApplicationState.COMPLETED, null, Instant.now()));
+
+    Future.all(node(clusterName), node(clusterName)).compose(started -> {
+      Vertx front = started.resultAt(0);
+      Vertx writer = started.resultAt(1);
+      // Only the writer node runs a log writer at first
+      return logWriter(writer, "writer")
+          .compose(v -> ask(front, "log.insert", batch, 10))
+          .compose(remote -> {
+            testContext.verify(() -> assertEquals(List.of("writer 1"), remote.stream().distinct().toList()));
+            return logWriter(front, "front");
+          })
+          .compose(v -> Future.all(ask(front, "log.insert", batch, 10), ask(writer, "log.insert", batch, 10)));
+    }).onComplete(testContext.succeeding(all -> testContext.verify(() -> {
+      // Both nodes have a consumer now, neither sends over the network
+      assertEquals(List.of("front 1"), all.<List<String>>resultAt(0).stream().distinct().toList());
+      assertEquals(List.of("writer 1"), all.<List<String>>resultAt(1).stream().distinct().toList());
+      testContext.completeNow();
+    })));
+
+    testContext.awaitCompletion(90, TimeUnit.SECONDS);
+    if (testContext.failed()) {
+      throw testContext.causeOfFailure();
+    }
+    assertTrue(testContext.completed());
+  }
+}
@@ -0,0 +1,82 @@
+package ai.miko.store.codec;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import ai.miko.store.domain.Application;
+import ai.miko.store.domain.ApplicationState;
+import ai.miko.store.domain.UpdateAppStateRequest;
+import ai.miko.store.domain.UpdateApps;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.jackson.DatabindCodec;
+
+// Compares the domain codecs with the Json.encode/decodeValue round trip the
+// services used before. Not a unit test, run it from the test classpath:
+// java -cp target/test-classes:target/classes:<deps> ai.miko.store.codec.CodecBenchmark
+public class CodecBenchmark {
+
+	private static final int WARMUP = 20_000;
+	private static final int ITERATIONS = 100_000;
+
+	private static volatile Object sink;
+
+	public static void main(String[] args) {
+		DatabindCodec.mapper()
+				.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+				.registerModule(new JavaTimeModule());
+
+		List<Application> apps = new ArrayList<>();
+		List<UpdateAppStateRequest> states = new ArrayList<>();
+		for (int i = 0; i < 30; i++) {
+			apps.add(new Application(String.valueOf(i), "App " + i,
+					"1.0." + i, "https://cdn.miko.ai/apps/" + i + ".bin"));
+			states.add(new UpdateAppStateRequest(String.valueOf(i), "123",
+					"1.0." + i, 0, ApplicationState.SCHEDULED, null,
+					Instant.now()));
+		}
+		UpdateApps updateApps = new UpdateApps("123", apps);
+
+		UpdateAppsCodec appsCodec = new UpdateAppsCodec();
+		UpdateAppStateRequestListCodec statesCodec = new UpdateAppStateRequestListCodec();
+
+		run("UpdateApps local transform", () -> appsCodec.transform(updateApps));
+		run("UpdateApps binary wire", () -> {
+			Buffer buffer = Buffer.buffer(2048);
+			appsCodec.encodeToWire(buffer, updateApps);
+			return appsCodec.decodeFromWire(0, buffer);
+		});
+		run("UpdateApps json", () -> Json
+				.decodeValue(Json.encode(updateApps), UpdateApps.class));
+		run("List<UpdateAppStateRequest> binary wire", () -> {
+			Buffer buffer = Buffer.buffer(2048);
+			statesCodec.encodeToWire(buffer, states);
+			return statesCodec.decodeFromWire(0, buffer);
+		});
+		run("List<UpdateAppStateRequest> json", () -> Json.decodeValue(
+				Json.encode(states), UpdateAppStateRequest[].class));
+
+		Buffer binary = Buffer.buffer();
+		appsCodec.encodeToWire(binary, updateApps);
+		System.out.printf("UpdateApps size: binary %d bytes, json %d bytes%n",
+				binary.length(), Json.encode(updateApps).length());
+	}
+
+	private static void run(String name,
+			java.util.function.Supplier<Object> operation) {
+		for (int i = 0; i < WARMUP; i++) {
+			sink = operation.get();
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			sink = operation.get();
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.printf("%-42s %10.1f ns/op%n", name,
+				(double) elapsed / ITERATIONS);
+	}
+}
@@ -0,0 +1,82 @@
+package ai.miko.store.codec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.time.Instant;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import ai.miko.store.domain.AnalyticsRequest;
+import ai.miko.store.domain.Application;
+import ai.miko.store.domain.ApplicationState;
+import ai.miko.store.domain.FetchAppsRequest;
+import ai.miko.store.domain.FetchAppsRequest.InstalledApp;
+import ai.miko.store.domain.UpdateAppStateRequest;
+import ai.miko.store.domain.UpdateApps;
+import io.vertx.core.buffer.Buffer;
+
+public class TestDomainCodecs {
+
+  private static <T> T roundTrip(DomainCodec<T> codec, T value) {
+    Buffer buffer = Buffer.buffer().appendString("header");
+    codec.encodeToWire(buffer, value);
+    return codec.decodeFromWire(6, buffer);
+  }
+
+  @Test
+  void local_delivery_passes_the_reference() {
+    UpdateApps updateApps = new UpdateApps("123", List.of());
+    assertSame(updateApps, new UpdateAppsCodec().transform(updateApps));
+  }
+
+  @Test
+  void update_apps_round_trip() {
+    Application app = new Application("1", "Chess", "1.0.2", "http://cdn/1");
+    app.setState(ApplicationState.SCHEDULED);
+    UpdateApps decoded = roundTrip(new UpdateAppsCodec(),
+        new UpdateApps("123", List.of(app, new Application("2", null, "2.0", null))));
+
+    assertEquals("123", decoded.getRobotId());
+    assertEquals(2, decoded.getApplications().size());
+    assertEquals(app, decoded.getApplications().get(0));
+    assertEquals(ApplicationState.SCHEDULED, decoded.getApplications().get(0).getState());
+    assertNull(decoded.getApplications().get(1).getName());
+  }
+
+  @Test
+  void fetch_request_round_trip() {
+    FetchAppsRequest decoded = roundTrip(new FetchAppsRequestCodec(),
+        new FetchAppsRequest("123", List.of(new InstalledApp("1", "1.0.1"))));
+
+    assertEquals("123", decoded.getRobotId());
+    assertEquals("1.0.1", decoded.getInstalledApps().get(0).getVersion());
+    assertNull(roundTrip(new FetchAppsRequestCodec(), new FetchAppsRequest()).getInstalledApps());
+  }
+
+  @Test
+  void state_request_list_round_trip() {
+    UpdateAppStateRequest request = new UpdateAppStateRequest("1", "123", "1.0.2", 2,
+        ApplicationState.ERROR, "Download failed", Instant.ofEpochSecond(1700000000, 42));
+    request.setStateId("state-1");
+
+    List<UpdateAppStateRequest> decoded = roundTrip(new UpdateAppStateRequestListCodec(),
+        List.of(request, new UpdateAppStateRequest()));
+
+    assertEquals(request, decoded.get(0));
+    assertEquals("1.0.2", decoded.get(0).getVersion());
+    assertEquals("state-1", decoded.get(0).getStateId());
+    assertNull(decoded.get(1).getTimestamp());
+  }
+
+  @Test
+  void analytics_request_round_trip() {
+    AnalyticsRequest decoded = roundTrip(new AnalyticsRequestCodec(), new AnalyticsRequest("1", null, 5));
+
+    assertEquals("1", decoded.getAppId());
+    assertNull(decoded.getVersion());
+    assertEquals(5, decoded.getLimit());
+  }
+}
@@ -0,0 +1,53 @@
+package ai.miko.store.dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+public class TestIndexManager {
+
+  @Test
+  void finds_collection_scans_in_winning_plans() {
+    JsonObject indexed = new JsonObject().put("stage", "FETCH")
+        .put("inputStage", new JsonObject().put("stage", "IXSCAN").put("indexName", "app_id_1_robot_id_1"));
+    JsonObject sortedScan = new JsonObject().put("stage", "SORT")
+        .put("inputStage", new JsonObject().put("stage", "COLLSCAN"));
+    // Slot based engine layout, the stages sit under queryPlan
+    JsonObject sbe = new JsonObject().put("queryPlan", new JsonObject().put("stage", "OR")
+        .put("inputStages", new JsonArray().add(indexed).add(new JsonObject().put("stage", "COLLSCAN"))));
+
+    assertFalse(IndexManager.scansCollection(indexed));
+    assertTrue(IndexManager.scansCollection(sortedScan));
+    assertTrue(IndexManager.scansCollection(sbe));
+    assertFalse(IndexManager.scansCollection(new JsonObject().put("stage", "EOF")));
+  }
+
+  @Test
+  void matches_index_keys_in_order() {
+    JsonObject declared = new JsonObject().put("app_id", 1).put("robot_id", 1);
+
+    assertTrue(IndexManager.sameKeys(declared, new JsonObject().put("app_id", 1.0).put("robot_id", 1)));
+    assertFalse(IndexManager.sameKeys(declared, new JsonObject().put("robot_id", 1).put("app_id", 1)));
+    assertFalse(IndexManager.sameKeys(declared, new JsonObject().put("app_id", 1)));
+    assertFalse(IndexManager.sameKeys(declared, new JsonObject().put("app_id", 1).put("robot_id", -1)));
+  }
+
+  @Test
+  void requires_the_declared_unique_flag() {
+    JsonObject keys = new JsonObject().put("app_id", 1).put("robot_id", 1);
+    JsonObject id = new JsonObject().put("key", new JsonObject().put("_id", 1)).put("name", "_id_");
+    JsonObject plain = new JsonObject().put("key", keys.copy()).put("name", "app_id_1_robot_id_1");
+    JsonObject unique = plain.copy().put("unique", true);
+
+    assertNull(IndexManager.problem(new JsonArray().add(id).add(unique), keys, true));
+    assertEquals("exists without unique", IndexManager.problem(new JsonArray().add(id).add(plain), keys, true));
+    assertEquals(IndexManager.MISSING, IndexManager.problem(new JsonArray().add(id), keys, true));
+    assertNull(IndexManager.problem(new JsonArray().add(unique), keys, false));
+  }
+}
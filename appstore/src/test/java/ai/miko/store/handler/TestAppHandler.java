@@ -0,0 +1,118 @@
+package ai.miko.store.handler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import ai.miko.store.codec.DomainCodecs;
+import ai.miko.store.domain.Application;
+import ai.miko.store.domain.FetchAppsRequest;
+import ai.miko.store.domain.UpdateApps;
+import ai.miko.store.verticle.AppManagementVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.Json;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.handler.BodyHandler;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+
+@ExtendWith(VertxExtension.class)
+public class TestAppHandler {
+
+  private static List<Application> catalog(int size) {
+    List<Application> apps = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      Application app = new Application(String.format("%05d", i), "App " + i, "1.0", "http://cdn/" + i);
+      app.setChecksum("x".repeat(64));
+      apps.add(app);
+    }
+    return apps;
+  }
+
+  private static Future<Buffer> post(HttpClient client, int port, String uri) {
+    return client.request(HttpMethod.POST, port, "localhost", uri)
+        .compose(req -> req.send(Json.encode(new FetchAppsRequest("123", List.of()))))
+        .compose(resp -> resp.body());
+  }
+
+  @Test
+  void pages_and_streams_the_delta(Vertx vertx, VertxTestContext testContext) {
+    DomainCodecs.register(vertx.eventBus());
+    List<Application> apps = catalog(5000);
+    // Stand-in for the AppManagementVerticle, pages are only told by the cursor
+    vertx.eventBus().<FetchAppsRequest>consumer("app.fetch", message -> {
+      String limit = message.headers().get(AppManagementVerticle.LIMIT);
+      UpdateApps updateApps = new UpdateApps();
+      if (limit == null) {
+        updateApps.setApplications(apps);
+      } else {
+        int from = message.headers().contains(AppManagementVerticle.CURSOR) ? 2 : 0;
+        updateApps.setApplications(apps.subList(from, from + Integer.parseInt(limit)));
+        updateApps.setNextCursor(from == 0 ? "page-2" : null);
+      }
+      message.reply(updateApps, new DeliveryOptions().addHeader(AppManagementVerticle.ETAG, "\"1\""));
+    });
+
+    Router router = Router.router(vertx);
+    router.route().handler(BodyHandler.create());
+    router.post("/api/apps").handler(new AppHandler(vertx));
+    vertx.createHttpServer().requestHandler(router).listen(0).compose(server -> {
+      HttpClient client = vertx.createHttpClient();
+      int port = server.actualPort();
+      return Future.all(post(client, port, "/api/apps"), post(client, port, "/api/apps?stream=true"),
+          post(client, port, "/api/apps?limit=2&stream=true"),
+          post(client, port, "/api/apps?limit=2&cursor=page-2"));
+    }).onComplete(testContext.succeeding(all -> testContext.verify(() -> {
+      Buffer whole = all.resultAt(0);
+      Buffer streamed = all.resultAt(1);
+      assertEquals(whole, streamed);
+      assertEquals(5000, Json.decodeValue(streamed, UpdateApps.class).getApplications().size());
+
+      UpdateApps first = Json.decodeValue((Buffer) all.resultAt(2), UpdateApps.class);
+      assertEquals(List.of(apps.get(0), apps.get(1)), first.getApplications());
+      assertEquals("page-2", first.getNextCursor());
+      UpdateApps second = Json.decodeValue((Buffer) all.resultAt(3), UpdateApps.class);
+      assertEquals(apps.get(2), second.getApplications().get(0));
+      assertNull(second.getNextCursor());
+      testContext.completeNow();
+    })));
+  }
+
+  @Test
+  void streams_the_same_document_as_json_encode(Vertx vertx, VertxTestContext testContext) {
+    UpdateApps lastPage = new UpdateApps("123", catalog(3));
+    UpdateApps firstPage = new UpdateApps("123", catalog(2));
+    firstPage.setNextCursor("page-2");
+    UpdateApps noRobot = new UpdateApps(null, catalog(1));
+    UpdateApps empty = new UpdateApps("123", List.of());
+    List<UpdateApps> replies = List.of(lastPage, firstPage, noRobot, empty);
+
+    vertx.createHttpServer()
+        .requestHandler(req -> AppHandler.stream(replies.get(Integer.parseInt(req.path().substring(1))),
+            req.response()))
+        .listen(0).compose(server -> {
+          HttpClient client = vertx.createHttpClient();
+          List<Future<Buffer>> bodies = new ArrayList<>();
+          for (int i = 0; i < replies.size(); i++) {
+            bodies.add(client.request(HttpMethod.GET, server.actualPort(), "localhost", "/" + i)
+                .compose(req -> req.send()).compose(resp -> resp.body()));
+          }
+          return Future.all(bodies);
+        }).onComplete(testContext.succeeding(all -> testContext.verify(() -> {
+          for (int i = 0; i < replies.size(); i++) {
+            assertEquals(Json.encode(replies.get(i)), all.<Buffer>resultAt(i).toString());
+          }
+          testContext.completeNow();
+        })));
+  }
+}
@@ -0,0 +1,179 @@
+package ai.miko.store.handler;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+
+import ai.miko.store.verticle.ArtifactVerticle;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.RequestOptions;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.Router;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+
+@ExtendWith(VertxExtension.class)
+public class TestArtifactProxyHandler {
+
+  @Test
+  void concurrent_misses_share_one_origin_transfer(Vertx vertx, VertxTestContext testContext,
+      @TempDir Path dir) {
+    byte[] content = new byte[100 * 1024];
+    new Random(5).nextBytes(content);
+    AtomicInteger originRequests = new AtomicInteger();
+
+    Future<Integer> origin = vertx.createHttpServer().requestHandler(req -> {
+      originRequests.incrementAndGet();
+      // Slow origin, every robot request arrives while the first one is in flight
+      vertx.setTimer(100, id -> req.response().end(Buffer.buffer(content)));
+    }).listen(0).map(server -> server.actualPort());
+
+    origin.compose(originPort -> {
+      vertx.eventBus().<JsonObject>consumer(ArtifactVerticle.ORIGIN, message -> {
+        if (message.body().getString("version").equals("1.0.0")) {
+          message.reply(new JsonObject().put("url", "http://localhost:" + originPort + "/1.bin"));
+        } else {
+          message.fail(404, "Unknown artifact");
+        }
+      });
+      return vertx.deployVerticle(new ArtifactVerticle(), new DeploymentOptions()
+          .setConfig(new JsonObject().put("artifact.cache.dir", dir.toString())));
+    }).compose(id -> {
+      Router router = Router.router(vertx);
+      router.get("/api/artifacts/:appId/:version").handler(new ArtifactProxyHandler(vertx, new JsonObject()));
+      return vertx.createHttpServer().requestHandler(router).listen(0);
+    }).compose(server -> {
+      HttpClient client = vertx.createHttpClient();
+      String uri = "http://localhost:" + server.actualPort() + "/api/artifacts/1/1.0.0";
+      Future<Buffer> first = get(client, uri, null, 200);
+      Future<Buffer> second = get(client, uri, null, 200);
+      Future<Buffer> third = get(client, uri, null, 200);
+      return Future.all(first, second, third)
+          .compose(v -> get(client, uri, "bytes=1000-", 206).map(ranged -> {
+            testContext.verify(() -> {
+              assertArrayEquals(content, first.result().getBytes());
+              assertArrayEquals(content, third.result().getBytes());
+              assertArrayEquals(Arrays.copyOfRange(content, 1000, content.length),
+                  ranged.getBytes());
+            });
+            return null;
+          }))
+          .compose(v -> get(client, uri.replace("1.0.0", "9.9.9"), null, 404));
+    }).onComplete(testContext.succeeding(v -> testContext.verify(() -> {
+      assertEquals(1, originRequests.get());
+      testContext.completeNow();
+    })));
+  }
+
+  @Test
+  void a_timed_out_fetch_keeps_the_origin_transfer_going(Vertx vertx, VertxTestContext testContext,
+      @TempDir Path dir) {
+    byte[] content = new byte[10 * 1024];
+    new Random(7).nextBytes(content);
+    AtomicInteger originRequests = new AtomicInteger();
+
+    vertx.createHttpServer().requestHandler(req -> {
+      originRequests.incrementAndGet();
+      vertx.setTimer(600, id -> req.response().end(Buffer.buffer(content)));
+    }).listen(0).compose(origin -> {
+      vertx.eventBus().<JsonObject>consumer(ArtifactVerticle.ORIGIN, message -> message
+          .reply(new JsonObject().put("url", "http://localhost:" + origin.actualPort() + "/1.bin")));
+      return vertx.deployVerticle(new ArtifactVerticle(), new DeploymentOptions()
+          .setConfig(new JsonObject().put("artifact.cache.dir", dir.toString())));
+    }).compose(id -> {
+      Router router = Router.router(vertx);
+      router.get("/api/artifacts/:appId/:version").handler(new ArtifactProxyHandler(vertx,
+          new JsonObject().put("artifact.fetch.timeout.ms", 200)));
+      return vertx.createHttpServer().requestHandler(router).listen(0);
+    }).compose(server -> {
+      HttpClient client = vertx.createHttpClient();
+      String uri = "http://localhost:" + server.actualPort() + "/api/artifacts/1/1.0.0";
+      // The retry finds what the timed out request left behind
+      return get(client, uri, null, 504).compose(v -> Future.<Void>future(
+          promise -> vertx.setTimer(800, id -> promise.complete())))
+          .compose(v -> get(client, uri, null, 200));
+    }).onComplete(testContext.succeeding(body -> testContext.verify(() -> {
+      assertArrayEquals(content, body.getBytes());
+      assertEquals(1, originRequests.get());
+      testContext.completeNow();
+    })));
+  }
+
+  @Test
+  void an_origin_stalling_mid_body_fails_the_shared_fetch(Vertx vertx, VertxTestContext testContext,
+      @TempDir Path dir) {
+    byte[] content = new byte[64 * 1024];
+    new Random(11).nextBytes(content);
+    AtomicInteger originRequests = new AtomicInteger();
+
+    vertx.createHttpServer().requestHandler(req -> {
+      if (originRequests.incrementAndGet() == 1) {
+        // Half the body, then nothing more, the connection stays open
+        req.response().putHeader("content-length", String.valueOf(content.length))
+            .write(Buffer.buffer(Arrays.copyOf(content, content.length / 2)));
+      } else {
+        req.response().end(Buffer.buffer(content));
+      }
+    }).listen(0).compose(origin -> {
+      vertx.eventBus().<JsonObject>consumer(ArtifactVerticle.ORIGIN, message -> message
+          .reply(new JsonObject().put("url", "http://localhost:" + origin.actualPort() + "/1.bin")));
+      return vertx.deployVerticle(new ArtifactVerticle(), new DeploymentOptions()
+          .setConfig(new JsonObject().put("artifact.cache.dir", dir.toString())
+              .put("artifact.origin.idle.timeout.ms", 300)));
+    }).compose(id -> {
+      Router router = Router.router(vertx);
+      router.get("/api/artifacts/:appId/:version").handler(new ArtifactProxyHandler(vertx, new JsonObject()));
+      return vertx.createHttpServer().requestHandler(router).listen(0);
+    }).compose(server -> {
+      HttpClient client = vertx.createHttpClient();
+      String uri = "http://localhost:" + server.actualPort() + "/api/artifacts/1/1.0.0";
+      // Both robots wait on the stalled transfer and both are told
+      return Future.all(get(client, uri, null, 502), get(client, uri, null, 502))
+          .compose(v -> vertx.eventBus().<JsonObject>request(ArtifactVerticle.METRICS, null))
+          .compose(metrics -> {
+            testContext.verify(() -> assertEquals(0, metrics.body().getInteger("fetching")));
+            return get(client, uri, null, 200);
+          });
+    }).onComplete(testContext.succeeding(body -> testContext.verify(() -> {
+      assertArrayEquals(content, body.getBytes());
+      assertEquals(2, originRequests.get());
+      testContext.completeNow();
+    })));
+  }
+
+  @Test
+  void parses_single_byte_ranges() {
+    assertArrayEquals(new long[] { 10, 99 }, ArtifactProxyHandler.parseRange("bytes=10-", 100));
+    assertArrayEquals(new long[] { 10, 19 }, ArtifactProxyHandler.parseRange("bytes=10-19", 100));
+    assertArrayEquals(new long[] { 90, 99 }, ArtifactProxyHandler.parseRange("bytes=-10", 100));
+    assertArrayEquals(new long[] { 0, 99 }, ArtifactProxyHandler.parseRange("bytes=0-500", 100));
+    assertNull(ArtifactProxyHandler.parseRange("bytes=100-", 100));
+    assertNull(ArtifactProxyHandler.parseRange("bytes=0-1,5-6", 100));
+    assertNull(ArtifactProxyHandler.parseRange("items=0-1", 100));
+  }
+
+  private static Future<Buffer> get(HttpClient client, String uri, String range, int status) {
+    RequestOptions options = new RequestOptions().setMethod(HttpMethod.GET).setAbsoluteURI(uri);
+    if (range != null) {
+      options.putHeader("Range", range);
+    }
+    return client.request(options).compose(req -> req.send()).compose(response -> {
+      assertEquals(status, response.statusCode());
+      return response.body();
+    });
+  }
+}
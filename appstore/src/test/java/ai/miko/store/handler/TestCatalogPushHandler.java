@@ -0,0 +1,92 @@
+package ai.miko.store.handler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import ai.miko.store.cache.CatalogCache;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.ServerWebSocket;
+import io.vertx.core.http.WebSocketClient;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.Router;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+
+@ExtendWith(VertxExtension.class)
+public class TestCatalogPushHandler {
+
+  // A connected robot, writeQueueFull when it stopped reading
+  private static ServerWebSocket socket(boolean writeQueueFull, List<String> frames) {
+    return (ServerWebSocket) Proxy.newProxyInstance(TestCatalogPushHandler.class.getClassLoader(),
+        new Class<?>[] { ServerWebSocket.class }, (proxy, method, args) -> {
+          switch (method.getName()) {
+          case "writeQueueFull":
+            return writeQueueFull;
+          case "writeTextMessage":
+            frames.add((String) args[0]);
+            return null;
+          case "hashCode":
+            return System.identityHashCode(proxy);
+          case "equals":
+            return proxy == args[0];
+          case "closeHandler":
+          case "exceptionHandler":
+          case "handler":
+            return proxy;
+          default:
+            throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  private static JsonObject change(long revision, long fingerprint) {
+    return new JsonObject().put("revision", revision).put("fingerprint", fingerprint);
+  }
+
+  @Test
+  void change_is_pushed_to_connected_robots(Vertx vertx, VertxTestContext testContext) {
+    Router router = Router.router(vertx);
+    router.get("/api/catalog/ws").handler(new CatalogPushHandler(vertx,
+        new JsonObject().put("catalog.push.spread.ms", 5000L)));
+    WebSocketClient client = vertx.createWebSocketClient();
+    vertx.createHttpServer().requestHandler(router).listen(0)
+        .compose(server -> client.connect(server.actualPort(), "localhost", "/api/catalog/ws"))
+        .onComplete(testContext.succeeding(ws -> {
+          ws.textMessageHandler(frame -> testContext.verify(() -> {
+            JsonObject change = new JsonObject(frame);
+            assertEquals(7L, change.getLong("revision"));
+            assertEquals(5000L, change.getLong("spreadMs"));
+            testContext.completeNow();
+          }));
+          vertx.eventBus().publish(CatalogCache.CATALOG_CHANGED, change(7, 42));
+        }));
+  }
+
+  @Test
+  void robot_with_a_full_write_queue_is_skipped(Vertx vertx, VertxTestContext testContext) {
+    List<String> reading = new ArrayList<>();
+    List<String> stalled = new ArrayList<>();
+    vertx.runOnContext(v -> {
+      CatalogPushHandler handler = new CatalogPushHandler(vertx, new JsonObject());
+      handler.add(socket(false, reading));
+      handler.add(socket(true, stalled));
+      vertx.eventBus().publish(CatalogCache.CATALOG_CHANGED, change(1, 10));
+      // Published again by a second catalog node, not pushed twice
+      vertx.eventBus().publish(CatalogCache.CATALOG_CHANGED, change(1, 10));
+      vertx.eventBus().publish(CatalogCache.CATALOG_CHANGED, change(2, 11));
+      vertx.setTimer(100, id -> testContext.verify(() -> {
+        assertEquals(2, handler.connections());
+        assertEquals(2, reading.size());
+        assertEquals(2L, new JsonObject(reading.get(1)).getLong("revision"));
+        assertEquals(List.of(), stalled);
+        testContext.completeNow();
+      }));
+    });
+  }
+}
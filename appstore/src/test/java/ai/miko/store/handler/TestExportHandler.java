@@ -0,0 +1,155 @@
+package ai.miko.store.handler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import ai.miko.store.dao.Timestamps;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+
+@ExtendWith(VertxExtension.class)
+public class TestExportHandler {
+
+  // Stands in for a findBatch cursor, documents are only produced on demand
+  private static class Cursor implements ReadStream<JsonObject> {
+    private final Vertx vertx;
+    private long remaining;
+    private boolean paused;
+    private int pauses;
+    private Handler<JsonObject> handler;
+    private Handler<Void> endHandler;
+
+    Cursor(Vertx vertx, long rows) {
+      this.vertx = vertx;
+      this.remaining = rows;
+    }
+
+    private void emit() {
+      vertx.runOnContext(v -> {
+        while (!paused && handler != null && remaining > 0) {
+          handler.handle(new JsonObject().put("log_id", remaining--).put("app_id", "1")
+              .put("message", "x".repeat(100)));
+        }
+        if (remaining == 0 && endHandler != null) {
+          Handler<Void> end = endHandler;
+          endHandler = null;
+          end.handle(null);
+        }
+      });
+    }
+
+    @Override
+    public ReadStream<JsonObject> handler(Handler<JsonObject> handler) {
+      this.handler = handler;
+      emit();
+      return this;
+    }
+
+    @Override
+    public ReadStream<JsonObject> pause() {
+      paused = true;
+      pauses++;
+      return this;
+    }
+
+    @Override
+    public ReadStream<JsonObject> resume() {
+      paused = false;
+      emit();
+      return this;
+    }
+
+    @Override
+    public ReadStream<JsonObject> fetch(long amount) {
+      return resume();
+    }
+
+    @Override
+    public ReadStream<JsonObject> endHandler(Handler<Void> endHandler) {
+      this.endHandler = endHandler;
+      return this;
+    }
+
+    @Override
+    public ReadStream<JsonObject> exceptionHandler(Handler<Throwable> handler) {
+      return this;
+    }
+  }
+
+  @Test
+  void builds_the_filter_from_query_params() {
+    MultiMap params = MultiMap.caseInsensitiveMultiMap().add("robot_id", "123")
+        .add("from", "2024-05-01T00:00:00Z").add("to", "2024-05-02T00:00:00Z");
+
+    assertEquals(new JsonObject().put("robot_id", "123").put("mod_ts",
+        new JsonObject().put("$gte", "2024-05-01T00:00:00.000Z").put("$lt", "2024-05-02T00:00:00.000Z")),
+        ExportHandler.query(params, "mod_ts"));
+    assertEquals(new JsonObject(), ExportHandler.query(MultiMap.caseInsensitiveMultiMap(), "ent_ts"));
+    assertThrows(IllegalArgumentException.class,
+        () -> ExportHandler.query(MultiMap.caseInsensitiveMultiMap().add("from", "yesterday"), "ent_ts"));
+  }
+
+  // Bounds compare as strings against what the writers store
+  @Test
+  void bounds_select_stored_timestamps_in_time_order() {
+    JsonObject range = ExportHandler.query(MultiMap.caseInsensitiveMultiMap()
+        .add("from", "2024-05-01T00:00:00Z").add("to", "2024-05-01T10:00:00"), "ent_ts")
+        .getJsonObject("ent_ts");
+    String from = range.getString("$gte");
+    String to = range.getString("$lt");
+
+    String start = Timestamps.format(Instant.parse("2024-05-01T00:00:00Z"));
+    String justAfter = Timestamps.format(Instant.parse("2024-05-01T00:00:00.123Z"));
+    String justBefore = Timestamps.format(Instant.parse("2024-04-30T23:59:59.999Z"));
+    // A bound without an offset is UTC, not the server's zone
+    String end = Timestamps.format(Instant.parse("2024-05-01T10:00:00Z"));
+    assertTrue(start.compareTo(from) >= 0);
+    assertTrue(justAfter.compareTo(from) >= 0 && justAfter.compareTo(to) < 0);
+    assertTrue(justBefore.compareTo(from) < 0);
+    assertTrue(end.compareTo(to) >= 0);
+  }
+
+  @Test
+  void streams_every_row_with_backpressure(Vertx vertx, VertxTestContext testContext) {
+    long rows = 100_000;
+    Cursor[] cursor = new Cursor[1];
+    AtomicLong lines = new AtomicLong();
+
+    vertx.createHttpServer().requestHandler(req -> {
+      cursor[0] = new Cursor(vertx, rows);
+      ExportHandler.stream(cursor[0], req.response());
+    }).listen(0).compose(server -> vertx.createHttpClient()
+        .request(HttpMethod.GET, server.actualPort(), "localhost", "/api/export/logs"))
+        .compose(req -> req.send())
+        .compose(resp -> {
+          assertEquals("application/x-ndjson", resp.getHeader("content-type"));
+          resp.handler(chunk -> {
+            for (int i = 0; i < chunk.length(); i++) {
+              if (chunk.getByte(i) == '\n') {
+                lines.incrementAndGet();
+              }
+            }
+          });
+          return resp.end();
+        })
+        .onComplete(testContext.succeeding(v -> testContext.verify(() -> {
+          assertEquals(rows, lines.get());
+          // 10 MB does not fit the write queue, the cursor had to wait
+          assertTrue(cursor[0].pauses > 0);
+          testContext.completeNow();
+        })));
+  }
+}
@@ -0,0 +1,84 @@
+package ai.miko.store.handler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import ai.miko.store.codec.DomainCodecs;
+import ai.miko.store.domain.ApplicationState;
+import ai.miko.store.domain.UpdateAppStateRequest;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.Json;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.handler.BodyHandler;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+
+@ExtendWith(VertxExtension.class)
+public class TestStateUpdateHandler {
+
+  private static UpdateAppStateRequest update(String appId, ApplicationState state) {
+    return new UpdateAppStateRequest(appId, "123", "1.0", 0, state, null,
+        Instant.parse("2024-05-01T00:00:00Z"));
+  }
+
+  private static Future<HttpClientResponse> post(Vertx vertx, String uri, Object body) {
+    Router router = Router.router(vertx);
+    router.route().handler(BodyHandler.create());
+    router.post("/api/state-update").handler(new StateUpdateHandler(vertx, false));
+    router.post("/api/state-update/batch").handler(new StateUpdateHandler(vertx, true));
+    HttpClient client = vertx.createHttpClient();
+    return vertx.createHttpServer().requestHandler(router).listen(0)
+        .compose(server -> client.request(HttpMethod.POST, server.actualPort(), "localhost", uri))
+        .compose(req -> req.send(Json.encode(body)))
+        .compose(resp -> resp.body().map(resp));
+  }
+
+  @Test
+  void batch_is_written_in_one_request_in_order(Vertx vertx, VertxTestContext testContext) {
+    DomainCodecs.register(vertx.eventBus());
+    // Stand-in for the StateManagementVerticle
+    List<List<UpdateAppStateRequest>> batches = new ArrayList<>();
+    vertx.eventBus().<List<UpdateAppStateRequest>>consumer("state.update.batch", message -> {
+      batches.add(message.body());
+      message.reply("States updated");
+    });
+
+    post(vertx, "/api/state-update/batch", List.of(update("1", ApplicationState.PICKEDUP),
+        update("2", ApplicationState.COMPLETED), update("1", ApplicationState.COMPLETED)))
+        .onComplete(testContext.succeeding(resp -> testContext.verify(() -> {
+          assertEquals(200, resp.statusCode());
+          assertEquals(1, batches.size());
+          List<String> applied = new ArrayList<>();
+          for (UpdateAppStateRequest update : batches.get(0)) {
+            applied.add(update.getAppId() + " " + update.getState());
+          }
+          assertEquals(List.of("1 PICKEDUP", "2 COMPLETED", "1 COMPLETED"), applied);
+          assertEquals(Instant.parse("2024-05-01T00:00:00Z"), batches.get(0).get(0).getTimestamp());
+          testContext.completeNow();
+        })));
+  }
+
+  @Test
+  void failed_batch_is_not_acknowledged(Vertx vertx, VertxTestContext testContext) {
+    DomainCodecs.register(vertx.eventBus());
+    vertx.eventBus().consumer("state.update.batch",
+        message -> message.fail(500, "Failed to update state"));
+
+    post(vertx, "/api/state-update/batch", List.of(update("1", ApplicationState.COMPLETED),
+        update("2", ApplicationState.COMPLETED)))
+        .onComplete(testContext.succeeding(resp -> testContext.verify(() -> {
+          assertEquals(500, resp.statusCode());
+          testContext.completeNow();
+        })));
+  }
+}
@@ -0,0 +1,91 @@
+package ai.miko.store.patch;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class TestDeltaEncoder {
+
+  @TempDir
+  Path dir;
+
+  // Reference decoder for the patch layout
+  private static byte[] apply(byte[] source, Path patch) throws IOException {
+    try (DataInputStream in = new DataInputStream(Files.newInputStream(patch))) {
+      assertEquals(DeltaEncoder.MAGIC, in.readInt());
+      assertEquals(source.length, in.readLong());
+      long targetSize = in.readLong();
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      for (byte op = in.readByte(); op != DeltaEncoder.END; op = in.readByte()) {
+        if (op == DeltaEncoder.COPY) {
+          int offset = (int) in.readLong();
+          out.write(source, offset, in.readInt());
+        } else {
+          assertEquals(DeltaEncoder.DATA, op);
+          out.write(in.readNBytes(in.readInt()));
+        }
+      }
+      assertEquals(-1, in.read());
+      assertEquals(targetSize, out.size());
+      return out.toByteArray();
+    }
+  }
+
+  private static void fill(Random random, byte[] bytes, int from, int to) {
+    for (int i = from; i < to; i++) {
+      bytes[i] = (byte) random.nextInt();
+    }
+  }
+
+  private long encode(byte[] source, byte[] target) throws IOException {
+    Files.write(dir.resolve("source"), source);
+    Files.write(dir.resolve("target"), target);
+    return DeltaEncoder.encode(dir.resolve("source"), dir.resolve("target"),
+        dir.resolve("patch"), 512);
+  }
+
+  @Test
+  void mostly_unchanged_artifact_yields_small_patch() throws IOException {
+    Random random = new Random(7);
+    byte[] source = new byte[256 * 1024];
+    random.nextBytes(source);
+    // Insert a few bytes in the middle, overwrite a region and append a tail
+    byte[] target = new byte[source.length + 1000];
+    System.arraycopy(source, 0, target, 0, 100_000);
+    fill(random, target, 100_000, 100_010);
+    System.arraycopy(source, 100_000, target, 100_010, source.length - 100_000);
+    Arrays.fill(target, 200_000, 200_300, (byte) 7);
+    fill(random, target, source.length + 10, target.length);
+
+    long size = encode(source, target);
+
+    assertArrayEquals(target, apply(source, dir.resolve("patch")));
+    assertTrue(size < target.length / 20, "patch size " + size);
+  }
+
+  @Test
+  void unrelated_artifacts_round_trip() throws IOException {
+    Random random = new Random(11);
+    byte[] source = new byte[10_000];
+    byte[] target = new byte[7_777];
+    random.nextBytes(source);
+    random.nextBytes(target);
+
+    encode(source, target);
+    assertArrayEquals(target, apply(source, dir.resolve("patch")));
+
+    encode(source, new byte[0]);
+    assertArrayEquals(new byte[0], apply(source, dir.resolve("patch")));
+  }
+}
@@ -0,0 +1,193 @@
+package ai.miko.store.verticle;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+
+import ai.miko.store.codec.DomainCodecs;
+import ai.miko.store.domain.ApplicationState;
+import ai.miko.store.domain.UpdateAppStateRequest;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.BulkOperation;
+import io.vertx.ext.mongo.MongoClient;
+import io.vertx.ext.mongo.MongoClientBulkWriteResult;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+
+@ExtendWith(VertxExtension.class)
+public class TestLogVerticle {
+
+  private final List<Integer> bulkSizes = new ArrayList<>();
+  // Answers each bulk write, by default with a success
+  private Consumer<Bulk> onBulk = Bulk::succeed;
+
+  @BeforeEach
+  void register_codecs(Vertx vertx) {
+    DomainCodecs.register(vertx.eventBus());
+  }
+
+  // Only what the verticle uses: the unordered insert into app_logs
+  @SuppressWarnings("unchecked")
+  private MongoClient mongo() {
+    return (MongoClient) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[] { MongoClient.class }, (proxy, method, args) -> {
+          switch (method.getName()) {
+          case "bulkWriteWithOptions":
+            List<BulkOperation> operations = (List<BulkOperation>) args[1];
+            bulkSizes.add(operations.size());
+            onBulk.accept(new Bulk(Vertx.currentContext(), operations.size(),
+                (Handler<AsyncResult<MongoClientBulkWriteResult>>) args[3]));
+            return proxy;
+          case "close":
+            return Future.succeededFuture();
+          default:
+            throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  private Future<String> deploy(Vertx vertx, JsonObject config) {
+    return vertx.deployVerticle(new LogVerticle(mongo()), new DeploymentOptions().setConfig(config));
+  }
+
+  private static List<UpdateAppStateRequest> logs(int count) {
+    List<UpdateAppStateRequest> logs = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      logs.add(new UpdateAppStateRequest(String.valueOf(i), "robot-1", "1.0", 0,
+          ApplicationState.COMPLETED, "done", Instant.now()));
+    }
+    return logs;
+  }
+
+  private static Future<Object> insert(Vertx vertx, int count) {
+    return vertx.eventBus().request("log.insert", logs(count), DomainCodecs.stateList())
+        .map(reply -> reply.body());
+  }
+
+  private static MongoBulkWriteException rejected(int index) {
+    return new MongoBulkWriteException(BulkWriteResult.acknowledged(0, 0, 0, 0, List.of()),
+        List.of(new BulkWriteError(11000, "duplicate key", new BsonDocument(), index)), null,
+        new ServerAddress());
+  }
+
+  @Test
+  void request_split_across_two_flushes_is_answered_once_both_are_written(Vertx vertx,
+      VertxTestContext testContext) {
+    JsonObject config = new JsonObject().put("log.batch.size", 2).put("log.flush.interval.ms", 50);
+    deploy(vertx, config).compose(id -> insert(vertx, 3))
+        .onComplete(testContext.succeeding(reply -> testContext.verify(() -> {
+          assertEquals("Log inserted successfully", reply);
+          assertEquals(List.of(2, 1), bulkSizes);
+          testContext.completeNow();
+        })));
+  }
+
+  @Test
+  void entries_below_the_batch_size_are_flushed_by_the_timer(Vertx vertx,
+      VertxTestContext testContext) {
+    JsonObject config = new JsonObject().put("log.batch.size", 10).put("log.flush.interval.ms", 50);
+    deploy(vertx, config).compose(id -> insert(vertx, 2))
+        .onComplete(testContext.succeeding(reply -> testContext.verify(() -> {
+          assertEquals(List.of(2), bulkSizes);
+          testContext.completeNow();
+        })));
+  }
+
+  @Test
+  void full_buffer_answers_503(Vertx vertx, VertxTestContext testContext) {
+    JsonObject config = new JsonObject().put("log.batch.size", 10).put("log.buffer.max", 3)
+        .put("log.flush.interval.ms", 1_000);
+    deploy(vertx, config).onComplete(testContext.succeeding(id -> {
+      // Stays buffered, the timer is far away
+      insert(vertx, 2);
+      insert(vertx, 2).onComplete(testContext.failing(err -> testContext.verify(() -> {
+        assertEquals(503, ((ReplyException) err).failureCode());
+        assertEquals(List.of(), bulkSizes);
+        testContext.completeNow();
+      })));
+    }));
+  }
+
+  @Test
+  void rejected_entry_is_retried_and_the_others_are_acked(Vertx vertx,
+      VertxTestContext testContext) {
+    JsonObject config = new JsonObject().put("log.batch.size", 3).put("log.flush.interval.ms", 50);
+    onBulk = bulk -> {
+      if (bulkSizes.size() == 1) {
+        bulk.fail(rejected(1));
+      } else {
+        bulk.succeed();
+      }
+    };
+    deploy(vertx, config).onComplete(testContext.succeeding(id -> {
+      Future<Object> first = insert(vertx, 2);
+      Future<Object> second = insert(vertx, 1);
+      // The second request only had an entry Mongo took, it does not wait
+      // for the retry of the first one's
+      second.onComplete(testContext.succeeding(reply -> testContext.verify(() -> {
+        assertEquals(List.of(3), bulkSizes);
+      })));
+      Future.all(first, second).onComplete(testContext.succeeding(all -> testContext.verify(() -> {
+        assertEquals(List.of(3, 1), bulkSizes);
+        testContext.completeNow();
+      })));
+    }));
+  }
+
+  @Test
+  void entry_rejected_on_every_attempt_fails_its_request(Vertx vertx,
+      VertxTestContext testContext) {
+    JsonObject config = new JsonObject().put("log.batch.size", 1).put("log.flush.interval.ms", 50)
+        .put("log.write.attempts", 2);
+    onBulk = bulk -> bulk.fail(rejected(0));
+    deploy(vertx, config).compose(id -> insert(vertx, 1))
+        .onComplete(testContext.failing(err -> testContext.verify(() -> {
+          assertEquals(500, ((ReplyException) err).failureCode());
+          assertEquals(List.of(1, 1), bulkSizes);
+          testContext.completeNow();
+        })));
+  }
+
+  private static class Bulk {
+
+    private final Context context;
+    private final int size;
+    private final Handler<AsyncResult<MongoClientBulkWriteResult>> handler;
+
+    Bulk(Context context, int size, Handler<AsyncResult<MongoClientBulkWriteResult>> handler) {
+      this.context = context;
+      this.size = size;
+      this.handler = handler;
+    }
+
+    void succeed() {
+      context.runOnContext(v -> handler.handle(Future.succeededFuture(
+          new MongoClientBulkWriteResult(size, 0, 0, 0, List.of(), List.of()))));
+    }
+
+    void fail(Throwable err) {
+      context.runOnContext(v -> handler.handle(Future.failedFuture(err)));
+    }
+  }
+}
@@ -0,0 +1,189 @@
+package ai.miko.store.verticle;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.Uuid;
+import org.apache.kafka.common.utils.Time;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+
+import ai.miko.store.codec.DomainCodecs;
+import ai.miko.store.config.KafkaConfig;
+import ai.miko.store.domain.ApplicationState;
+import ai.miko.store.domain.UpdateAppStateRequest;
+import ai.miko.store.handler.StateIngestHandler;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.handler.BodyHandler;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import io.vertx.kafka.client.producer.KafkaProducer;
+import kafka.server.KafkaRaftServer;
+
+@ExtendWith(VertxExtension.class)
+public class TestStateIngestVerticle {
+
+  private static final String TOPIC = "app-state-updates";
+  private static final String GROUP = "appstore-state-writers";
+
+  private KafkaRaftServer broker;
+  private String bootstrapServers;
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  // Single node KRaft broker, combined broker and controller
+  @BeforeEach
+  void start_broker(@TempDir Path dir) throws Exception {
+    int port = freePort();
+    int controllerPort = freePort();
+    bootstrapServers = "127.0.0.1:" + port;
+    Files.writeString(dir.resolve("meta.properties"), "version=1\ncluster.id=" + Uuid.randomUuid()
+        + "\nnode.id=1\ndirectory.id=" + Uuid.randomUuid() + "\n");
+
+    Properties props = new Properties();
+    props.put("process.roles", "broker,controller");
+    props.put("node.id", "1");
+    props.put("controller.quorum.voters", "1@127.0.0.1:" + controllerPort);
+    props.put("listeners", "PLAINTEXT://" + bootstrapServers + ",CONTROLLER://127.0.0.1:" + controllerPort);
+    props.put("controller.listener.names", "CONTROLLER");
+    props.put("listener.security.protocol.map", "PLAINTEXT:PLAINTEXT,CONTROLLER:PLAINTEXT");
+    props.put("log.dirs", dir.toString());
+    props.put("offsets.topic.replication.factor", "1");
+    props.put("offsets.topic.num.partitions", "1");
+    props.put("transaction.state.log.replication.factor", "1");
+    props.put("transaction.state.log.min.isr", "1");
+    props.put("group.initial.rebalance.delay.ms", "0");
+    broker = new KafkaRaftServer(kafka.server.KafkaConfig.fromProps(props), Time.SYSTEM);
+    broker.startup();
+
+    try (Admin admin = Admin.create(Map.of("bootstrap.servers", bootstrapServers))) {
+      admin.createTopics(List.of(new NewTopic(TOPIC, 2, (short) 1))).all().get();
+    }
+  }
+
+  @AfterEach
+  void stop_broker(Vertx vertx) throws Exception {
+    // Consumers leave the group first, not against a broker that is gone
+    vertx.close().toCompletionStage().toCompletableFuture().get();
+    broker.shutdown();
+    broker.awaitShutdown();
+  }
+
+  private static UpdateAppStateRequest update(String robotId, String version) {
+    return new UpdateAppStateRequest("1", robotId, version, 0, ApplicationState.COMPLETED, null,
+        Instant.parse("2024-05-01T00:00:00Z"));
+  }
+
+  private static Future<Buffer> post(HttpClient client, int port, String uri, Object body) {
+    return client.request(HttpMethod.POST, port, "localhost", uri)
+        .compose(req -> req.send(Json.encode(body)))
+        .compose(resp -> {
+          assertEquals(200, resp.statusCode());
+          return resp.body();
+        });
+  }
+
+  @Test
+  void applies_acknowledged_updates_in_order_after_a_failed_write(Vertx vertx,
+      VertxTestContext testContext) {
+    DomainCodecs.register(vertx.eventBus());
+    JsonObject config = new JsonObject().put("state.ingest", "kafka")
+        .put("kafka.bootstrap.servers", bootstrapServers).put("state.ingest.poll.ms", 100)
+        .put("state.ingest.retry.ms", 100);
+
+    // Stand-in for the StateManagementVerticle, Mongo is down for the first batch
+    AtomicInteger writes = new AtomicInteger();
+    List<UpdateAppStateRequest> applied = new ArrayList<>();
+    vertx.eventBus().<List<UpdateAppStateRequest>>consumer("state.update.batch", message -> {
+      if (writes.incrementAndGet() == 1) {
+        message.fail(500, "Failed to update state");
+        return;
+      }
+      applied.addAll(message.body());
+      message.reply("States updated");
+      if (applied.size() == 5) {
+        testContext.verify(() -> {
+          List<String> versions = new ArrayList<>();
+          for (UpdateAppStateRequest update : applied) {
+            if (update.getRobotId().equals("123")) {
+              versions.add(update.getVersion());
+            }
+          }
+          // Nothing lost, nothing applied twice, a robot's updates in order
+          assertEquals(List.of("1.0", "1.1", "1.2", "1.3"), versions);
+        });
+        checkCommitted(vertx, testContext);
+      }
+    });
+
+    KafkaProducer<String, String> producer = KafkaProducer.create(vertx,
+        KafkaConfig.producer(config), String.class, String.class);
+    Router router = Router.router(vertx);
+    router.route().handler(BodyHandler.create());
+    router.post("/api/state-update").handler(new StateIngestHandler(producer, TOPIC, false));
+    router.post("/api/state-update/batch").handler(new StateIngestHandler(producer, TOPIC, true));
+
+    vertx.deployVerticle(new StateIngestVerticle(), new DeploymentOptions().setConfig(config))
+        .compose(id -> vertx.createHttpServer().requestHandler(router).listen(0))
+        .compose(server -> {
+          HttpClient client = vertx.createHttpClient();
+          int port = server.actualPort();
+          return post(client, port, "/api/state-update", update("123", "1.0"))
+              .compose(v -> post(client, port, "/api/state-update/batch",
+                  List.of(update("123", "1.1"), update("456", "2.0"), update("123", "1.2"))))
+              .compose(v -> post(client, port, "/api/state-update", update("123", "1.3")));
+        })
+        .onComplete(testContext.succeeding(v -> {
+        }));
+  }
+
+  // Every offset is committed once its batch is written, the commit of the
+  // last batch may still be on its way
+  private void checkCommitted(Vertx vertx, VertxTestContext testContext) {
+    vertx.<Long>executeBlocking(() -> {
+      try (Admin admin = Admin.create(Map.of("bootstrap.servers", bootstrapServers))) {
+        long committed = 0;
+        for (OffsetAndMetadata offset : admin.listConsumerGroupOffsets(GROUP)
+            .partitionsToOffsetAndMetadata().get().values()) {
+          committed += offset.offset();
+        }
+        return committed;
+      }
+    }).onComplete(testContext.succeeding(committed -> {
+      if (committed < 5) {
+        vertx.setTimer(100, id -> checkCommitted(vertx, testContext));
+      } else {
+        testContext.verify(() -> assertEquals(5, committed));
+        testContext.completeNow();
+      }
+    }));
+  }
+}
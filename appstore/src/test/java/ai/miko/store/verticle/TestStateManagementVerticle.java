@@ -0,0 +1,168 @@
+package ai.miko.store.verticle;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import ai.miko.store.codec.DomainCodecs;
+import ai.miko.store.domain.ApplicationState;
+import ai.miko.store.domain.UpdateAppStateRequest;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.BulkOperation;
+import io.vertx.ext.mongo.MongoClient;
+import io.vertx.ext.mongo.MongoClientBulkWriteResult;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+
+@ExtendWith(VertxExtension.class)
+public class TestStateManagementVerticle {
+
+  // app_states by app_id/robot_id
+  private final Map<String, JsonObject> states = new LinkedHashMap<>();
+  private final List<List<BulkOperation>> bulkWrites = new ArrayList<>();
+  private final List<Promise<MongoClientBulkWriteResult>> pendingWrites = new ArrayList<>();
+  private final List<List<UpdateAppStateRequest>> logged = new ArrayList<>();
+
+  @BeforeEach
+  void deploy(Vertx vertx, VertxTestContext testContext) {
+    DomainCodecs.register(vertx.eventBus());
+    // Stand-in for the LogVerticle
+    vertx.eventBus().<List<UpdateAppStateRequest>>consumer("log.insert", message -> {
+      logged.add(message.body());
+      message.reply("Log inserted successfully");
+    });
+    vertx.deployVerticle(new StateManagementVerticle(mongo()))
+        .onComplete(testContext.succeedingThenComplete());
+  }
+
+  // Only what the verticle uses: the ordered upserts, applied once the
+  // write is acknowledged, and the read back of the state_ids
+  private MongoClient mongo() {
+    return (MongoClient) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[] { MongoClient.class }, (proxy, method, args) -> {
+          switch (method.getName()) {
+          case "bulkWrite":
+            @SuppressWarnings("unchecked")
+            List<BulkOperation> operations = (List<BulkOperation>) args[1];
+            bulkWrites.add(operations);
+            Promise<MongoClientBulkWriteResult> promise = Promise.promise();
+            pendingWrites.add(promise);
+            return promise.future().onSuccess(result -> operations.forEach(this::upsert));
+          case "findWithOptions":
+            List<JsonObject> docs = new ArrayList<>();
+            states.values().forEach(doc -> docs.add(doc.copy()));
+            return Future.succeededFuture(docs);
+          case "close":
+            return Future.succeededFuture();
+          default:
+            throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  private void upsert(BulkOperation operation) {
+    JsonObject filter = operation.getFilter();
+    String key = filter.getString("app_id") + "/" + filter.getString("robot_id");
+    JsonObject doc = states.get(key);
+    if (doc == null) {
+      doc = filter.copy().mergeIn(operation.getDocument().getJsonObject("$setOnInsert"));
+      states.put(key, doc);
+    }
+    doc.mergeIn(operation.getDocument().getJsonObject("$set"));
+  }
+
+  private void acknowledge(Vertx vertx) {
+    vertx.setTimer(50, id -> pendingWrites.get(pendingWrites.size() - 1)
+        .complete(new MongoClientBulkWriteResult()));
+  }
+
+  private static List<UpdateAppStateRequest> updates(ApplicationState... states) {
+    List<UpdateAppStateRequest> updates = new ArrayList<>();
+    for (ApplicationState state : states) {
+      updates.add(new UpdateAppStateRequest("1", "r1", "1.0", 0, state, null, Instant.now()));
+    }
+    return updates;
+  }
+
+  private static Future<Message<Object>> send(Vertx vertx, ApplicationState... states) {
+    return vertx.eventBus().request("state.update.batch", updates(states),
+        DomainCodecs.stateList());
+  }
+
+  @Test
+  void state_id_and_ent_ts_are_only_set_on_insert(Vertx vertx, VertxTestContext testContext) {
+    send(vertx, ApplicationState.PICKEDUP, ApplicationState.COMPLETED)
+        .onComplete(testContext.succeeding(reply -> testContext.verify(() -> {
+          assertEquals(2, bulkWrites.get(0).size());
+          for (BulkOperation operation : bulkWrites.get(0)) {
+            assertTrue(operation.isUpsert());
+            JsonObject set = operation.getDocument().getJsonObject("$set");
+            JsonObject setOnInsert = operation.getDocument().getJsonObject("$setOnInsert");
+            assertFalse(set.containsKey("state_id"));
+            assertFalse(set.containsKey("ent_ts"));
+            assertNotNull(setOnInsert.getString("state_id"));
+            assertNotNull(setOnInsert.getString("ent_ts"));
+          }
+          // installedVersion is only moved by COMPLETED
+          assertTrue(bulkWrites.get(0).get(0).getDocument().getJsonObject("$setOnInsert")
+              .containsKey("installedVersion"));
+          assertEquals("1.0", bulkWrites.get(0).get(1).getDocument().getJsonObject("$set")
+              .getString("installedVersion"));
+          testContext.completeNow();
+        })));
+    acknowledge(vertx);
+  }
+
+  @Test
+  void sending_again_keeps_the_stored_state_id(Vertx vertx, VertxTestContext testContext) {
+    send(vertx, ApplicationState.PICKEDUP).compose(first -> {
+      Future<Message<Object>> second = send(vertx, ApplicationState.COMPLETED);
+      acknowledge(vertx);
+      return second;
+    }).onComplete(testContext.succeeding(reply -> testContext.verify(() -> {
+      String stateId = states.get("1/r1").getString("state_id");
+      assertEquals(1, states.size());
+      assertEquals("COMPLETED", states.get("1/r1").getString("state"));
+      // The second write carried a new state_id of its own, only for an insert
+      assertFalse(stateId.equals(bulkWrites.get(1).get(0).getDocument()
+          .getJsonObject("$setOnInsert").getString("state_id")));
+      assertEquals(stateId, logged.get(0).get(0).getStateId());
+      assertEquals(stateId, logged.get(1).get(0).getStateId());
+      testContext.completeNow();
+    })));
+    acknowledge(vertx);
+  }
+
+  @Test
+  void answers_only_once_the_write_is_acknowledged(Vertx vertx, VertxTestContext testContext) {
+    Future<Message<Object>> reply = send(vertx, ApplicationState.COMPLETED);
+    vertx.setTimer(200, id -> {
+      testContext.verify(() -> {
+        assertEquals(1, bulkWrites.size());
+        assertFalse(reply.isComplete());
+        assertEquals(List.of(), logged);
+      });
+      pendingWrites.get(0).complete(new MongoClientBulkWriteResult());
+      reply.onComplete(testContext.succeeding(done -> testContext.verify(() -> {
+        assertEquals(1, logged.size());
+        testContext.completeNow();
+      })));
+    });
+  }
+}
@@ -7,6 +7,9 @@ import java.util.Map.Entry;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.miko.robot.client.AppStoreClient;
+import com.miko.robot.client.CatalogPushClient;
+import com.miko.robot.codec.DomainCodecs;
 import com.miko.robot.config.RobotConfig;
 import com.miko.robot.domain.Application;
 import com.miko.robot.domain.FetchAppsRequest;
@@ -19,10 +22,6 @@ import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Promise;
 import io.vertx.core.ThreadingModel;
 import io.vertx.core.eventbus.EventBus;
-import io.vertx.core.http.HttpClient;
-import io.vertx.core.http.HttpMethod;
-import io.vertx.core.http.RequestOptions;
-import io.vertx.core.json.Json;
 import io.vertx.core.json.jackson.DatabindCodec;
 
 public class MainVerticle extends AbstractVerticle {
@@ -35,6 +34,10 @@ public class MainVerticle extends AbstractVerticle {
 
 	private static final String ROBOT_ID = "123";
 
+	private AppStoreClient appStoreClient;
+	private CatalogPushClient catalogPushClient;
+	private long lastFetch;
+
 	static {
 		var objectMapper = DatabindCodec.mapper();
 		objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
@@ -49,23 +52,63 @@ public class MainVerticle extends AbstractVerticle {
 
 	@Override
 	public void start(Promise<Void> startPromise) {
-		// EventBus eventBus = vertx.eventBus();
+		DomainCodecs.register(vertx.eventBus());
+
+		// What is installed has to be known before the first fetch, or the
+		// appstore offers everything again. Without a store installs would
+		// not survive a reboot, so the robot does not start.
+		vertx.executeBlocking(() -> {
+			RobotConfig.loadInstalledApps(
+					config().getInteger("installed.checkpoint.every", 64));
+			return RobotConfig.installedApps.size();
+		}).onComplete(ar -> {
+			if (ar.failed()) {
+				System.err.println("Failed to load installed apps: "
+						+ ar.cause().getMessage());
+				startPromise.fail(ar.cause());
+				return;
+			}
+			System.out.println("Loaded " + ar.result() + " installed apps");
+			startServices();
+			startPromise.complete();
+		});
+	}
+
+	private void startServices() {
+		appStoreClient = new AppStoreClient(vertx, config());
 
-		// Deploy worker verticle to handle app installation sequentially
+		// Deploy worker verticle running the download/verify/install pipeline
 		vertx.deployVerticle(new AppInstallWorkerVerticle(),
-				new DeploymentOptions()
+				new DeploymentOptions().setConfig(config())
 						.setThreadingModel(ThreadingModel.WORKER));
 
+		// The push channel fetches on every catalog change and after a
+		// reconnect
+		catalogPushClient = new CatalogPushClient(vertx, config(), ROBOT_ID,
+				this::fetchAppsAndProcess);
+		catalogPushClient.start();
+
 		// Initial fetch on startup
 		fetchAppsAndProcess();
 
-		// Schedule periodic fetching
-		vertx.setPeriodic(FETCH_INTERVAL2, id -> fetchAppsAndProcess());
+		// Polling stays as the fallback, at the long interval while pushes
+		// are arriving
+		vertx.setPeriodic(FETCH_INTERVAL2, id -> {
+			if (!catalogPushClient.isConnected() || System
+					.currentTimeMillis() - lastFetch >= FETCH_INTERVAL) {
+				fetchAppsAndProcess();
+			}
+		});
+	}
 
-		startPromise.complete();
+	@Override
+	public void stop(Promise<Void> stopPromise) {
+		catalogPushClient.close();
+		appStoreClient.close().onComplete(ar -> stopPromise.complete());
 	}
 
 	private void fetchAppsAndProcess() {
+		lastFetch = System.currentTimeMillis();
 		FetchAppsRequest fetchAppsRequest = new FetchAppsRequest();
 		fetchAppsRequest.setRobotId(ROBOT_ID);
 
@@ -80,35 +123,21 @@ public class MainVerticle extends AbstractVerticle {
 
 		fetchAppsRequest.setInstalledApps(apps);
 
-		HttpClient client = vertx.createHttpClient();
-		String fetchUrl = "http://localhost:8080/api/apps";
-
-		RequestOptions options = new RequestOptions().setMethod(HttpMethod.POST)
-				.setAbsoluteURI(fetchUrl);
-
-		client.request(options).compose(request -> request
-				.send(Json.encode(fetchAppsRequest)).compose(response -> {
-					if (response.statusCode() == 200) {
-						return response.body();
-					} else {
-						System.err.println("Failed to fetch apps: "
-								+ response.statusCode());
-						return null;
-					}
-				}).onSuccess(body -> {
-					if (body != null) {
-						UpdateApps updateApps = Json.decodeValue(body,
-								UpdateApps.class);
-						System.out.println(updateApps);
-						try {
-							scheduleAppsForInstallation(updateApps);
-						} catch (InterruptedException e) {
-							e.printStackTrace();
-						}
-					}
-				}).onFailure(err -> {
-					System.err.println("Request failed: " + err.getMessage());
-				}));
+		appStoreClient.fetchApps(fetchAppsRequest).onSuccess(updateApps -> {
+			if (updateApps == null) {
+				// 304, everything offered earlier is already scheduled
+				System.out.println("Catalog not modified");
+				return;
+			}
+			System.out.println(updateApps);
+			try {
+				scheduleAppsForInstallation(updateApps);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}).onFailure(err -> {
+			System.err.println("Request failed: " + err.getMessage());
+		});
 	}
 
 	private void scheduleAppsForInstallation(UpdateApps apps)
@@ -116,7 +145,7 @@ public class MainVerticle extends AbstractVerticle {
 		EventBus eventBus = vertx.eventBus();
 		for (Application app : apps.getApplications()) {
 			// Send the app to the worker verticle for installation
-			eventBus.send("app.install", Json.encode(app));
+			eventBus.send("app.install", app);
 		}
 	}
 }
\ No newline at end of file
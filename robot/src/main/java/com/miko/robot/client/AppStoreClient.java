@@ -0,0 +1,143 @@
+package com.miko.robot.client;
+
+import java.util.List;
+
+import com.miko.robot.domain.FetchAppsRequest;
+import com.miko.robot.domain.UpdateAppStateRequest;
+import com.miko.robot.domain.UpdateApps;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.Http2Settings;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.http.PoolOptions;
+import io.vertx.core.http.RequestOptions;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+
+// Calls to the appstore API. Every instance is backed by the same shared,
+// keep-alive connection pool, so the fetch loop and the install worker reuse
+// connections instead of opening one per request.
+public class AppStoreClient {
+
+	private static final String CLIENT_NAME = "appstore";
+
+	private final HttpClient client;
+
+	// Entity tag of the last catalog answer, sent back as If-None-Match
+	private volatile String catalogTag;
+
+	public AppStoreClient(Vertx vertx, JsonObject config) {
+		this.client = vertx.createHttpClient(clientOptions(config),
+				poolOptions(config));
+	}
+
+	static HttpClientOptions clientOptions(JsonObject config) {
+		HttpClientOptions options = new HttpClientOptions().setShared(true)
+				.setName(CLIENT_NAME)
+				.setDefaultHost(config.getString("appstore.host", "localhost"))
+				.setDefaultPort(config.getInteger("appstore.port", 8080))
+				.setConnectTimeout(
+						config.getInteger("http.connect.timeout.ms", 10_000))
+				.setKeepAlive(true)
+				.setKeepAliveTimeout(
+						config.getInteger("http.keepalive.timeout.s", 120))
+				.setTcpKeepAlive(true);
+
+		if (config.getBoolean("http.http2", false)) {
+			// h2c with prior knowledge, all requests multiplexed on a single
+			// connection
+			options.setProtocolVersion(HttpVersion.HTTP_2)
+					.setHttp2ClearTextUpgrade(false)
+					.setHttp2MultiplexingLimit(
+							config.getInteger("http.http2.streams", 100))
+					.setHttp2KeepAliveTimeout(
+							config.getInteger("http.keepalive.timeout.s", 120))
+					.setInitialSettings(new Http2Settings());
+		} else {
+			options.setPipelining(config.getBoolean("http.pipelining", true))
+					.setPipeliningLimit(
+							config.getInteger("http.pipelining.limit", 10));
+		}
+		return options;
+	}
+
+	static PoolOptions poolOptions(JsonObject config) {
+		return new PoolOptions()
+				.setHttp1MaxSize(config.getInteger("http.pool.size", 4))
+				.setHttp2MaxSize(config.getInteger("http.http2.pool.size", 1))
+				.setMaxWaitQueueSize(
+						config.getInteger("http.pool.wait.queue", 256));
+	}
+
+	// Completes with null when the appstore answers 304, the catalog and the
+	// installed apps are unchanged since the last successful fetch.
+	public Future<UpdateApps> fetchApps(FetchAppsRequest fetchAppsRequest) {
+		RequestOptions options = new RequestOptions().setMethod(HttpMethod.POST)
+				.setURI("/api/apps");
+		if (catalogTag != null) {
+			options.putHeader(HttpHeaders.IF_NONE_MATCH, catalogTag);
+		}
+
+		return client.request(options)
+				.compose(request -> request.send(Json.encode(fetchAppsRequest)))
+				.compose(response -> {
+					if (response.statusCode() == 304) {
+						return response.body().map(body -> (UpdateApps) null);
+					}
+					if (response.statusCode() == 200) {
+						String tag = response.getHeader(HttpHeaders.ETAG);
+						return response.body().map(body -> {
+							UpdateApps updateApps = Json.decodeValue(body,
+									UpdateApps.class);
+							catalogTag = tag;
+							return updateApps;
+						});
+					}
+					return Future.failedFuture(
+							"Failed to fetch apps: " + response.statusCode());
+				});
+	}
+
+	public Future<Void> updateState(UpdateAppStateRequest updateAppStateReq) {
+		RequestOptions options = new RequestOptions().setMethod(HttpMethod.POST)
+				.setURI("/api/state-update");
+
+		return client.request(options)
+				.compose(req -> req.send(Json.encode(updateAppStateReq)))
+				.compose(resp -> {
+					// Drain the body so the connection goes back to the pool
+					return resp.body().compose(body -> {
+						if (resp.statusCode() == 200) {
+							return Future.succeededFuture();
+						}
+						return Future.failedFuture("Failed to update state: "
+								+ resp.statusCode());
+					});
+				});
+	}
+
+	public Future<Void> updateStates(
+			List<UpdateAppStateRequest> updateAppStateReqs) {
+		RequestOptions options = new RequestOptions().setMethod(HttpMethod.POST)
+				.setURI("/api/state-update/batch");
+
+		return client.request(options)
+				.compose(req -> req.send(Json.encode(updateAppStateReqs)))
+				.compose(resp -> resp.body().compose(body -> {
+					if (resp.statusCode() == 200) {
+						return Future.succeededFuture();
+					}
+					return Future.failedFuture(
+							"Failed to update states: " + resp.statusCode());
+				}));
+	}
+
+	public Future<Void> close() {
+		return client.close();
+	}
+}
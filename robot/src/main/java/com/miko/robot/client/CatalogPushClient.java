@@ -0,0 +1,117 @@
+package com.miko.robot.client;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.WebSocket;
+import io.vertx.core.http.WebSocketClient;
+import io.vertx.core.http.WebSocketClientOptions;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonObject;
+
+// Keeps a WebSocket to the appstore open and runs the listener whenever the
+// catalog changes. Reconnects with exponential backoff, polling covers the
+// gaps while disconnected.
+public class CatalogPushClient {
+
+	private static final long MIN_BACKOFF = 1000;
+	private static final long MAX_BACKOFF = 60_000;
+
+	private final Vertx vertx;
+	private final WebSocketClient client;
+	private final String uri;
+	private final Runnable onChange;
+	private final long pingInterval;
+
+	private WebSocket socket;
+	private long backoff = MIN_BACKOFF;
+	private long pingTimerId = -1;
+	private boolean closed;
+	private boolean reconnecting;
+
+	public CatalogPushClient(Vertx vertx, JsonObject config, String robotId,
+			Runnable onChange) {
+		this.vertx = vertx;
+		this.onChange = onChange;
+		this.uri = "/api/catalog/ws?robotId=" + robotId;
+		this.pingInterval = config.getLong("push.ping.interval.ms", 60_000L);
+		this.client = vertx.createWebSocketClient(new WebSocketClientOptions()
+				.setDefaultHost(config.getString("appstore.host", "localhost"))
+				.setDefaultPort(config.getInteger("appstore.port", 8080))
+				.setConnectTimeout(
+						config.getInteger("http.connect.timeout.ms", 10_000)));
+	}
+
+	public void start() {
+		connect();
+	}
+
+	public boolean isConnected() {
+		return socket != null;
+	}
+
+	public void close() {
+		closed = true;
+		vertx.cancelTimer(pingTimerId);
+		client.close();
+	}
+
+	private void connect() {
+		if (closed) {
+			return;
+		}
+		client.connect(uri).onSuccess(ws -> {
+			System.out.println("Catalog push channel connected");
+			socket = ws;
+			backoff = MIN_BACKOFF;
+			ws.textMessageHandler(this::onMessage);
+			ws.exceptionHandler(err -> ws.close());
+			ws.closeHandler(v -> {
+				System.err.println("Catalog push channel closed");
+				socket = null;
+				vertx.cancelTimer(pingTimerId);
+				reconnect();
+			});
+			// Keeps NAT and proxy mappings of the idle connection alive
+			pingTimerId = vertx.setPeriodic(pingInterval,
+					id -> ws.writePing(Buffer.buffer()));
+			// Changes may have been missed while disconnected
+			if (reconnecting) {
+				onChange.run();
+			}
+			reconnecting = true;
+		}).onFailure(err -> reconnect());
+	}
+
+	private void reconnect() {
+		if (closed) {
+			return;
+		}
+		long delay = backoff
+				+ ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+		backoff = Math.min(backoff * 2, MAX_BACKOFF);
+		vertx.setTimer(delay, id -> connect());
+	}
+
+	private void onMessage(String message) {
+		JsonObject change;
+		try {
+			change = new JsonObject(message);
+		} catch (DecodeException e) {
+			// Not a change notice, the regular fetches still run
+			System.err.println("Ignoring catalog push frame: "
+					+ e.getMessage());
+			return;
+		}
+		long spread = change.getLong("spreadMs", 0L);
+		System.out.println("Catalog changed, revision "
+				+ change.getLong("revision"));
+		if (spread <= 0) {
+			onChange.run();
+		} else {
+			vertx.setTimer(1 + ThreadLocalRandom.current().nextLong(spread),
+					id -> onChange.run());
+		}
+	}
+}
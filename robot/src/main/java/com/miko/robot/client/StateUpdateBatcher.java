@@ -0,0 +1,71 @@
+package com.miko.robot.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.miko.robot.domain.UpdateAppStateRequest;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+// Collects state updates for a short window and reports them to the
+// appstore in a single batch request. Must be used from one context.
+public class StateUpdateBatcher {
+
+	private final Vertx vertx;
+	private final AppStoreClient appStoreClient;
+	private final long window;
+	private final int maxBatchSize;
+
+	private List<UpdateAppStateRequest> pending = new ArrayList<>();
+	private List<Promise<Void>> waiters = new ArrayList<>();
+	private long timerId = -1;
+
+	public StateUpdateBatcher(Vertx vertx, AppStoreClient appStoreClient,
+			JsonObject config) {
+		this.vertx = vertx;
+		this.appStoreClient = appStoreClient;
+		this.window = config.getLong("state.batch.window.ms", 200L);
+		this.maxBatchSize = config.getInteger("state.batch.max", 50);
+	}
+
+	public Future<Void> submit(UpdateAppStateRequest updateAppStateReq) {
+		Promise<Void> promise = Promise.promise();
+		pending.add(updateAppStateReq);
+		waiters.add(promise);
+
+		if (pending.size() >= maxBatchSize) {
+			flush();
+		} else if (timerId == -1) {
+			timerId = vertx.setTimer(window, id -> {
+				timerId = -1;
+				flush();
+			});
+		}
+		return promise.future();
+	}
+
+	public Future<Void> flush() {
+		vertx.cancelTimer(timerId);
+		timerId = -1;
+		if (pending.isEmpty()) {
+			return Future.succeededFuture();
+		}
+
+		List<UpdateAppStateRequest> batch = pending;
+		List<Promise<Void>> batchWaiters = waiters;
+		pending = new ArrayList<>();
+		waiters = new ArrayList<>();
+
+		Future<Void> sent = batch.size() == 1
+				? appStoreClient.updateState(batch.get(0))
+				: appStoreClient.updateStates(batch);
+		return sent.onComplete(ar -> {
+			for (Promise<Void> waiter : batchWaiters) {
+				waiter.handle(ar);
+			}
+		});
+	}
+}
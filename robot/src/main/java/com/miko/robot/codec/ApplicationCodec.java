@@ -0,0 +1,43 @@
+package com.miko.robot.codec;
+
+import com.miko.robot.domain.Application;
+import com.miko.robot.domain.ApplicationState;
+
+import io.vertx.core.buffer.Buffer;
+
+public class ApplicationCodec extends DomainCodec<Application> {
+
+	public ApplicationCodec() {
+		super("Application");
+	}
+
+	@Override
+	protected void write(Buffer buffer, Application app) {
+		writeString(buffer, app.getAppId());
+		writeString(buffer, app.getName());
+		writeString(buffer, app.getVersion());
+		writeString(buffer, app.getUrl());
+		writeString(buffer, app.getChecksum());
+		writeString(buffer, app.getPatchFrom());
+		writeString(buffer, app.getPatchUrl());
+		buffer.appendLong(app.getPatchSize() == null ? -1 : app.getPatchSize());
+		writeString(buffer, app.getStateId());
+		writeEnum(buffer, app.getState());
+		buffer.appendInt(app.getRetryCount());
+	}
+
+	@Override
+	protected Application read(WireReader reader) {
+		Application app = new Application(reader.readString(),
+				reader.readString(), reader.readString(), reader.readString());
+		app.setChecksum(reader.readString());
+		app.setPatchFrom(reader.readString());
+		app.setPatchUrl(reader.readString());
+		long patchSize = reader.readLong();
+		app.setPatchSize(patchSize < 0 ? null : patchSize);
+		app.setStateId(reader.readString());
+		app.setState(reader.readEnum(ApplicationState.values()));
+		app.setRetryCount(reader.readInt());
+		return app;
+	}
+}
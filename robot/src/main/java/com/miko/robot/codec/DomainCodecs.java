@@ -0,0 +1,25 @@
+package com.miko.robot.codec;
+
+import com.miko.robot.domain.Application;
+import com.miko.robot.domain.FetchAppsRequest;
+import com.miko.robot.domain.UpdateAppStateRequest;
+import com.miko.robot.domain.UpdateApps;
+
+import io.vertx.core.eventbus.EventBus;
+
+public final class DomainCodecs {
+
+	private DomainCodecs() {
+	}
+
+	// Must run once per Vert.x instance, before any domain type is sent.
+	public static void register(EventBus eventBus) {
+		eventBus.registerDefaultCodec(Application.class,
+				new ApplicationCodec());
+		eventBus.registerDefaultCodec(FetchAppsRequest.class,
+				new FetchAppsRequestCodec());
+		eventBus.registerDefaultCodec(UpdateApps.class, new UpdateAppsCodec());
+		eventBus.registerDefaultCodec(UpdateAppStateRequest.class,
+				new UpdateAppStateRequestCodec());
+	}
+}
@@ -0,0 +1,47 @@
+package com.miko.robot.codec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.miko.robot.domain.FetchAppsRequest;
+import com.miko.robot.domain.FetchAppsRequest.InstalledApp;
+
+import io.vertx.core.buffer.Buffer;
+
+public class FetchAppsRequestCodec extends DomainCodec<FetchAppsRequest> {
+
+	public FetchAppsRequestCodec() {
+		super("FetchAppsRequest");
+	}
+
+	@Override
+	protected void write(Buffer buffer, FetchAppsRequest request) {
+		writeString(buffer, request.getRobotId());
+		List<InstalledApp> installedApps = request.getInstalledApps();
+		if (installedApps == null) {
+			buffer.appendInt(-1);
+			return;
+		}
+		buffer.appendInt(installedApps.size());
+		for (InstalledApp app : installedApps) {
+			writeString(buffer, app.getAppId());
+			writeString(buffer, app.getVersion());
+		}
+	}
+
+	@Override
+	protected FetchAppsRequest read(WireReader reader) {
+		FetchAppsRequest request = new FetchAppsRequest();
+		request.setRobotId(reader.readString());
+		int size = reader.readInt();
+		if (size >= 0) {
+			List<InstalledApp> installedApps = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				installedApps.add(new InstalledApp(reader.readString(),
+						reader.readString()));
+			}
+			request.setInstalledApps(installedApps);
+		}
+		return request;
+	}
+}
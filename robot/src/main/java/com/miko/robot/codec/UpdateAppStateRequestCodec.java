@@ -0,0 +1,33 @@
+package com.miko.robot.codec;
+
+import com.miko.robot.domain.ApplicationState;
+import com.miko.robot.domain.UpdateAppStateRequest;
+
+import io.vertx.core.buffer.Buffer;
+
+public class UpdateAppStateRequestCodec
+		extends DomainCodec<UpdateAppStateRequest> {
+
+	public UpdateAppStateRequestCodec() {
+		super("UpdateAppStateRequest");
+	}
+
+	@Override
+	protected void write(Buffer buffer, UpdateAppStateRequest request) {
+		writeString(buffer, request.getAppId());
+		writeString(buffer, request.getRobotId());
+		writeString(buffer, request.getVersion());
+		buffer.appendInt(request.getRetryCount());
+		writeEnum(buffer, request.getState());
+		writeString(buffer, request.getMessage());
+		writeInstant(buffer, request.getTimestamp());
+	}
+
+	@Override
+	protected UpdateAppStateRequest read(WireReader reader) {
+		return new UpdateAppStateRequest(reader.readString(),
+				reader.readString(), reader.readString(), reader.readInt(),
+				reader.readEnum(ApplicationState.values()), reader.readString(),
+				reader.readInstant());
+	}
+}
@@ -0,0 +1,191 @@
+package com.miko.robot.config;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Installed apps on disk: a snapshot of the whole registry plus a
+// write-ahead log of the installs since. An install is appended to the log
+// and forced to disk before it counts as installed. Once the log holds
+// `checkpointEvery` records the registry is written to a new snapshot that
+// atomically replaces the old one, and the log starts over.
+//
+// Both files use the same record layout: length (int), CRC32 of the body
+// (int), body. A snapshot body is the entry count followed by the entries,
+// a log body a single entry, entries being appId and version as length
+// prefixed UTF-8.
+//
+// A corrupt snapshot is moved aside and the store continues from the log
+// alone: apps from the snapshot get offered and installed again, once, but
+// every install from then on is durable.
+public class InstalledAppsStore implements AutoCloseable {
+
+	private final Path snapshot;
+	private final Path log;
+	private final int checkpointEvery;
+	private final Map<String, String> installed = new LinkedHashMap<>();
+
+	private FileChannel logChannel;
+	private int logRecords;
+
+	private InstalledAppsStore(Path directory, int checkpointEvery) {
+		this.snapshot = directory.resolve("installed.snapshot");
+		this.log = directory.resolve("installed.wal");
+		this.checkpointEvery = checkpointEvery;
+	}
+
+	public static InstalledAppsStore open(Path directory, int checkpointEvery)
+			throws IOException {
+		Files.createDirectories(directory);
+		InstalledAppsStore store = new InstalledAppsStore(directory,
+				checkpointEvery);
+		store.load();
+		return store;
+	}
+
+	public synchronized Map<String, String> installed() {
+		return new LinkedHashMap<>(installed);
+	}
+
+	public synchronized void put(String appId, String version)
+			throws IOException {
+		ByteBuffer body = ByteBuffer.allocate(entrySize(appId, version));
+		writeEntry(body, appId, version);
+		writeRecord(logChannel, body.flip());
+		logChannel.force(false);
+		installed.put(appId, version);
+		if (++logRecords >= checkpointEvery) {
+			checkpoint();
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (logChannel != null) {
+			logChannel.close();
+			logChannel = null;
+		}
+	}
+
+	private void load() throws IOException {
+		if (Files.exists(snapshot)) {
+			ByteBuffer body = readRecord(
+					ByteBuffer.wrap(Files.readAllBytes(snapshot)));
+			if (body != null) {
+				for (int count = body.getInt(); count > 0; count--) {
+					installed.put(readString(body), readString(body));
+				}
+			} else {
+				// Snapshots only appear through an atomic rename, this is
+				// damage on disk. Kept for inspection.
+				Path corrupt = snapshot.resolveSibling(snapshot.getFileName()
+						+ ".corrupt-" + System.currentTimeMillis());
+				Files.move(snapshot, corrupt);
+				System.err.println(
+						"Corrupt installed apps snapshot moved to " + corrupt);
+			}
+		}
+		long valid = 0;
+		if (Files.exists(log)) {
+			ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(log));
+			ByteBuffer body;
+			while ((body = readRecord(records)) != null) {
+				installed.put(readString(body), readString(body));
+				logRecords++;
+				valid = records.position();
+			}
+		}
+		logChannel = FileChannel.open(log, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE);
+		// Drop a torn tail, new records go right after the last valid one
+		logChannel.truncate(valid);
+		logChannel.position(valid);
+	}
+
+	private void checkpoint() throws IOException {
+		int size = 4;
+		for (Map.Entry<String, String> entry : installed.entrySet()) {
+			size += entrySize(entry.getKey(), entry.getValue());
+		}
+		ByteBuffer body = ByteBuffer.allocate(size).putInt(installed.size());
+		for (Map.Entry<String, String> entry : installed.entrySet()) {
+			writeEntry(body, entry.getKey(), entry.getValue());
+		}
+
+		Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			writeRecord(channel, body.flip());
+			channel.force(true);
+		}
+		Files.move(tmp, snapshot, StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+		// Everything in the log is in the snapshot now
+		logChannel.truncate(0);
+		logChannel.position(0);
+		logChannel.force(true);
+		logRecords = 0;
+	}
+
+	private static void writeRecord(FileChannel channel, ByteBuffer body)
+			throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(body.duplicate());
+		ByteBuffer header = ByteBuffer.allocate(8).putInt(body.remaining())
+				.putInt((int) crc.getValue()).flip();
+		while (header.hasRemaining() || body.hasRemaining()) {
+			channel.write(new ByteBuffer[] { header, body });
+		}
+	}
+
+	// Body of the next record, or null at the end or at a torn record
+	private static ByteBuffer readRecord(ByteBuffer buffer) {
+		if (buffer.remaining() < 8) {
+			return null;
+		}
+		int start = buffer.position();
+		int length = buffer.getInt();
+		int checksum = buffer.getInt();
+		if (length < 0 || length > buffer.remaining()) {
+			buffer.position(start);
+			return null;
+		}
+		ByteBuffer body = buffer.slice(buffer.position(), length);
+		CRC32 crc = new CRC32();
+		crc.update(body.duplicate());
+		if ((int) crc.getValue() != checksum) {
+			buffer.position(start);
+			return null;
+		}
+		buffer.position(buffer.position() + length);
+		return body;
+	}
+
+	private static int entrySize(String appId, String version) {
+		return 8 + appId.getBytes(StandardCharsets.UTF_8).length
+				+ version.getBytes(StandardCharsets.UTF_8).length;
+	}
+
+	private static void writeEntry(ByteBuffer buffer, String appId,
+			String version) {
+		for (String value : new String[] { appId, version }) {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			buffer.putInt(bytes.length).put(bytes);
+		}
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
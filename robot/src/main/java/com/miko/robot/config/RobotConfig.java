@@ -1,5 +1,7 @@
 package com.miko.robot.config;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -7,11 +9,40 @@ public class RobotConfig {
 
 	public static ConcurrentMap<String, String> installedApps;
 	public static Long size;
+	// Root for downloads and installed artifacts
+	public static String dataDir;
+
+	private static volatile InstalledAppsStore installedAppsStore;
 
 	static {
-		// fetching or initializing the installed Apps.
+		// filled from disk by loadInstalledApps()
 		installedApps = new ConcurrentHashMap<>();
-		installedApps.put("1", "1.0.1");
 		size = 100L;
+		dataDir = System.getProperty("miko.data.dir",
+				System.getProperty("user.home") + "/.miko");
+	}
+
+	// Loads the installed apps persisted by earlier runs. Blocking, call it
+	// once at startup before the first fetch.
+	public static synchronized void loadInstalledApps(int checkpointEvery)
+			throws IOException {
+		if (installedAppsStore == null) {
+			installedAppsStore = InstalledAppsStore
+					.open(Path.of(dataDir, "state"), checkpointEvery);
+			installedApps.putAll(installedAppsStore.installed());
+		}
+	}
+
+	// Records an install on disk before it becomes visible to fetches.
+	// Blocking. Fails while no store is loaded, an install kept only in
+	// memory is offered again after the next reboot.
+	public static void markInstalled(String appId, String version)
+			throws IOException {
+		InstalledAppsStore store = installedAppsStore;
+		if (store == null) {
+			throw new IOException("Installed apps store is not loaded");
+		}
+		store.put(appId, version);
+		installedApps.put(appId, version);
 	}
 }
@@ -16,6 +16,12 @@ public class Application implements Serializable {
 	private String name;
 	private String version;
 	private String url;
+	// SHA-256 of the artifact, hex encoded
+	private String checksum;
+	// Patch from the installed version, when the appstore published one
+	private String patchFrom;
+	private String patchUrl;
+	private Long patchSize;
 
 	private String stateId;
 	private ApplicationState state;
@@ -65,6 +71,38 @@ public class Application implements Serializable {
 		this.url = url;
 	}
 
+	public String getChecksum() {
+		return checksum;
+	}
+
+	public void setChecksum(String checksum) {
+		this.checksum = checksum;
+	}
+
+	public String getPatchFrom() {
+		return patchFrom;
+	}
+
+	public void setPatchFrom(String patchFrom) {
+		this.patchFrom = patchFrom;
+	}
+
+	public String getPatchUrl() {
+		return patchUrl;
+	}
+
+	public void setPatchUrl(String patchUrl) {
+		this.patchUrl = patchUrl;
+	}
+
+	public Long getPatchSize() {
+		return patchSize;
+	}
+
+	public void setPatchSize(Long patchSize) {
+		this.patchSize = patchSize;
+	}
+
 	public String getStateId() {
 		return stateId;
 	}
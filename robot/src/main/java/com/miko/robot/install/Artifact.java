@@ -0,0 +1,33 @@
+package com.miko.robot.install;
+
+// A fully downloaded file together with its SHA-256, hex encoded.
+public class Artifact {
+
+	private final String path;
+	private final String sha256;
+	private final long size;
+
+	public Artifact(String path, String sha256, long size) {
+		this.path = path;
+		this.sha256 = sha256;
+		this.size = size;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public String getSha256() {
+		return sha256;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		return "Artifact [path=" + path + ", sha256=" + sha256 + ", size="
+				+ size + "]";
+	}
+}
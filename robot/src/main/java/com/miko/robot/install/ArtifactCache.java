@@ -0,0 +1,174 @@
+package com.miko.robot.install;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.file.CopyOptions;
+import io.vertx.core.file.FileProps;
+import io.vertx.core.file.FileSystem;
+import io.vertx.core.json.JsonObject;
+
+// Verified artifacts keyed by their SHA-256, so retries, reinstalls and
+// downgrades find the bytes on disk instead of downloading them again.
+// Entries are hard links where the file system allows it, the installed
+// copy and the cached one then share their blocks. The least recently
+// used entries are evicted once the cache grows past its budget, the file
+// modification time carries the recency across restarts.
+public class ArtifactCache {
+
+	private final Vertx vertx;
+	private final String directory;
+	private final long budget;
+
+	// sha256 to size, in access order
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(
+			16, 0.75f, true);
+	private long bytes;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder bytesSaved = new LongAdder();
+
+	public ArtifactCache(Vertx vertx, String directory, long budget) {
+		this.vertx = vertx;
+		this.directory = directory;
+		this.budget = budget;
+	}
+
+	public Future<Void> start() {
+		FileSystem fs = vertx.fileSystem();
+		return fs.mkdirs(directory).compose(v -> fs.readDir(directory))
+				.compose(paths -> {
+					List<Future<FileProps>> props = new ArrayList<>();
+					for (String path : paths) {
+						props.add(fs.props(path));
+					}
+					return Future.all(props).map(all -> {
+						List<Integer> order = new ArrayList<>();
+						for (int i = 0; i < paths.size(); i++) {
+							order.add(i);
+						}
+						order.sort(Comparator.comparingLong(
+								i -> props.get(i).result().lastModifiedTime()));
+						for (int i : order) {
+							add(Path.of(paths.get(i)).getFileName().toString(),
+									props.get(i).result().size());
+						}
+						return null;
+					});
+				}).compose(v -> evict())
+				.onSuccess(v -> System.out.println("Artifact cache holds "
+						+ entries.size() + " artifacts, " + bytes + " bytes"));
+	}
+
+	// Places the cached artifact at `target`. Completes with null on a miss.
+	public Future<Artifact> lookup(String sha256, String target) {
+		String key = sha256 == null ? null : sha256.toLowerCase();
+		Long size = key == null ? null : entries.get(key);
+		if (size == null) {
+			misses.increment();
+			return Future.succeededFuture();
+		}
+		String cached = path(key);
+		FileSystem fs = vertx.fileSystem();
+		return fs.mkdirs(Path.of(target).getParent().toString())
+				.compose(v -> fs.delete(target).otherwiseEmpty())
+				.compose(v -> place(cached, target)).map(v -> {
+					hits.increment();
+					bytesSaved.add(size);
+					touch(cached);
+					return new Artifact(target, key, size);
+				}).recover(err -> {
+					System.err.println("Artifact cache entry unusable: " + key
+							+ " - " + err.getMessage());
+					misses.increment();
+					// Forget entries removed behind our back
+					return fs.exists(cached).map(exists -> {
+						if (!exists) {
+							remove(key);
+						}
+						return null;
+					});
+				});
+	}
+
+	// Adds a verified artifact, it stays where it is
+	public Future<Void> store(Artifact artifact) {
+		String key = artifact.getSha256().toLowerCase();
+		if (entries.containsKey(key) || artifact.getSize() > budget) {
+			return Future.succeededFuture();
+		}
+		String cached = path(key);
+		return place(artifact.getPath(), cached).compose(v -> {
+			add(key, artifact.getSize());
+			return evict();
+		}).recover(err -> {
+			System.err.println("Failed to cache artifact " + key + ": "
+					+ err.getMessage());
+			return Future.succeededFuture();
+		});
+	}
+
+	public JsonObject metrics() {
+		long hitCount = hits.sum();
+		long missCount = misses.sum();
+		long total = hitCount + missCount;
+		return new JsonObject().put("entries", entries.size())
+				.put("bytes", bytes).put("budget", budget)
+				.put("hits", hitCount).put("misses", missCount)
+				.put("hitRate", total == 0 ? 0.0 : (double) hitCount / total)
+				.put("bytesSaved", bytesSaved.sum());
+	}
+
+	private Future<Void> place(String existing, String link) {
+		FileSystem fs = vertx.fileSystem();
+		return fs.link(link, existing).recover(err -> fs.copy(existing, link,
+				new CopyOptions().setReplaceExisting(true)));
+	}
+
+	private void add(String key, long size) {
+		Long previous = entries.put(key, size);
+		bytes += size - (previous == null ? 0 : previous);
+	}
+
+	private void remove(String key) {
+		Long size = entries.remove(key);
+		if (size != null) {
+			bytes -= size;
+		}
+	}
+
+	private Future<Void> evict() {
+		List<Future<Void>> deletes = new ArrayList<>();
+		Iterator<Map.Entry<String, Long>> eldest = entries.entrySet()
+				.iterator();
+		while (bytes > budget && eldest.hasNext()) {
+			Map.Entry<String, Long> entry = eldest.next();
+			bytes -= entry.getValue();
+			eldest.remove();
+			System.out.println("Evicting cached artifact " + entry.getKey());
+			deletes.add(vertx.fileSystem().delete(path(entry.getKey()))
+					.otherwiseEmpty());
+		}
+		return Future.all(deletes).mapEmpty();
+	}
+
+	private void touch(String path) {
+		vertx.executeBlocking(() -> Files.setLastModifiedTime(Path.of(path),
+				FileTime.fromMillis(System.currentTimeMillis())), false);
+	}
+
+	private String path(String key) {
+		return directory + "/" + key;
+	}
+}
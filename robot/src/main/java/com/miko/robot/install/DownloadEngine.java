@@ -0,0 +1,282 @@
+package com.miko.robot.install;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.CopyOptions;
+import io.vertx.core.file.FileSystem;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.PoolOptions;
+import io.vertx.core.http.RequestOptions;
+import io.vertx.core.json.JsonObject;
+
+// Streams artifacts to disk. The response is written to a ".part" file in
+// fixed size chunks while a SHA-256 is computed over the same bytes, so
+// memory use does not depend on the artifact size. A failed transfer is
+// resumed from the bytes already on disk with an HTTP Range request.
+public class DownloadEngine {
+
+	private final Vertx vertx;
+	private final HttpClient client;
+	private final String directory;
+	private final int chunkSize;
+	private final int maxAttempts;
+	private final long retryDelay;
+	private final long syncBytes;
+
+	public DownloadEngine(Vertx vertx, JsonObject config, String directory) {
+		this.vertx = vertx;
+		this.directory = directory;
+		this.chunkSize = config.getInteger("download.chunk.size", 64 * 1024);
+		this.maxAttempts = config.getInteger("download.attempts", 5);
+		this.retryDelay = config.getLong("download.retry.delay.ms", 2000L);
+		this.syncBytes = config.getLong("download.sync.bytes",
+				4L * 1024 * 1024);
+		this.client = vertx.createHttpClient(
+				new HttpClientOptions().setShared(true).setName("artifacts")
+						.setKeepAlive(true).setTcpKeepAlive(true)
+						.setConnectTimeout(config
+								.getInteger("http.connect.timeout.ms", 10_000))
+						.setIdleTimeout(config
+								.getInteger("download.idle.timeout.s", 60)),
+				new PoolOptions().setHttp1MaxSize(
+						config.getInteger("install.concurrency.download", 3)));
+	}
+
+	// Where download() and patch() leave the artifact called `name`
+	public String path(String name) {
+		return directory + "/" + name;
+	}
+
+	public Future<Artifact> download(String url, String name) {
+		return download(url, name, Long.MAX_VALUE, null);
+	}
+
+	// Resumes from at most `trusted` bytes of an earlier partial file, the
+	// part known to have reached the disk before a restart. Every
+	// download.sync.bytes the file is forced to disk and `onSync` gets the
+	// offset that is now durable.
+	public Future<Artifact> download(String url, String name, long trusted,
+			Handler<Long> onSync) {
+		String target = path(name);
+		return vertx.fileSystem().mkdirs(directory)
+				.compose(v -> attempt(url, target, 1, trusted, onSync));
+	}
+
+	// Rebuilds the artifact from the installed version `source` and the
+	// patch at `url`. There is no resume here, the caller falls back to a
+	// full download when the patch fails.
+	public Future<Artifact> patch(String url, String source, String name) {
+		String target = path(name);
+		String part = target + ".patching";
+		FileSystem fs = vertx.fileSystem();
+
+		return fs.mkdirs(directory).compose(v -> request(url, 0))
+				.compose(response -> fs
+						.open(source, new OpenOptions().setRead(true))
+						.compose(sourceFile -> fs
+								.open(part, new OpenOptions().setCreate(true)
+										.setWrite(true)
+										.setTruncateExisting(true))
+								.compose(partFile -> {
+									PatchApplier applier = new PatchApplier(
+											sourceFile, partFile, chunkSize,
+											sha256());
+									return response.pipeTo(applier)
+											.eventually(() -> partFile.close())
+											.map(applier);
+								}).eventually(() -> sourceFile.close()))
+						.onFailure(err -> response.request().reset()))
+				.compose(applier -> fs
+						.move(part, target,
+								new CopyOptions().setReplaceExisting(true))
+						.map(v -> new Artifact(target, applier.sha256(),
+								applier.size())))
+				.onFailure(err -> fs.delete(part));
+	}
+
+	private Future<Artifact> attempt(String url, String target, int attempt,
+			long trusted, Handler<Long> onSync) {
+		return transfer(url, target, trusted, onSync).recover(err -> {
+			int status = err instanceof DownloadException
+					? ((DownloadException) err).getStatusCode()
+					: 0;
+			if (status == 416 && attempt < maxAttempts) {
+				// The partial file does not match the artifact any more
+				return vertx.fileSystem().delete(target + ".part")
+						.compose(v -> attempt(url, target, attempt + 1, 0,
+								onSync));
+			}
+			// HTTP errors other than server side ones will not go away
+			if (attempt >= maxAttempts || (status >= 400 && status < 500)) {
+				return Future.failedFuture(err);
+			}
+			System.err.println("Download interrupted, resuming " + url
+					+ " (attempt " + (attempt + 1) + "): " + err.getMessage());
+			Promise<Artifact> promise = Promise.promise();
+			// Bytes written by this process are all in the file
+			vertx.setTimer(retryDelay * attempt,
+					id -> attempt(url, target, attempt + 1, Long.MAX_VALUE,
+							onSync).onComplete(promise));
+			return promise.future();
+		});
+	}
+
+	private Future<Artifact> transfer(String url, String target, long trusted,
+			Handler<Long> onSync) {
+		String part = target + ".part";
+		FileSystem fs = vertx.fileSystem();
+		MessageDigest digest = sha256();
+
+		return fs.exists(part)
+				.compose(exists -> exists ? fs.props(part).map(p -> p.size())
+						: Future.succeededFuture(0L))
+				.compose(size -> size > trusted
+						? fs.truncate(part, trusted).map(trusted)
+						: Future.succeededFuture(size))
+				.compose(offset -> hashExisting(part, offset, digest)
+						.compose(v -> request(url, offset))
+						.compose(response -> {
+							// Origin ignored the range, start over
+							boolean restart = offset > 0
+									&& response.statusCode() != 206;
+							if (restart) {
+								digest.reset();
+							}
+							long start = restart ? 0 : offset;
+							return fs
+									.open(part, new OpenOptions().setCreate(true)
+											.setWrite(true)
+											.setTruncateExisting(start == 0))
+									.compose(file -> stream(response, file,
+											start, digest, onSync));
+						}))
+				.compose(size -> fs.move(part, target,
+						new CopyOptions().setReplaceExisting(true))
+						.map(v -> new Artifact(target,
+								HexFormat.of().formatHex(digest.digest()),
+								size)));
+	}
+
+	private Future<HttpClientResponse> request(String url, long offset) {
+		RequestOptions options = new RequestOptions().setMethod(HttpMethod.GET)
+				.setAbsoluteURI(url);
+		if (offset > 0) {
+			options.putHeader("Range", "bytes=" + offset + "-");
+		}
+		return client.request(options).compose(req -> req.send())
+				.compose(response -> {
+					int status = response.statusCode();
+					if (status == 200 || status == 206) {
+						// Hold the body back until the target file is open
+						response.pause();
+						return Future.succeededFuture(response);
+					}
+					// Release the connection before failing
+					return response.body()
+							.transform(ar -> Future.failedFuture(
+									new DownloadException(status,
+											"Download failed with status "
+													+ status)));
+				}, err -> Future.failedFuture(
+						new DownloadException("Download failed", err)));
+	}
+
+	// Writes the response body at `start`, in chunks of chunkSize, pausing
+	// the response while the file write queue is full.
+	private Future<Long> stream(HttpClientResponse response, AsyncFile file,
+			long start, MessageDigest digest, Handler<Long> onSync) {
+		Promise<Long> promise = Promise.promise();
+		file.setWriteQueueMaxSize(chunkSize * 4);
+		long[] position = { start };
+		long[] synced = { start };
+		Buffer[] chunk = { Buffer.buffer(chunkSize) };
+		List<Future<Void>> unsynced = new ArrayList<>();
+
+		response.handler(data -> {
+			digest.update(data.getBytes());
+			chunk[0].appendBuffer(data);
+			if (chunk[0].length() >= chunkSize) {
+				Buffer full = chunk[0];
+				chunk[0] = Buffer.buffer(chunkSize);
+				unsynced.add(file.write(full, position[0]));
+				position[0] += full.length();
+				if (onSync != null && position[0] - synced[0] >= syncBytes) {
+					// Positioned writes may complete out of order, wait for
+					// all of them before forcing the file
+					long durable = position[0];
+					synced[0] = durable;
+					Future.all(new ArrayList<>(unsynced))
+							.compose(all -> file.flush())
+							.onSuccess(f -> onSync.handle(durable));
+					unsynced.clear();
+				}
+				if (file.writeQueueFull()) {
+					response.pause();
+					file.drainHandler(v -> response.resume());
+				}
+			}
+		});
+		// Keep what did arrive, the next attempt resumes after it
+		response.exceptionHandler(err -> file.write(chunk[0], position[0])
+				.compose(v -> file.flush()).eventually(() -> file.close())
+				.onComplete(ar -> promise.tryFail(
+						new DownloadException("Download interrupted", err))));
+		response.endHandler(v -> {
+			Buffer rest = chunk[0];
+			Future<Void> written = rest.length() > 0
+					? file.write(rest, position[0])
+					: Future.succeededFuture();
+			written.compose(w -> file.flush()).eventually(() -> file.close())
+					.onSuccess(c -> promise
+							.tryComplete(position[0] + rest.length()))
+					.onFailure(promise::tryFail);
+		});
+		response.resume();
+		return promise.future();
+	}
+
+	// Feeds the bytes of an interrupted transfer into the digest so the
+	// checksum covers the whole artifact after resuming.
+	private Future<Void> hashExisting(String part, long length,
+			MessageDigest digest) {
+		if (length == 0) {
+			return Future.succeededFuture();
+		}
+		return vertx.fileSystem().open(part, new OpenOptions().setRead(true))
+				.compose(file -> {
+					Promise<Void> promise = Promise.promise();
+					file.setReadBufferSize(chunkSize).setReadLength(length)
+							.handler(data -> digest.update(data.getBytes()))
+							.exceptionHandler(promise::tryFail)
+							.endHandler(v -> promise.tryComplete());
+					return promise.future()
+							.eventually(() -> file.close());
+				});
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public Future<Void> close() {
+		return client.close();
+	}
+}
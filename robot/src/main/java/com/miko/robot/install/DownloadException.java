@@ -0,0 +1,24 @@
+package com.miko.robot.install;
+
+// Failed transfer of an artifact. statusCode is the HTTP status the origin
+// answered with, or 0 when the transfer failed below HTTP.
+public class DownloadException extends RuntimeException {
+
+	private static final long serialVersionUID = 6418573264581263471L;
+
+	private final int statusCode;
+
+	public DownloadException(int statusCode, String message) {
+		super(message);
+		this.statusCode = statusCode;
+	}
+
+	public DownloadException(String message, Throwable cause) {
+		super(message, cause);
+		this.statusCode = 0;
+	}
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+}
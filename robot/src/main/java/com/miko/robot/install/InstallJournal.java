@@ -0,0 +1,290 @@
+package com.miko.robot.install;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.miko.robot.codec.ApplicationCodec;
+import com.miko.robot.domain.Application;
+
+import io.vertx.core.buffer.Buffer;
+
+// Durable record of the installs the worker still owes, kept in an
+// append-only memory mapped file. Every record is forced to disk before
+// the call returns, so a power cut loses nothing that was acknowledged.
+//
+// Record layout: payload length (int), CRC32 of type and payload (int),
+// type (byte), payload. Replay stops at the first record whose length or
+// CRC does not check out, which is where a torn write left off. Apps are
+// stored with the event bus ApplicationCodec, retry count included.
+//
+// The file only grows, compact() rewrites it with the live state into a
+// new file that atomically replaces the old one.
+public class InstallJournal implements AutoCloseable {
+
+	private static final int HEADER = 9;
+	private static final byte ENQUEUE = 'Q';
+	private static final byte RETRY = 'R';
+	private static final byte PROGRESS = 'P';
+	private static final byte DONE = 'D';
+
+	// An install the worker owes after a restart
+	public static class Pending {
+
+		private final Application app;
+		private long nextAttempt;
+		private long offset;
+
+		Pending(Application app) {
+			this.app = app;
+		}
+
+		public Application getApp() {
+			return app;
+		}
+
+		// Epoch millis of the scheduled retry, 0 when it can run right away
+		public long getNextAttempt() {
+			return nextAttempt;
+		}
+
+		// Bytes of the download known to be on disk
+		public long getOffset() {
+			return offset;
+		}
+	}
+
+	private static final ApplicationCodec CODEC = new ApplicationCodec();
+
+	private final Path path;
+	private final int initialSize;
+	private final Map<String, Pending> pending = new LinkedHashMap<>();
+
+	private FileChannel channel;
+	private MappedByteBuffer map;
+	private int position;
+	private int records;
+
+	private InstallJournal(Path path, int initialSize) {
+		this.path = path;
+		this.initialSize = initialSize;
+	}
+
+	public static InstallJournal open(Path path, int initialSize)
+			throws IOException {
+		Files.createDirectories(path.getParent());
+		InstallJournal journal = new InstallJournal(path, initialSize);
+		journal.map(Math.max(initialSize, (int) sizeOf(path)));
+		journal.replay();
+		return journal;
+	}
+
+	private static long sizeOf(Path path) throws IOException {
+		return Files.exists(path) ? Files.size(path) : 0;
+	}
+
+	// Installs that were not finished when the journal was last written,
+	// in the order they were first enqueued
+	public List<Pending> pending() {
+		return new ArrayList<>(pending.values());
+	}
+
+	public void enqueue(Application app) {
+		Buffer payload = Buffer.buffer();
+		CODEC.encodeToWire(payload, app);
+		append(ENQUEUE, payload);
+		Pending entry = new Pending(app);
+		Pending previous = pending.put(app.getAppId(), entry);
+		if (previous != null && sameVersion(previous.app, app)) {
+			entry.offset = previous.offset;
+		}
+	}
+
+	public void retry(Application app, long nextAttempt) {
+		enqueue(app);
+		append(RETRY, key(app.getAppId()).appendLong(nextAttempt));
+		pending.get(app.getAppId()).nextAttempt = nextAttempt;
+	}
+
+	public void progress(String appId, long offset) {
+		Pending entry = pending.get(appId);
+		if (entry == null) {
+			return;
+		}
+		append(PROGRESS, key(appId).appendLong(offset));
+		entry.offset = offset;
+	}
+
+	public void done(String appId) {
+		if (pending.remove(appId) != null) {
+			append(DONE, key(appId));
+		}
+	}
+
+	// Rewrites the journal with one record per pending install. The new
+	// file is complete on disk before it replaces the old one, a crash in
+	// between leaves the old journal in place.
+	public void compact() throws IOException {
+		Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+		Files.deleteIfExists(compacted);
+		InstallJournal fresh = new InstallJournal(compacted, initialSize);
+		fresh.map(initialSize);
+		for (Pending entry : pending()) {
+			if (entry.nextAttempt > 0) {
+				fresh.retry(entry.app, entry.nextAttempt);
+			} else {
+				fresh.enqueue(entry.app);
+			}
+			if (entry.offset > 0) {
+				fresh.progress(entry.app.getAppId(), entry.offset);
+			}
+		}
+		fresh.unmap();
+
+		unmap();
+		Files.move(compacted, path, StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+		map(Math.max(initialSize, (int) sizeOf(path)));
+		replay();
+	}
+
+	// Bytes appended since the last compaction
+	public int size() {
+		return position;
+	}
+
+	public int records() {
+		return records;
+	}
+
+	@Override
+	public void close() {
+		unmap();
+	}
+
+	private void replay() {
+		pending.clear();
+		position = 0;
+		records = 0;
+		CRC32 crc = new CRC32();
+		while (position + HEADER <= map.capacity()) {
+			int length = map.getInt(position);
+			if (length <= 0 || position + HEADER + length > map.capacity()) {
+				break;
+			}
+			int checksum = map.getInt(position + 4);
+			byte[] record = new byte[length + 1];
+			map.get(position + 8, record);
+			crc.reset();
+			crc.update(record);
+			if ((int) crc.getValue() != checksum) {
+				System.err.println("Install journal ends with a torn record at "
+						+ position);
+				break;
+			}
+			apply(record[0], Buffer.buffer(record).slice(1, record.length));
+			position += HEADER + length;
+			records++;
+		}
+		// Clear whatever a torn write left behind
+		for (int i = position; i < map.capacity(); i++) {
+			map.put(i, (byte) 0);
+		}
+	}
+
+	private void apply(byte type, Buffer payload) {
+		if (type == ENQUEUE) {
+			Application app = CODEC.decodeFromWire(0, payload);
+			Pending entry = new Pending(app);
+			Pending previous = pending.put(app.getAppId(), entry);
+			if (previous != null && sameVersion(previous.app, app)) {
+				entry.offset = previous.offset;
+			}
+			return;
+		}
+		int keyLength = payload.getInt(0);
+		String appId = payload.getString(4, 4 + keyLength,
+				StandardCharsets.UTF_8.name());
+		Pending entry = pending.get(appId);
+		if (type == DONE) {
+			pending.remove(appId);
+		} else if (entry != null && type == RETRY) {
+			entry.nextAttempt = payload.getLong(4 + keyLength);
+		} else if (entry != null && type == PROGRESS) {
+			entry.offset = payload.getLong(4 + keyLength);
+		}
+	}
+
+	private void append(byte type, Buffer payload) {
+		int length = payload.length();
+		if (position + HEADER + length > map.capacity()) {
+			grow(position + HEADER + length);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(type);
+		crc.update(payload.getBytes());
+		// Body first and the length last, a record is only visible to the
+		// replay once it is complete
+		map.putInt(position + 4, (int) crc.getValue());
+		map.put(position + 8, type);
+		map.put(position + HEADER, payload.getBytes());
+		map.putInt(position, length);
+		map.force(position, HEADER + length);
+		position += HEADER + length;
+		records++;
+	}
+
+	private void grow(int needed) {
+		int size = map.capacity();
+		while (size < needed) {
+			size *= 2;
+		}
+		try {
+			unmap();
+			map(size);
+		} catch (IOException e) {
+			throw new IllegalStateException("Install journal cannot grow", e);
+		}
+	}
+
+	private void map(int size) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+	}
+
+	private void unmap() {
+		if (map != null) {
+			map.force();
+			map = null;
+		}
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				System.err.println("Failed to close install journal: "
+						+ e.getMessage());
+			}
+			channel = null;
+		}
+	}
+
+	private static Buffer key(String appId) {
+		byte[] bytes = appId.getBytes(StandardCharsets.UTF_8);
+		return Buffer.buffer().appendInt(bytes.length).appendBytes(bytes);
+	}
+
+	private static boolean sameVersion(Application a, Application b) {
+		return a.getVersion() != null && a.getVersion().equals(b.getVersion());
+	}
+}
@@ -0,0 +1,240 @@
+package com.miko.robot.install;
+
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.function.Supplier;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.streams.WriteStream;
+
+// Rebuilds an artifact from the installed version and a patch while the
+// patch is still arriving. Each operation is decoded as soon as its bytes
+// are in and the resulting writes run one after another, copies reading
+// the installed artifact in chunks, so the SHA-256 is computed in target
+// order. The write queue counts output bytes not yet on disk, a copy of a
+// large region therefore pauses the patch stream like any other write.
+//
+// Patch layout, big endian: the magic "MKP1", source size and target size
+// as longs, then 'C' offset (long) length (int) to copy from the source,
+// 'D' length (int) followed by literal bytes, and 'E' to end the patch.
+public class PatchApplier implements WriteStream<Buffer> {
+
+	private static final int MAGIC = 0x4d4b5031;
+	private static final int HEADER = 20;
+	private static final byte COPY = 'C';
+	private static final byte DATA = 'D';
+	private static final byte END = 'E';
+
+	private final AsyncFile source;
+	private final AsyncFile target;
+	private final int chunkSize;
+	private final MessageDigest digest;
+
+	private Buffer pending = Buffer.buffer();
+	private long sourceSize = -1;
+	private long targetSize = -1;
+	// Bytes of literal data still to come for the current 'D' operation
+	private int literal;
+	private boolean ended;
+
+	private Future<Void> tail = Future.succeededFuture();
+	private long position;
+	private long queued;
+	private int maxQueued;
+	private Throwable failure;
+
+	private Handler<Void> drainHandler;
+	private Handler<Throwable> exceptionHandler;
+
+	public PatchApplier(AsyncFile source, AsyncFile target, int chunkSize,
+			MessageDigest digest) {
+		this.source = source;
+		this.target = target;
+		this.chunkSize = chunkSize;
+		this.digest = digest;
+		this.maxQueued = chunkSize * 4;
+	}
+
+	@Override
+	public PatchApplier exceptionHandler(Handler<Throwable> handler) {
+		this.exceptionHandler = handler;
+		return this;
+	}
+
+	@Override
+	public Future<Void> write(Buffer data) {
+		if (failure != null) {
+			return Future.failedFuture(failure);
+		}
+		pending.appendBuffer(data);
+		try {
+			decode();
+		} catch (IllegalStateException e) {
+			fail(e);
+			return Future.failedFuture(e);
+		}
+		return tail;
+	}
+
+	@Override
+	public void write(Buffer data, Handler<AsyncResult<Void>> handler) {
+		write(data).onComplete(handler);
+	}
+
+	@Override
+	public void end(Handler<AsyncResult<Void>> handler) {
+		end().onComplete(handler);
+	}
+
+	@Override
+	public Future<Void> end() {
+		return tail.compose(v -> {
+			if (failure != null) {
+				return Future.failedFuture(failure);
+			}
+			if (!ended || pending.length() > 0) {
+				return Future.failedFuture(
+						new IllegalStateException("Patch truncated"));
+			}
+			if (position != targetSize) {
+				return Future.failedFuture(new IllegalStateException(
+						"Patch produced " + position + " of " + targetSize
+								+ " bytes"));
+			}
+			return target.flush();
+		});
+	}
+
+	@Override
+	public PatchApplier setWriteQueueMaxSize(int maxSize) {
+		this.maxQueued = maxSize;
+		return this;
+	}
+
+	@Override
+	public boolean writeQueueFull() {
+		return queued >= maxQueued;
+	}
+
+	@Override
+	public PatchApplier drainHandler(Handler<Void> handler) {
+		this.drainHandler = handler;
+		return this;
+	}
+
+	public String sha256() {
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	public long size() {
+		return position;
+	}
+
+	private void decode() {
+		int pos = 0;
+		int length = pending.length();
+		if (targetSize < 0) {
+			if (length < HEADER) {
+				return;
+			}
+			if (pending.getInt(0) != MAGIC) {
+				throw new IllegalStateException("Not a patch");
+			}
+			sourceSize = pending.getLong(4);
+			targetSize = pending.getLong(12);
+			pos = HEADER;
+		}
+		while (pos < length) {
+			if (literal > 0) {
+				int n = Math.min(literal, length - pos);
+				data(pending.getBuffer(pos, pos + n));
+				literal -= n;
+				pos += n;
+				continue;
+			}
+			if (ended) {
+				throw new IllegalStateException("Data after end of patch");
+			}
+			byte op = pending.getByte(pos);
+			if (op == COPY) {
+				if (length - pos < 13) {
+					break;
+				}
+				copy(pending.getLong(pos + 1), pending.getInt(pos + 9));
+				pos += 13;
+			} else if (op == DATA) {
+				if (length - pos < 5) {
+					break;
+				}
+				literal = pending.getInt(pos + 1);
+				pos += 5;
+			} else if (op == END) {
+				ended = true;
+				pos++;
+			} else {
+				throw new IllegalStateException(
+						"Unknown patch operation " + op);
+			}
+		}
+		pending = pending.getBuffer(pos, length);
+	}
+
+	private void data(Buffer data) {
+		long at = position;
+		position += data.length();
+		enqueue(data.length(), () -> {
+			digest.update(data.getBytes());
+			return target.write(data, at);
+		});
+	}
+
+	private void copy(long offset, int length) {
+		if (offset < 0 || length < 0 || offset + length > sourceSize) {
+			throw new IllegalStateException("Copy outside of the source");
+		}
+		for (int done = 0; done < length; done += chunkSize) {
+			int n = Math.min(chunkSize, length - done);
+			long from = offset + done;
+			long at = position;
+			position += n;
+			enqueue(n, () -> source.read(Buffer.buffer(n), 0, from, n)
+					.compose(chunk -> {
+						if (chunk.length() != n) {
+							return Future.failedFuture(new IllegalStateException(
+									"Installed artifact is too short"));
+						}
+						digest.update(chunk.getBytes());
+						return target.write(chunk, at);
+					}));
+		}
+	}
+
+	private void enqueue(int bytes, Supplier<Future<Void>> write) {
+		queued += bytes;
+		tail = tail.compose(v -> write.get()).andThen(ar -> {
+			if (ar.failed()) {
+				fail(ar.cause());
+				return;
+			}
+			queued -= bytes;
+			Handler<Void> handler = drainHandler;
+			if (handler != null && queued <= maxQueued / 2) {
+				drainHandler = null;
+				handler.handle(null);
+			}
+		});
+	}
+
+	private void fail(Throwable err) {
+		if (failure == null) {
+			failure = err;
+			if (exceptionHandler != null) {
+				exceptionHandler.handle(err);
+			}
+		}
+	}
+}
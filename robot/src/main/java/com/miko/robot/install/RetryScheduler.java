@@ -0,0 +1,177 @@
+package com.miko.robot.install;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+// Schedules install retries with exponential backoff and jitter. Pending
+// retries sit in a hashed timer wheel advanced by one periodic timer, which
+// only runs while something is scheduled. The jitter keeps a fleet of
+// robots that failed on the same release from retrying, and reporting
+// their state, in lockstep. Not thread safe, use it from the owning
+// verticle's context only.
+public class RetryScheduler {
+
+	private static class Entry {
+		final String key;
+		final long nextAttempt;
+		final Runnable task;
+		int rounds;
+
+		Entry(String key, long nextAttempt, int rounds, Runnable task) {
+			this.key = key;
+			this.nextAttempt = nextAttempt;
+			this.rounds = rounds;
+			this.task = task;
+		}
+	}
+
+	private final Vertx vertx;
+	private final Random random;
+	private final long tick;
+	private final long baseDelay;
+	private final long maxDelay;
+
+	private final List<List<Entry>> wheel;
+	private final Map<String, Entry> scheduled = new HashMap<>();
+	private int cursor;
+	private long timerId = -1;
+
+	public RetryScheduler(Vertx vertx, JsonObject config) {
+		this(vertx, config, new Random());
+	}
+
+	RetryScheduler(Vertx vertx, JsonObject config, Random random) {
+		this.vertx = vertx;
+		this.random = random;
+		this.tick = config.getLong("install.retry.tick.ms", 1000L);
+		this.baseDelay = config.getLong("install.retry.base.ms", 5000L);
+		this.maxDelay = config.getLong("install.retry.max.ms",
+				10 * 60 * 1000L);
+		int slots = config.getInteger("install.retry.wheel.slots", 512);
+		this.wheel = new ArrayList<>(slots);
+		for (int i = 0; i < slots; i++) {
+			wheel.add(new ArrayList<>());
+		}
+	}
+
+	// Permanent failures will fail the same way on every attempt: the
+	// artifact is gone or the request is refused. Timeouts, throttling,
+	// server errors and broken connections are worth another try.
+	public static boolean isPermanent(Throwable err) {
+		if (err instanceof DownloadException) {
+			int status = ((DownloadException) err).getStatusCode();
+			return status >= 400 && status < 500 && status != 408
+					&& status != 429;
+		}
+		return false;
+	}
+
+	// Delay before retry number `attempt` (1 based): half of the capped
+	// exponential delay plus a random share of the other half
+	public long backoff(int attempt) {
+		long ceiling = baseDelay << Math.min(Math.max(attempt - 1, 0), 30);
+		if (ceiling <= 0 || ceiling > maxDelay) {
+			ceiling = maxDelay;
+		}
+		long half = ceiling / 2;
+		return half + (long) (random.nextDouble() * (ceiling - half));
+	}
+
+	// Runs `task` after the backoff for `attempt`, replacing a retry that is
+	// already scheduled under `key`. Returns the time of the next attempt.
+	public long schedule(String key, int attempt, Runnable task) {
+		return scheduleAt(key, System.currentTimeMillis() + backoff(attempt),
+				task);
+	}
+
+	// Runs `task` at `nextAttempt` (epoch millis), or on the next tick when
+	// that time has passed
+	public long scheduleAt(String key, long nextAttempt, Runnable task) {
+		cancel(key);
+		long delay = Math.max(0, nextAttempt - System.currentTimeMillis());
+		long ticks = Math.max(1, (delay + tick - 1) / tick);
+		int slot = (int) ((cursor + ticks) % wheel.size());
+		int rounds = (int) ((ticks - 1) / wheel.size());
+		Entry entry = new Entry(key, nextAttempt, rounds, task);
+		wheel.get(slot).add(entry);
+		scheduled.put(key, entry);
+		if (timerId < 0) {
+			timerId = vertx.setPeriodic(tick, id -> advance());
+		}
+		return nextAttempt;
+	}
+
+	public boolean cancel(String key) {
+		Entry entry = scheduled.remove(key);
+		if (entry == null) {
+			return false;
+		}
+		for (List<Entry> slot : wheel) {
+			if (slot.remove(entry)) {
+				break;
+			}
+		}
+		stopWhenIdle();
+		return true;
+	}
+
+	public boolean isScheduled(String key) {
+		return scheduled.containsKey(key);
+	}
+
+	// Epoch millis of the next attempt, -1 when none is scheduled
+	public long nextAttempt(String key) {
+		Entry entry = scheduled.get(key);
+		return entry == null ? -1 : entry.nextAttempt;
+	}
+
+	public int size() {
+		return scheduled.size();
+	}
+
+	public void close() {
+		if (timerId >= 0) {
+			vertx.cancelTimer(timerId);
+			timerId = -1;
+		}
+		for (List<Entry> slot : wheel) {
+			slot.clear();
+		}
+		scheduled.clear();
+	}
+
+	private void advance() {
+		cursor = (cursor + 1) % wheel.size();
+		List<Runnable> due = new ArrayList<>();
+		Iterator<Entry> entries = wheel.get(cursor).iterator();
+		while (entries.hasNext()) {
+			Entry entry = entries.next();
+			if (entry.rounds > 0) {
+				entry.rounds--;
+			} else {
+				entries.remove();
+				scheduled.remove(entry.key);
+				due.add(entry.task);
+			}
+		}
+		stopWhenIdle();
+		// Tasks may schedule again, run them once the slot is settled
+		for (Runnable task : due) {
+			task.run();
+		}
+	}
+
+	private void stopWhenIdle() {
+		if (scheduled.isEmpty() && timerId >= 0) {
+			vertx.cancelTimer(timerId);
+			timerId = -1;
+		}
+	}
+}
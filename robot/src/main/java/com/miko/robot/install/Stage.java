@@ -0,0 +1,62 @@
+package com.miko.robot.install;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.function.Supplier;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+
+// One step of the install pipeline. Runs at most `concurrency` tasks at a
+// time and queues the rest in submission order. Not thread safe, use it from
+// the owning verticle's context only.
+public class Stage {
+
+	private final String name;
+	private final int concurrency;
+	private final Queue<Runnable> waiting = new ArrayDeque<>();
+	private int running;
+
+	public Stage(String name, int concurrency) {
+		this.name = name;
+		this.concurrency = Math.max(1, concurrency);
+	}
+
+	public <T> Future<T> submit(Supplier<Future<T>> task) {
+		Promise<T> promise = Promise.promise();
+		waiting.add(() -> {
+			running++;
+			Future<T> result;
+			try {
+				result = task.get();
+			} catch (RuntimeException e) {
+				result = Future.failedFuture(e);
+			}
+			result.onComplete(ar -> {
+				running--;
+				promise.handle(ar);
+				runWaiting();
+			});
+		});
+		runWaiting();
+		return promise.future();
+	}
+
+	private void runWaiting() {
+		while (running < concurrency && !waiting.isEmpty()) {
+			waiting.poll().run();
+		}
+	}
+
+	public String name() {
+		return name;
+	}
+
+	public int running() {
+		return running;
+	}
+
+	public int waiting() {
+		return waiting.size();
+	}
+}
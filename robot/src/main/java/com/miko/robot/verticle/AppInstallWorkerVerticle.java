@@ -1,35 +1,63 @@
 package com.miko.robot.verticle;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.miko.robot.client.AppStoreClient;
+import com.miko.robot.client.StateUpdateBatcher;
 import com.miko.robot.config.RobotConfig;
 import com.miko.robot.domain.Application;
 import com.miko.robot.domain.ApplicationState;
 import com.miko.robot.domain.UpdateAppStateRequest;
+import com.miko.robot.install.Artifact;
+import com.miko.robot.install.ArtifactCache;
+import com.miko.robot.install.DownloadEngine;
+import com.miko.robot.install.InstallJournal;
+import com.miko.robot.install.RetryScheduler;
+import com.miko.robot.install.Stage;
 
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
 import io.vertx.core.eventbus.EventBus;
 import io.vertx.core.eventbus.Message;
-import io.vertx.core.http.HttpClient;
-import io.vertx.core.http.HttpMethod;
-import io.vertx.core.http.RequestOptions;
-import io.vertx.core.json.Json;
+import io.vertx.core.file.CopyOptions;
+import io.vertx.core.file.FileSystem;
+import io.vertx.core.json.JsonObject;
 import io.vertx.core.json.jackson.DatabindCodec;
 
 public class AppInstallWorkerVerticle extends AbstractVerticle {
 
 	private static final String ROBOT_ID = "123";
 	private final ConcurrentLinkedQueue<Application> installQueue = new ConcurrentLinkedQueue<>();
-	private final ConcurrentLinkedQueue<Application> errorQueue = new ConcurrentLinkedQueue<>();
-	private final AtomicBoolean isProcessing = new AtomicBoolean(false);
+	// Apps between PICKEDUP and their final state, by appId
+	private final Set<String> inFlight = new HashSet<>();
 	private int retryCountForInstall = 3;
+	private RetryScheduler retryScheduler;
+	private AppStoreClient appStoreClient;
+	private StateUpdateBatcher stateUpdateBatcher;
+
+	private Stage downloadStage;
+	private Stage verifyStage;
+	private Stage installStage;
+
+	private DownloadEngine downloadEngine;
+	private ArtifactCache artifactCache;
+	private InstallJournal journal;
+	// Durable download offsets replayed from the journal, by appId
+	private final Map<String, Long> resumeOffsets = new HashMap<>();
+	// Downloaded artifacts waiting for verification and install, by appId
+	private final Map<String, Artifact> downloads = new HashMap<>();
 
 	static {
 		var objectMapper = DatabindCodec.mapper();
@@ -46,161 +74,336 @@ public class AppInstallWorkerVerticle extends AbstractVerticle {
 	@Override
 	public void start(Promise<Void> startPromise) {
 
+		appStoreClient = new AppStoreClient(vertx, config());
+		stateUpdateBatcher = new StateUpdateBatcher(vertx, appStoreClient,
+				config());
+
+		// Downloads are network bound and verification CPU bound, they can
+		// overlap while installs touching the system run one at a time
+		JsonObject config = config();
+		downloadStage = new Stage("download",
+				config.getInteger("install.concurrency.download", 3));
+		verifyStage = new Stage("verify",
+				config.getInteger("install.concurrency.verify", 2));
+		installStage = new Stage("install",
+				config.getInteger("install.concurrency.install", 1));
+
+		retryCountForInstall = config.getInteger("install.retry.max",
+				retryCountForInstall);
+		retryScheduler = new RetryScheduler(vertx, config);
+
+		downloadEngine = new DownloadEngine(vertx, config,
+				RobotConfig.dataDir + "/downloads");
+
+		// Pending installs survive restarts, replay them before taking new
+		// ones. The worker runs on a worker thread, the journal blocks.
+		try {
+			replayJournal(config);
+		} catch (IOException e) {
+			startPromise.fail(e);
+			return;
+		}
+		long compactInterval = config
+				.getLong("install.journal.compact.interval.ms", 60_000L);
+		vertx.setPeriodic(compactInterval, id -> compactJournal());
+
+		// RobotConfig.size is the disk budget of the cache in MB
+		artifactCache = new ArtifactCache(vertx,
+				RobotConfig.dataDir + "/cache",
+				RobotConfig.size * 1024 * 1024);
+
 		EventBus eventBus = vertx.eventBus();
 
 		eventBus.consumer("app.install", this::enqueueAppForInstallation);
+		eventBus.consumer("artifact.cache.metrics",
+				message -> message.reply(artifactCache.metrics()));
 
-		startPromise.complete();
+		// A cache that cannot be read only costs downloads
+		artifactCache.start().onComplete(ar -> {
+			if (ar.failed()) {
+				System.err.println("Artifact cache unavailable: "
+						+ ar.cause().getMessage());
+			}
+			startPromise.complete();
+			processNextApp();
+		});
 	}
 
-	private void enqueueAppForInstallation(Message<String> message) {
-		Application app = Json.decodeValue(message.body(), Application.class);
-		installQueue.add(app);
-		processNextApp();
+	@Override
+	public void stop(Promise<Void> stopPromise) {
+		retryScheduler.close();
+		journal.close();
+		stateUpdateBatcher.flush().eventually(() -> appStoreClient.close())
+				.eventually(() -> downloadEngine.close())
+				.onComplete(ar -> stopPromise.complete());
 	}
 
-	private void processNextApp() {
-		if (isProcessing.get()) {
-			// Another app is being processed
-			return;
+	private void replayJournal(JsonObject config) throws IOException {
+		long started = System.nanoTime();
+		journal = InstallJournal.open(
+				Path.of(RobotConfig.dataDir, "journal", "install.journal"),
+				config.getInteger("install.journal.size", 256 * 1024));
+		long now = System.currentTimeMillis();
+		for (InstallJournal.Pending pending : journal.pending()) {
+			Application app = pending.getApp();
+			resumeOffsets.put(app.getAppId(), pending.getOffset());
+			if (pending.getNextAttempt() > now) {
+				retryAt(app, pending.getNextAttempt());
+			} else {
+				installQueue.add(app);
+			}
 		}
+		System.out.println("Replayed " + journal.pending().size()
+				+ " pending installs in "
+				+ (System.nanoTime() - started) / 1_000_000 + " ms");
+	}
 
-		Application app = installQueue.poll();
-		if (app == null) {
-			// No app to process
-			processErroredApps();
+	private void compactJournal() {
+		// Only worth it once finished installs dominate the file
+		if (journal.records() <= 2 * journal.pending().size() + 64) {
 			return;
 		}
+		try {
+			journal.compact();
+		} catch (IOException e) {
+			System.err.println("Install journal compaction failed: "
+					+ e.getMessage());
+		}
+	}
 
-		isProcessing.set(true);
+	private void enqueueAppForInstallation(Message<Application> message) {
+		Application app = message.body();
+		if (!inFlight.contains(app.getAppId())
+				&& !retryScheduler.isScheduled(app.getAppId())) {
+			journal.enqueue(app);
+		}
+		installQueue.add(app);
+		processNextApp();
+	}
 
+	private void processNextApp() {
+		Application app;
+		while ((app = installQueue.poll()) != null) {
+			if (retryScheduler.isScheduled(app.getAppId())) {
+				// Fetched again while backing off, the scheduled retry runs it
+				System.out.println("App waiting for retry: " + app.getAppId());
+			} else if (inFlight.add(app.getAppId())) {
+				runPipeline(app);
+			} else {
+				// Fetched again while its install is still running
+				System.out.println("App already in progress: " + app.getAppId());
+			}
+		}
+	}
+
+	private void runPipeline(Application app) {
 		System.out.println("Received app for installation: " + app.getAppId());
 
 		updateAppState(app.getAppId(), ROBOT_ID, app.getVersion(),
 				ApplicationState.PICKEDUP,
 				"App Picked Up for Downloading and Installation.",
 				app.getRetryCount()).onComplete(sc -> {
-					downloadAndInstallApp(app).onSuccess(v -> {
-						System.out.println("App installation completed: "
-								+ app.getAppId());
-						RobotConfig.installedApps.put(app.getAppId(),
-								app.getVersion());
-						updateAppState(app.getAppId(), ROBOT_ID,
-								app.getVersion(), ApplicationState.COMPLETED,
-								"App installed successfully.",
-								app.getRetryCount()).onComplete(result -> {
-									isProcessing.set(false);
-									// Process the next app
-									processNextApp();
-								});
-					}).onFailure(err -> {
-						System.err.println("App installation failed: "
-								+ app.getAppId() + " - " + err.getMessage());
-						updateAppState(app.getAppId(), ROBOT_ID,
-								app.getVersion(), ApplicationState.ERROR,
-								"Installation failed: " + err.getMessage(),
-								app.getRetryCount()).onComplete(result -> {
-									app.setRetryCount(app.getRetryCount() + 1);
-									if (app.getRetryCount() < retryCountForInstall) {
-										// Add to errorQueue if retries left
-										errorQueue.add(app);
-									}
-									isProcessing.set(false);
-									// Process the next app
-									processNextApp();
-								});
-					});
+					downloadStage.submit(() -> downloadApp(app))
+							.compose(v -> verifyStage
+									.submit(() -> verifyApp(app)))
+							.compose(v -> installStage
+									.submit(() -> installApp(app)))
+							.onSuccess(v -> onInstalled(app))
+							.onFailure(err -> onFailed(app, err));
 				});
 	}
 
-	private void processErroredApps() {
-		if (installQueue.isEmpty() && !errorQueue.isEmpty()) {
-			Application app;
-			while ((app = errorQueue.poll()) != null) {
-				if (app.getRetryCount() < retryCountForInstall) {
-					installQueue.add(app); // Add back to installQueue for retry
-				} else {
-					System.err.println(
-							"Max retries reached for app: " + app.getAppId());
-				}
-			}
-			processNextApp();
+	private void onInstalled(Application app) {
+		try {
+			// Durable before COMPLETED is reported, a reboot must not make
+			// the robot fetch the app again
+			RobotConfig.markInstalled(app.getAppId(), app.getVersion());
+		} catch (IOException e) {
+			onFailed(app, e);
+			return;
 		}
+		System.out.println("App installation completed: " + app.getAppId());
+		journal.done(app.getAppId());
+		updateAppState(app.getAppId(), ROBOT_ID, app.getVersion(),
+				ApplicationState.COMPLETED, "App installed successfully.",
+				app.getRetryCount()).onComplete(result -> finish(app));
 	}
 
-	private Future<Void> downloadAndInstallApp(Application app) {
-		Promise<Void> promise = Promise.promise();
+	private void onFailed(Application app, Throwable err) {
+		System.err.println("App installation failed: " + app.getAppId()
+				+ " - " + err.getMessage());
+		updateAppState(app.getAppId(), ROBOT_ID, app.getVersion(),
+				ApplicationState.ERROR,
+				"Installation failed: " + err.getMessage(),
+				app.getRetryCount()).onComplete(result -> {
+					app.setRetryCount(app.getRetryCount() + 1);
+					scheduleRetry(app, err);
+					finish(app);
+				});
+	}
+
+	private void scheduleRetry(Application app, Throwable err) {
+		if (RetryScheduler.isPermanent(err)) {
+			System.err.println("Permanent failure, not retrying app: "
+					+ app.getAppId());
+			journal.done(app.getAppId());
+			return;
+		}
+		if (app.getRetryCount() >= retryCountForInstall) {
+			System.err.println("Max retries reached for app: " + app.getAppId());
+			journal.done(app.getAppId());
+			return;
+		}
+		long nextAttempt = System.currentTimeMillis()
+				+ retryScheduler.backoff(app.getRetryCount());
+		journal.retry(app, nextAttempt);
+		retryAt(app, nextAttempt);
+		System.out.println("Retrying app " + app.getAppId() + " in "
+				+ (nextAttempt - System.currentTimeMillis()) + " ms");
+	}
+
+	private void retryAt(Application app, long nextAttempt) {
+		retryScheduler.scheduleAt(app.getAppId(), nextAttempt, () -> {
+			installQueue.add(app);
+			processNextApp();
+		});
+	}
+
+	private void finish(Application app) {
+		inFlight.remove(app.getAppId());
+		// Process the next app
+		processNextApp();
+	}
+
+	private Future<Void> downloadApp(Application app) {
 		System.out.println("Started Downloading app: " + app.getAppId());
-		// Simulate the download process (replace with actual logic)
-		vertx.setTimer(5000, id -> {
-			System.out
-					.println("Downloading in progress app: " + app.getAppId());
-			boolean downloadSuccess = false; // Simulate success
-
-			if (downloadSuccess) {
-				System.out.println("Downloaded app: " + app.getAppId());
-				installApp(app, promise); // Pass the promise to installApp
-			} else {
-				System.err.println("Downloaded failed: " + app.getAppId());
-				promise.fail("Download failed");
+		String name = artifactName(app);
+		// Cheapest first: bytes already on disk, a patch, the full artifact
+		Future<Artifact> cached = app.getChecksum() == null
+				? Future.succeededFuture()
+				: artifactCache.lookup(app.getChecksum(),
+						downloadEngine.path(name));
+		return cached.compose(artifact -> {
+			if (artifact != null) {
+				System.out.println("Artifact cache hit for app: "
+						+ app.getAppId());
+				return Future.succeededFuture(artifact);
+			}
+			return patchApp(app).recover(err -> {
+				System.err.println("Patching failed, downloading app: "
+						+ app.getAppId() + " - " + err.getMessage());
+				return Future.succeededFuture();
+			});
+		}).compose(artifact -> artifact != null
+				? Future.succeededFuture(artifact)
+				: download(app, name))
+				.onSuccess(artifact -> {
+					System.out.println("Downloaded app: " + app.getAppId()
+							+ " " + artifact);
+					downloads.put(app.getAppId(), artifact);
+				}).onFailure(err -> System.err.println(
+						"Downloaded failed: " + app.getAppId()))
+				.mapEmpty();
+	}
+
+	// Full download, resuming from what a previous run got onto the disk
+	private Future<Artifact> download(Application app, String name) {
+		Long trusted = resumeOffsets.remove(app.getAppId());
+		if (trusted != null && trusted > 0) {
+			System.out.println("Resuming download of app " + app.getAppId()
+					+ " at " + trusted + " bytes");
+		}
+		return downloadEngine.download(app.getUrl(), name,
+				trusted == null ? Long.MAX_VALUE : trusted,
+				offset -> journal.progress(app.getAppId(), offset));
+	}
+
+	// Builds the new version from the installed one when the appstore sent
+	// a patch for it, completes with null when there is nothing to patch.
+	private Future<Artifact> patchApp(Application app) {
+		String from = app.getPatchFrom();
+		if (app.getPatchUrl() == null || !Objects.equals(from,
+				RobotConfig.installedApps.get(app.getAppId()))) {
+			return Future.succeededFuture();
+		}
+		String installed = installedPath(app.getAppId(), from);
+		return vertx.fileSystem().exists(installed).compose(exists -> {
+			if (!exists) {
+				return Future.succeededFuture();
 			}
+			System.out.println("Patching app: " + app.getAppId() + " " + from
+					+ " -> " + app.getVersion() + " (" + app.getPatchSize()
+					+ " bytes)");
+			return downloadEngine
+					.patch(app.getPatchUrl(), installed, artifactName(app))
+					.compose(artifact -> {
+						if (app.getChecksum() == null || app.getChecksum()
+								.equalsIgnoreCase(artifact.getSha256())) {
+							return Future.succeededFuture(artifact);
+						}
+						return vertx.fileSystem().delete(artifact.getPath())
+								.transform(ar -> Future.failedFuture(
+										"Patched artifact checksum mismatch"));
+					});
 		});
+	}
 
-		return promise.future();
+	private Future<Void> verifyApp(Application app) {
+		Artifact artifact = downloads.get(app.getAppId());
+		if (app.getChecksum() == null) {
+			System.out.println("No checksum published for app: "
+					+ app.getAppId() + ", skipping verification");
+			return Future.succeededFuture();
+		}
+		if (!app.getChecksum().equalsIgnoreCase(artifact.getSha256())) {
+			downloads.remove(app.getAppId());
+			// Corrupt download, make sure the retry starts from scratch
+			return vertx.fileSystem().delete(artifact.getPath())
+					.transform(ar -> Future.failedFuture("Checksum mismatch"));
+		}
+		System.out.println("Verified app: " + app.getAppId());
+		// Keep a copy for retries and reinstalls before the install moves it
+		return artifactCache.store(artifact);
 	}
 
-	private void installApp(Application app, Promise<Void> promise) {
+	private Future<Void> installApp(Application app) {
 		System.out.println("Started Installing app: " + app.getAppId());
+		Artifact artifact = downloads.remove(app.getAppId());
+		String appDir = RobotConfig.dataDir + "/apps/" + app.getAppId();
+		FileSystem fs = vertx.fileSystem();
 
-		// Simulate installation
-		vertx.setTimer(3000, id -> {
-			System.out.println("Installing in progress app: " + app.getAppId());
-			boolean installSuccess = true; // Simulate success
+		return fs.mkdirs(appDir)
+				.compose(v -> fs.move(artifact.getPath(),
+						installedPath(app.getAppId(), app.getVersion()),
+						new CopyOptions().setReplaceExisting(true)))
+				.onSuccess(v -> System.out
+						.println("Installed app: " + app.getAppId()))
+				.onFailure(err -> System.err
+						.println("Installing failed: " + app.getAppId()));
+	}
 
-			if (installSuccess) {
-				System.out.println("Installed app: " + app.getAppId());
-				promise.complete();
-			} else {
-				System.err.println("Installing failed: " + app.getAppId());
-				promise.fail("Installation failed");
-			}
-		});
+	// Installed versions stay on disk, they are the base for later patches
+	private static String installedPath(String appId, String version) {
+		return RobotConfig.dataDir + "/apps/" + appId + "/" + version;
+	}
+
+	private static String artifactName(Application app) {
+		return (app.getAppId() + "-" + app.getVersion())
+				.replaceAll("[^A-Za-z0-9._-]", "_");
 	}
 
 	private Future<Void> updateAppState(String appId, String robotId,
 			String version, ApplicationState state, String message,
 			int retryCount) {
-		Promise<Void> promise = Promise.promise();
-		HttpClient client = vertx.createHttpClient();
-
 		UpdateAppStateRequest updateAppStateReq = new UpdateAppStateRequest(
 				appId, robotId, version, retryCount, state, message,
 				Instant.now());
 
-		String updateUrl = "http://localhost:8080/api/state-update";
-
-		RequestOptions options = new RequestOptions().setMethod(HttpMethod.POST)
-				.setAbsoluteURI(updateUrl);
-
-		client.request(options)
-				.compose(req -> req.send(Json.encode(updateAppStateReq)))
-				.compose(resp -> {
-					if (resp.statusCode() == 200) {
-						System.out.println(
-								"State updated successfully for app: " + appId);
-						promise.complete();
-					} else {
-						System.err.println(
-								"Failed to update state for app: " + appId);
-						promise.fail("Failed to update state");
-					}
-					return promise.future();
-				}).onFailure(pr -> {
-					System.err.println(
-							"Failed to update state for app: " + appId);
-					pr.printStackTrace();
-				});
-
-		return promise.future();
+		return stateUpdateBatcher.submit(updateAppStateReq).onSuccess(v -> {
+			System.out.println("State updated successfully for app: " + appId);
+		}).onFailure(err -> {
+			System.err.println("Failed to update state for app: " + appId
+					+ " - " + err.getMessage());
+		});
 	}
 }
@@ -0,0 +1,108 @@
+package com.miko.robot.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.miko.robot.domain.ApplicationState;
+import com.miko.robot.domain.FetchAppsRequest;
+import com.miko.robot.domain.UpdateAppStateRequest;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.json.jackson.DatabindCodec;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+
+@ExtendWith(VertxExtension.class)
+public class TestAppStoreClient {
+
+  private final AtomicInteger connections = new AtomicInteger();
+  private final List<HttpVersion> versions = new ArrayList<>();
+
+  // Instants on the wire, as set up by the MainVerticle
+  @BeforeAll
+  static void register_time_module() {
+    DatabindCodec.mapper().registerModule(new JavaTimeModule());
+  }
+
+  // Answers the catalog with an entity tag and 304 once the robot has it
+  private Future<Integer> appstore(Vertx vertx) {
+    return vertx.createHttpServer(new HttpServerOptions().setHttp2ClearTextEnabled(true))
+        .connectionHandler(conn -> connections.incrementAndGet())
+        .requestHandler(req -> req.body().onSuccess(body -> {
+          versions.add(req.version());
+          if (!req.path().equals("/api/apps")) {
+            req.response().end("State updated");
+          } else if ("\"r1\"".equals(req.getHeader("If-None-Match"))) {
+            req.response().setStatusCode(304).end();
+          } else {
+            req.response().putHeader("ETag", "\"r1\"").end(new JsonObject().put("robotId", "123")
+                .put("applications", new JsonArray().add(new JsonObject().put("appId", "1")
+                    .put("name", "Chess").put("version", "1.0").put("url", "http://cdn/1")))
+                .encode());
+          }
+        })).listen(0).map(server -> server.actualPort());
+  }
+
+  private static FetchAppsRequest fetch() {
+    return new FetchAppsRequest("123", List.of());
+  }
+
+  private static UpdateAppStateRequest update() {
+    return new UpdateAppStateRequest("1", "123", "1.0", 0, ApplicationState.COMPLETED, null,
+        Instant.now());
+  }
+
+  @Test
+  void keeps_one_connection_for_sequential_calls(Vertx vertx, VertxTestContext testContext) {
+    appstore(vertx).onComplete(testContext.succeeding(port -> {
+      AppStoreClient client = new AppStoreClient(vertx, new JsonObject().put("appstore.port", port));
+      client.fetchApps(fetch()).compose(first -> {
+        testContext.verify(() -> assertEquals(1, first.getApplications().size()));
+        return client.updateState(update());
+      }).compose(v -> client.fetchApps(fetch())).compose(second -> {
+        testContext.verify(() -> assertNull(second));
+        return client.updateState(update());
+      }).compose(v -> client.updateStates(List.of(update(), update())))
+          .onComplete(testContext.succeeding(v -> testContext.verify(() -> {
+            assertEquals(1, connections.get());
+            assertEquals(5, versions.size());
+            assertEquals(List.of(HttpVersion.HTTP_1_1), versions.stream().distinct().toList());
+            testContext.completeNow();
+          })));
+    }));
+  }
+
+  @Test
+  void multiplexes_concurrent_calls_over_h2c(Vertx vertx, VertxTestContext testContext) {
+    appstore(vertx).onComplete(testContext.succeeding(port -> {
+      AppStoreClient client = new AppStoreClient(vertx,
+          new JsonObject().put("appstore.port", port).put("http.http2", true));
+      List<Future<?>> calls = new ArrayList<>();
+      for (int i = 0; i < 5; i++) {
+        calls.add(client.fetchApps(fetch()));
+        calls.add(client.updateState(update()));
+      }
+      Future.all(calls).onComplete(testContext.succeeding(v -> testContext.verify(() -> {
+        assertEquals(1, connections.get());
+        assertEquals(10, versions.size());
+        assertEquals(List.of(HttpVersion.HTTP_2), versions.stream().distinct().toList());
+        testContext.completeNow();
+      })));
+    }));
+  }
+}
@@ -0,0 +1,46 @@
+package com.miko.robot.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+
+@ExtendWith(VertxExtension.class)
+public class TestCatalogPushClient {
+
+  @Test
+  void malformed_frame_is_ignored(Vertx vertx, VertxTestContext testContext) {
+    AtomicInteger changes = new AtomicInteger();
+    List<Throwable> uncaught = new ArrayList<>();
+    vertx.exceptionHandler(uncaught::add);
+    vertx.createHttpServer().webSocketHandler(ws -> {
+      ws.writeTextMessage("<html>Bad gateway</html>");
+      ws.writeTextMessage(new JsonObject().put("revision", 2).put("spreadMs", 0).encode());
+    }).listen(0).onComplete(testContext.succeeding(server -> {
+      CatalogPushClient[] client = new CatalogPushClient[1];
+      client[0] = new CatalogPushClient(vertx,
+          new JsonObject().put("appstore.port", server.actualPort()), "123", () -> {
+            // The good frame after the bad one still gets through
+            changes.incrementAndGet();
+            vertx.setTimer(100, id -> testContext.verify(() -> {
+              assertEquals(List.of(), uncaught);
+              assertEquals(1, changes.get());
+              assertTrue(client[0].isConnected());
+              client[0].close();
+              testContext.completeNow();
+            }));
+          });
+      client[0].start();
+    }));
+  }
+}
@@ -0,0 +1,111 @@
+package com.miko.robot.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.miko.robot.domain.ApplicationState;
+import com.miko.robot.domain.UpdateAppStateRequest;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.json.jackson.DatabindCodec;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+
+@ExtendWith(VertxExtension.class)
+public class TestStateUpdateBatcher {
+
+  // Instants on the wire, as set up by the MainVerticle
+  @BeforeAll
+  static void register_time_module() {
+    DatabindCodec.mapper().registerModule(new JavaTimeModule());
+  }
+
+  // Path and number of updates of every request the appstore received
+  private final List<String> requests = new ArrayList<>();
+
+  private Future<AppStoreClient> appstore(Vertx vertx, int status) {
+    return vertx.createHttpServer().requestHandler(req -> req.body().onSuccess(body -> {
+      int count = req.path().endsWith("/batch") ? new JsonArray(body).size() : 1;
+      requests.add(req.path() + " " + count);
+      req.response().setStatusCode(status).end();
+    })).listen(0).map(server -> new AppStoreClient(vertx,
+        new JsonObject().put("appstore.port", server.actualPort())));
+  }
+
+  private static UpdateAppStateRequest update(String appId) {
+    return new UpdateAppStateRequest(appId, "robot-1", "1.0", 0, ApplicationState.COMPLETED,
+        "done", Instant.now());
+  }
+
+  @Test
+  void updates_within_the_window_go_in_one_batch(Vertx vertx, VertxTestContext testContext) {
+    appstore(vertx, 200).onComplete(testContext.succeeding(client -> {
+      StateUpdateBatcher batcher = new StateUpdateBatcher(vertx, client,
+          new JsonObject().put("state.batch.window.ms", 50L));
+      Future.all(batcher.submit(update("1")), batcher.submit(update("2")), batcher.submit(update("3")))
+          .onComplete(testContext.succeeding(all -> testContext.verify(() -> {
+            assertEquals(List.of("/api/state-update/batch 3"), requests);
+            testContext.completeNow();
+          })));
+      testContext.verify(() -> assertEquals(List.of(), requests));
+    }));
+  }
+
+  @Test
+  void full_batch_is_sent_without_waiting_for_the_window(Vertx vertx,
+      VertxTestContext testContext) {
+    appstore(vertx, 200).onComplete(testContext.succeeding(client -> {
+      StateUpdateBatcher batcher = new StateUpdateBatcher(vertx, client,
+          new JsonObject().put("state.batch.window.ms", 60_000L).put("state.batch.max", 2));
+      long start = System.currentTimeMillis();
+      Future.all(batcher.submit(update("1")), batcher.submit(update("2")))
+          .onComplete(testContext.succeeding(all -> testContext.verify(() -> {
+            assertEquals(List.of("/api/state-update/batch 2"), requests);
+            assertTrue(System.currentTimeMillis() - start < 10_000);
+            testContext.completeNow();
+          })));
+    }));
+  }
+
+  @Test
+  void single_update_uses_the_plain_route(Vertx vertx, VertxTestContext testContext) {
+    appstore(vertx, 200).onComplete(testContext.succeeding(client -> {
+      StateUpdateBatcher batcher = new StateUpdateBatcher(vertx, client,
+          new JsonObject().put("state.batch.window.ms", 20L));
+      batcher.submit(update("1")).onComplete(testContext.succeeding(v -> testContext.verify(() -> {
+        assertEquals(List.of("/api/state-update 1"), requests);
+        testContext.completeNow();
+      })));
+    }));
+  }
+
+  @Test
+  void failed_batch_fails_every_waiter(Vertx vertx, VertxTestContext testContext) {
+    appstore(vertx, 500).onComplete(testContext.succeeding(client -> {
+      StateUpdateBatcher batcher = new StateUpdateBatcher(vertx, client,
+          new JsonObject().put("state.batch.window.ms", 20L));
+      List<Future<Void>> waiters = List.of(batcher.submit(update("1")),
+          batcher.submit(update("2")), batcher.submit(update("3")));
+      Future.join(waiters).onComplete(all -> testContext.verify(() -> {
+        for (Future<Void> waiter : waiters) {
+          assertTrue(waiter.failed());
+          assertEquals("Failed to update states: 500", waiter.cause().getMessage());
+        }
+        assertEquals(List.of("/api/state-update/batch 3"), requests);
+        testContext.completeNow();
+      }));
+    }));
+  }
+}
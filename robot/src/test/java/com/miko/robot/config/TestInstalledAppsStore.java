@@ -0,0 +1,79 @@
+package com.miko.robot.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class TestInstalledAppsStore {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void survives_reopen_across_checkpoints() throws Exception {
+    try (InstalledAppsStore store = InstalledAppsStore.open(dir, 3)) {
+      store.put("1", "1.0.1");
+      store.put("2", "2.0");
+      store.put("1", "1.0.2");
+      // Checkpointed, the rest only lives in the log
+      store.put("3", "3.0");
+    }
+    assertTrue(Files.exists(dir.resolve("installed.snapshot")));
+    assertTrue(Files.size(dir.resolve("installed.wal")) > 0);
+
+    try (InstalledAppsStore store = InstalledAppsStore.open(dir, 3)) {
+      assertEquals(Map.of("1", "1.0.2", "2", "2.0", "3", "3.0"), store.installed());
+    }
+  }
+
+  @Test
+  void ignores_a_torn_log_record() throws Exception {
+    try (InstalledAppsStore store = InstalledAppsStore.open(dir, 100)) {
+      store.put("1", "1.0.1");
+    }
+    // Power cut halfway through the next append
+    Files.write(dir.resolve("installed.wal"), new byte[] { 0, 0, 0, 20, 1, 2 },
+        StandardOpenOption.APPEND);
+
+    try (InstalledAppsStore store = InstalledAppsStore.open(dir, 100)) {
+      assertEquals(Map.of("1", "1.0.1"), store.installed());
+      store.put("2", "2.0");
+    }
+    try (InstalledAppsStore store = InstalledAppsStore.open(dir, 100)) {
+      assertEquals(Map.of("1", "1.0.1", "2", "2.0"), store.installed());
+    }
+  }
+
+  @Test
+  void moves_a_corrupt_snapshot_aside_and_keeps_the_log() throws Exception {
+    try (InstalledAppsStore store = InstalledAppsStore.open(dir, 2)) {
+      store.put("1", "1.0.1");
+      store.put("2", "2.0");
+      store.put("3", "3.0");
+    }
+    byte[] snapshot = Files.readAllBytes(dir.resolve("installed.snapshot"));
+    snapshot[snapshot.length - 1] ^= 1;
+    Files.write(dir.resolve("installed.snapshot"), snapshot);
+
+    try (InstalledAppsStore store = InstalledAppsStore.open(dir, 2)) {
+      assertEquals(Map.of("3", "3.0"), store.installed());
+      // Installs are durable again right away
+      store.put("4", "4.0");
+    }
+    try (Stream<Path> files = Files.list(dir)) {
+      assertEquals(1, files.filter(file -> file.getFileName().toString()
+          .startsWith("installed.snapshot.corrupt-")).count());
+    }
+    try (InstalledAppsStore store = InstalledAppsStore.open(dir, 2)) {
+      assertEquals(Map.of("3", "3.0", "4", "4.0"), store.installed());
+    }
+  }
+}
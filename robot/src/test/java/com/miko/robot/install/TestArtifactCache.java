@@ -0,0 +1,61 @@
+package com.miko.robot.install;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+
+@ExtendWith(VertxExtension.class)
+public class TestArtifactCache {
+
+  private static Artifact artifact(Path dir, String sha256, int size) throws Exception {
+    Path path = dir.resolve(sha256);
+    Files.write(path, new byte[size]);
+    return new Artifact(path.toString(), sha256, size);
+  }
+
+  @Test
+  void evicts_least_recently_used_over_budget(Vertx vertx, VertxTestContext testContext,
+      @TempDir Path dir) throws Exception {
+    ArtifactCache cache = new ArtifactCache(vertx, dir.resolve("cache").toString(), 250);
+    Artifact a = artifact(dir, "aa", 100);
+    Artifact b = artifact(dir, "bb", 100);
+    Artifact c = artifact(dir, "cc", 100);
+    String target = dir.resolve("downloads/app").toString();
+
+    cache.start()
+        .compose(v -> cache.store(a))
+        .compose(v -> cache.store(b))
+        // Touch "aa" so "bb" is the eldest when "cc" pushes the cache over budget
+        .compose(v -> cache.lookup("AA", target))
+        .compose(hit -> cache.store(c).map(hit))
+        .compose(hit -> cache.lookup("bb", target).map(miss -> {
+          testContext.verify(() -> {
+            assertEquals(100, hit.getSize());
+            assertArrayEquals(new byte[100], Files.readAllBytes(Path.of(hit.getPath())));
+            assertNull(miss);
+          });
+          return null;
+        }))
+        .onComplete(testContext.succeeding(v -> testContext.verify(() -> {
+          JsonObject metrics = cache.metrics();
+          assertEquals(2, metrics.getInteger("entries"));
+          assertEquals(200L, metrics.getLong("bytes"));
+          assertEquals(1L, metrics.getLong("hits"));
+          assertEquals(1L, metrics.getLong("misses"));
+          assertEquals(100L, metrics.getLong("bytesSaved"));
+          testContext.completeNow();
+        })));
+  }
+}
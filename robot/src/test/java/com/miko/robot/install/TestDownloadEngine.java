@@ -0,0 +1,101 @@
+package com.miko.robot.install;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+
+@ExtendWith(VertxExtension.class)
+public class TestDownloadEngine {
+
+  @Test
+  void resumes_interrupted_download_with_range(Vertx vertx, VertxTestContext testContext,
+      @TempDir Path dir) throws Exception {
+    byte[] content = new byte[300 * 1024];
+    new Random(7).nextBytes(content);
+    String sha256 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+    AtomicInteger requests = new AtomicInteger();
+
+    vertx.createHttpServer().requestHandler(req -> {
+      String range = req.getHeader("Range");
+      if (requests.incrementAndGet() == 1) {
+        // First attempt: send part of the body and drop the connection
+        req.response().setChunked(true).putHeader("content-length", String.valueOf(content.length));
+        req.response().write(Buffer.buffer(content).slice(0, 200 * 1024))
+            .onComplete(v -> vertx.setTimer(200, id -> req.connection().close()));
+        return;
+      }
+      int from = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+      req.response().setStatusCode(206)
+          .end(Buffer.buffer(content).slice(from, content.length));
+    }).listen(0).onComplete(testContext.succeeding(server -> {
+      DownloadEngine engine = new DownloadEngine(vertx,
+          new JsonObject().put("download.retry.delay.ms", 10L).put("download.chunk.size", 16 * 1024),
+          dir.toString());
+      engine.download("http://localhost:" + server.actualPort() + "/app.bin", "app-1.0.0")
+          .onComplete(testContext.succeeding(artifact -> testContext.verify(() -> {
+            assertEquals(2, requests.get());
+            assertEquals(sha256, artifact.getSha256());
+            assertEquals(content.length, artifact.getSize());
+            assertArrayEquals(content, Files.readAllBytes(Path.of(artifact.getPath())));
+            testContext.completeNow();
+          })));
+    }));
+  }
+
+  @Test
+  void applies_patch_while_streaming(Vertx vertx, VertxTestContext testContext,
+      @TempDir Path dir) throws Exception {
+    byte[] installed = new byte[200 * 1024];
+    new Random(3).nextBytes(installed);
+    Path source = dir.resolve("installed");
+    Files.write(source, installed);
+
+    // New version: the first 150K unchanged, 5 new bytes, then the rest
+    byte[] literal = { 1, 2, 3, 4, 5 };
+    Buffer target = Buffer.buffer().appendBytes(installed, 0, 150 * 1024)
+        .appendBytes(literal).appendBytes(installed, 150 * 1024, 50 * 1024);
+    Buffer patch = Buffer.buffer().appendInt(0x4d4b5031)
+        .appendLong(installed.length).appendLong(target.length())
+        .appendByte((byte) 'C').appendLong(0).appendInt(150 * 1024)
+        .appendByte((byte) 'D').appendInt(literal.length).appendBytes(literal)
+        .appendByte((byte) 'C').appendLong(150 * 1024).appendInt(50 * 1024)
+        .appendByte((byte) 'E');
+    String sha256 = HexFormat.of()
+        .formatHex(MessageDigest.getInstance("SHA-256").digest(target.getBytes()));
+
+    vertx.createHttpServer().requestHandler(req -> {
+      // Dribble the patch out in small pieces to split every operation
+      req.response().setChunked(true);
+      for (int i = 0; i < patch.length(); i += 7) {
+        req.response().write(patch.slice(i, Math.min(i + 7, patch.length())));
+      }
+      req.response().end();
+    }).listen(0).onComplete(testContext.succeeding(server -> {
+      DownloadEngine engine = new DownloadEngine(vertx,
+          new JsonObject().put("download.chunk.size", 16 * 1024), dir.resolve("downloads").toString());
+      engine.patch("http://localhost:" + server.actualPort() + "/app.patch", source.toString(), "app-1.0.1")
+          .onComplete(testContext.succeeding(artifact -> testContext.verify(() -> {
+            assertEquals(sha256, artifact.getSha256());
+            assertEquals(target.length(), artifact.getSize());
+            assertArrayEquals(target.getBytes(), Files.readAllBytes(Path.of(artifact.getPath())));
+            testContext.completeNow();
+          })));
+    }));
+  }
+}
@@ -0,0 +1,90 @@
+package com.miko.robot.install;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.miko.robot.domain.Application;
+
+public class TestInstallJournal {
+
+  @TempDir
+  Path dir;
+
+  private static Application app(String appId, String version, int retryCount) {
+    Application app = new Application(appId, "App " + appId, version, "http://cdn/" + appId);
+    app.setChecksum("abc");
+    app.setRetryCount(retryCount);
+    return app;
+  }
+
+  @Test
+  void replays_pending_installs_with_retries_and_offsets() throws Exception {
+    Path path = dir.resolve("install.journal");
+    try (InstallJournal journal = InstallJournal.open(path, 1024)) {
+      journal.enqueue(app("1", "1.0.1", 0));
+      journal.enqueue(app("2", "2.0", 0));
+      journal.enqueue(app("3", "3.0", 0));
+      journal.progress("1", 4096);
+      journal.retry(app("2", "2.0", 1), 1_700_000_000_000L);
+      journal.done("3");
+      // Enough records to make the mapped file grow
+      for (int i = 0; i < 100; i++) {
+        journal.progress("1", 8192 + i);
+      }
+    }
+
+    try (InstallJournal journal = InstallJournal.open(path, 1024)) {
+      List<InstallJournal.Pending> pending = journal.pending();
+      assertEquals(2, pending.size());
+      assertEquals("1", pending.get(0).getApp().getAppId());
+      assertEquals(8291, pending.get(0).getOffset());
+      assertEquals("abc", pending.get(0).getApp().getChecksum());
+      assertEquals(1, pending.get(1).getApp().getRetryCount());
+      assertEquals(1_700_000_000_000L, pending.get(1).getNextAttempt());
+
+      int before = journal.size();
+      journal.compact();
+      assertTrue(journal.size() < before);
+      assertEquals(4, journal.records());
+    }
+
+    try (InstallJournal journal = InstallJournal.open(path, 1024)) {
+      assertEquals(8291, journal.pending().get(0).getOffset());
+      assertEquals(1_700_000_000_000L, journal.pending().get(1).getNextAttempt());
+    }
+  }
+
+  @Test
+  void stops_at_a_torn_record() throws Exception {
+    Path path = dir.resolve("install.journal");
+    int end;
+    try (InstallJournal journal = InstallJournal.open(path, 1024)) {
+      journal.enqueue(app("1", "1.0.1", 0));
+      end = journal.size();
+      journal.enqueue(app("2", "2.0", 0));
+    }
+    // Power cut in the middle of the second record
+    try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+      file.seek(end + 12);
+      file.write(new byte[] { 0x7f, 0x7f, 0x7f });
+    }
+
+    try (InstallJournal journal = InstallJournal.open(path, 1024)) {
+      assertEquals(1, journal.pending().size());
+      assertEquals(end, journal.size());
+      // Appends continue where the valid records end
+      journal.enqueue(app("3", "3.0", 0));
+    }
+    try (InstallJournal journal = InstallJournal.open(path, 1024)) {
+      assertEquals(2, journal.pending().size());
+      assertEquals("3", journal.pending().get(1).getApp().getAppId());
+    }
+  }
+}
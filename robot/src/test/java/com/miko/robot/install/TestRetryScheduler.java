@@ -0,0 +1,68 @@
+package com.miko.robot.install;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+
+@ExtendWith(VertxExtension.class)
+public class TestRetryScheduler {
+
+  @Test
+  void backoff_grows_with_jitter_up_to_the_cap(Vertx vertx) {
+    RetryScheduler scheduler = new RetryScheduler(vertx, new JsonObject()
+        .put("install.retry.base.ms", 1000L).put("install.retry.max.ms", 8000L), new Random(1));
+    for (int i = 0; i < 100; i++) {
+      long first = scheduler.backoff(1);
+      long third = scheduler.backoff(3);
+      long tenth = scheduler.backoff(10);
+      assertTrue(first >= 500 && first <= 1000, "first " + first);
+      assertTrue(third >= 2000 && third <= 4000, "third " + third);
+      assertTrue(tenth >= 4000 && tenth <= 8000, "tenth " + tenth);
+    }
+  }
+
+  @Test
+  void classifies_failures() {
+    assertTrue(RetryScheduler.isPermanent(new DownloadException(404, "gone")));
+    assertFalse(RetryScheduler.isPermanent(new DownloadException(429, "throttled")));
+    assertFalse(RetryScheduler.isPermanent(new DownloadException(503, "unavailable")));
+    assertFalse(RetryScheduler.isPermanent(new DownloadException("reset", new RuntimeException())));
+    assertFalse(RetryScheduler.isPermanent(new IllegalStateException("Checksum mismatch")));
+  }
+
+  @Test
+  void runs_retries_in_deadline_order(Vertx vertx, VertxTestContext testContext) {
+    // Two slots force the later retry around the wheel more than once
+    RetryScheduler scheduler = new RetryScheduler(vertx, new JsonObject()
+        .put("install.retry.tick.ms", 10L).put("install.retry.base.ms", 40L)
+        .put("install.retry.wheel.slots", 2), new Random(3));
+    List<String> ran = new ArrayList<>();
+
+    vertx.runOnContext(v -> {
+      scheduler.schedule("late", 3, () -> {
+        ran.add("late");
+        testContext.verify(() -> {
+          assertEquals(List.of("early", "late"), ran);
+          assertEquals(0, scheduler.size());
+        });
+        testContext.completeNow();
+      });
+      scheduler.schedule("early", 1, () -> ran.add("early"));
+      scheduler.schedule("cancelled", 1, () -> ran.add("cancelled"));
+      assertTrue(scheduler.cancel("cancelled"));
+      assertTrue(scheduler.nextAttempt("late") > scheduler.nextAttempt("early"));
+    });
+  }
+}
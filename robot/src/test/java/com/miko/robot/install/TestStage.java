@@ -0,0 +1,100 @@
+package com.miko.robot.install;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+
+@ExtendWith(VertxExtension.class)
+public class TestStage {
+
+  private final List<String> started = new ArrayList<>();
+  private int peakDownloads;
+  private int peakInstalls;
+  private int downloadsDuringInstall;
+
+  private static Supplier<Future<Void>> delayed(Vertx vertx, long delay, Runnable onStart) {
+    return () -> {
+      onStart.run();
+      Promise<Void> promise = Promise.promise();
+      vertx.setTimer(delay, id -> promise.complete());
+      return promise.future();
+    };
+  }
+
+  @Test
+  void queued_tasks_start_in_submission_order(Vertx vertx, VertxTestContext testContext) {
+    vertx.runOnContext(v -> {
+      Stage stage = new Stage("install", 1);
+      List<Future<Void>> results = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        String task = "app-" + i;
+        results.add(stage.submit(delayed(vertx, 10, () -> started.add(task))));
+      }
+      testContext.verify(() -> {
+        assertEquals(List.of("app-0"), started);
+        assertEquals(1, stage.running());
+        assertEquals(3, stage.waiting());
+      });
+      Future.all(results).onComplete(testContext.succeeding(all -> testContext.verify(() -> {
+        assertEquals(List.of("app-0", "app-1", "app-2", "app-3"), started);
+        assertEquals(0, stage.running());
+        assertEquals(0, stage.waiting());
+        testContext.completeNow();
+      })));
+    });
+  }
+
+  @Test
+  void downloads_go_on_while_an_install_runs(Vertx vertx, VertxTestContext testContext) {
+    vertx.runOnContext(v -> {
+      Stage download = new Stage("download", 3);
+      Stage install = new Stage("install", 1);
+      List<Future<Void>> results = new ArrayList<>();
+      for (int i = 0; i < 6; i++) {
+        results.add(download.submit(delayed(vertx, 20, () -> {
+          peakDownloads = Math.max(peakDownloads, download.running());
+          if (install.running() == 1) {
+            downloadsDuringInstall++;
+          }
+        })).compose(done -> install.submit(delayed(vertx, 50, () -> {
+          peakInstalls = Math.max(peakInstalls, install.running());
+        }))));
+      }
+      Future.all(results).onComplete(testContext.succeeding(all -> testContext.verify(() -> {
+        assertEquals(3, peakDownloads);
+        assertEquals(1, peakInstalls);
+        // The second round of 3 downloads starts while the first install runs
+        assertTrue(downloadsDuringInstall >= 3, "downloads during install " + downloadsDuringInstall);
+        testContext.completeNow();
+      })));
+    });
+  }
+
+  @Test
+  void failing_task_releases_its_slot(Vertx vertx, VertxTestContext testContext) {
+    vertx.runOnContext(v -> {
+      Stage stage = new Stage("verify", 1);
+      Future<Void> failed = stage.submit(() -> {
+        throw new IllegalStateException("Checksum mismatch");
+      });
+      Future<Void> next = stage.submit(delayed(vertx, 10, () -> started.add("next")));
+      next.onComplete(testContext.succeeding(done -> testContext.verify(() -> {
+        assertTrue(failed.failed());
+        assertEquals(List.of("next"), started);
+        testContext.completeNow();
+      })));
+    });
+  }
+}